@@ -0,0 +1,2 @@
+mvn -B clean package
+java -jar target/benchmarks.jar -rf json -rff benchmark-results.json
@@ -0,0 +1,2 @@
+mvn -B clean package
+java -cp target/benchmarks.jar FLBConvertor.RegressionGate
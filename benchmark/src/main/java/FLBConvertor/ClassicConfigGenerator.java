@@ -0,0 +1,158 @@
+package FLBConvertor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds synthetic classic format configurations for the benchmarks. The
+ * sections cycle through inputs, filters and outputs in the same style as the
+ * configurations in the test folder, with a single service block at the start.
+ */
+public final class ClassicConfigGenerator {
+
+  private static final String NL = "\n";
+
+  /**
+   * The dummy record used in test/test.conf - when a larger payload is needed
+   * the record is repeated inside a JSON array until the requested size is met
+   */
+  static final String DUMMY_RECORD = "{   \"time\": \"12/May/2023:08:05:52 +0000\",   \"remote_ip\": \"10.4.72.163\","
+      + "   \"remote_user\": \"-\",   \"request\": {     \"verb\": \"GET\",     \"path\": \" /downloads/product_2\","
+      + "     \"protocol\": \"HTTP\",     \"version\": \"1.1\"   },   \"response\": 304 }";
+
+  private ClassicConfigGenerator() {
+  }
+
+  /**
+   * Builds a dummy attribute value of at least the requested size
+   * 
+   * @param minBytes the minimum size of the value, 0 or less gives a single
+   *                 record
+   * @return the dummy value
+   */
+  static String dummyValue(int minBytes) {
+    if (minBytes <= DUMMY_RECORD.length()) {
+      return DUMMY_RECORD;
+    }
+    StringBuilder value = new StringBuilder(minBytes + DUMMY_RECORD.length() + 2);
+    value.append('[').append(DUMMY_RECORD);
+    while (value.length() < minBytes) {
+      value.append(", ").append(DUMMY_RECORD);
+    }
+    return value.append(']').toString();
+  }
+
+  /**
+   * Generates a classic configuration
+   * 
+   * @param sections   the number of input, filter and output sections to
+   *                   create (the service section is additional)
+   * @param dummyBytes the minimum size of each dummy input's payload
+   * @return the configuration in the classic format
+   */
+  public static String generate(int sections, int dummyBytes) {
+    return generate(sections, dummyBytes, true);
+  }
+
+  /**
+   * Generates a classic configuration, optionally without the service section
+   * so it can be included by another configuration
+   * 
+   * @param sections    the number of input, filter and output sections to
+   *                    create (the service section is additional)
+   * @param dummyBytes  the minimum size of each dummy input's payload
+   * @param withService true to start with a service section
+   * @return the configuration in the classic format
+   */
+  public static String generate(int sections, int dummyBytes, boolean withService) {
+    final String dummy = dummyValue(dummyBytes);
+    StringBuilder conf = new StringBuilder(sections * 160 + (sections / 3 + 1) * dummy.length());
+    if (withService) {
+      conf.append("[SERVICE]").append(NL);
+      conf.append("  flush 1").append(NL);
+      conf.append("  log_level info").append(NL);
+      conf.append("  parsers_file ${FLUENTBIT_HOME}/conf/parsers.conf").append(NL).append(NL);
+    }
+
+    for (int idx = 0; idx < sections; idx++) {
+      final int tag = idx / 3;
+      switch (idx % 3) {
+        case 0:
+          conf.append("[INPUT]").append(NL);
+          conf.append("    name dummy").append(NL);
+          conf.append("    dummy ").append(dummy).append(NL);
+          conf.append("    tag dummy").append(tag).append(NL);
+          conf.append("    Buffer_Size 100mb").append(NL);
+          break;
+        case 1:
+          conf.append("[FILTER]").append(NL);
+          conf.append("  name modify").append(NL);
+          conf.append("  match dummy").append(tag).append(NL);
+          conf.append("  Rule remote_ip ip_address").append(NL);
+          conf.append("  Rule remote_user user").append(NL);
+          conf.append("  Add_if_not_present service_name generated").append(NL);
+          break;
+        default:
+          conf.append("[OUTPUT]").append(NL);
+          conf.append("    name stdout").append(NL);
+          conf.append("    match *").append(NL);
+          conf.append("    Retry_Limit false").append(NL);
+          break;
+      }
+      conf.append(NL);
+    }
+    return conf.toString();
+  }
+
+  /**
+   * Generates a configuration of modify filters that each repeat the Rule key
+   * many times, exercising the multi value attributes
+   * 
+   * @param sections       the number of filters
+   * @param rulesPerFilter the number of Rule lines in each filter
+   * @return the configuration in the classic format
+   */
+  public static String generateRepeatedKeys(int sections, int rulesPerFilter) {
+    StringBuilder conf = new StringBuilder(sections * (rulesPerFilter * 40 + 60));
+    for (int idx = 0; idx < sections; idx++) {
+      conf.append("[FILTER]").append(NL);
+      conf.append("  name modify").append(NL);
+      conf.append("  match dummy").append(idx).append(NL);
+      for (int rule = 0; rule < rulesPerFilter; rule++) {
+        conf.append("  Rule field_").append(rule).append(" renamed_").append(rule).append(NL);
+      }
+      conf.append(NL);
+    }
+    return conf.toString();
+  }
+
+  /**
+   * Writes a chain of classic files where each file includes the next, so
+   * converting the first with includes resolved reads every file in the chain.
+   * Only the first file has a service section.
+   * 
+   * @param folder          where the files are written
+   * @param depth           the number of files in the chain
+   * @param sectionsPerFile the sections generated in each file
+   * @return the first file of the chain
+   * @throws IOException if the files can't be written
+   */
+  public static Path writeIncludeChain(Path folder, int depth, int sectionsPerFile) throws IOException {
+    Files.createDirectories(folder);
+    for (int level = depth - 1; level >= 0; level--) {
+      StringBuilder conf = new StringBuilder();
+      if (level + 1 < depth) {
+        conf.append("@INCLUDE ").append(chainFileName(level + 1)).append(NL).append(NL);
+      }
+      conf.append(generate(sectionsPerFile, 0, level == 0));
+      Files.writeString(folder.resolve(chainFileName(level)), conf, StandardCharsets.UTF_8);
+    }
+    return folder.resolve(chainFileName(0));
+  }
+
+  private static String chainFileName(int level) {
+    return "include-" + level + ".conf";
+  }
+}
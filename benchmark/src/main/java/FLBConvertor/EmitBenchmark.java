@@ -0,0 +1,121 @@
+package FLBConvertor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the write side of the converter - emitting individual plugins and
+ * the whole pipeline. The configurations are parsed once during setup and the
+ * YAML is written to a writer that discards the output, so only the emission
+ * cost is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmitBenchmark {
+
+  private static final String BENCH_FILE = "benchmark.conf";
+
+  /**
+   * Holds a parsed configuration ready to be written
+   */
+  public abstract static class ParsedState {
+    FLBConverter.ConversionContext ctx;
+    ArrayList<FLBConverter.Plugin> plugins;
+
+    void load(int sections, int dummyBytes) throws IOException {
+      ctx = new FLBConverter.ConversionContext(BENCH_FILE);
+      FLBConverter.consumeClassicFile(ctx,
+          new BufferedReader(new StringReader(ClassicConfigGenerator.generate(sections, dummyBytes))));
+      plugins = new ArrayList<FLBConverter.Plugin>();
+      plugins.addAll(ctx.inputs);
+      plugins.addAll(ctx.filters);
+      plugins.addAll(ctx.outputs);
+    }
+  }
+
+  /**
+   * Configurations of increasing numbers of sections with the standard dummy
+   * payload
+   */
+  @State(Scope.Benchmark)
+  public static class SectionsState extends ParsedState {
+    @Param({ "10", "1000", "100000" })
+    public int sections;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      load(sections, 0);
+    }
+  }
+
+  /**
+   * A small number of sections, but with multi-MB dummy payloads
+   */
+  @State(Scope.Benchmark)
+  public static class LargeValueState extends ParsedState {
+    @Param({ "1048576", "8388608" })
+    public int dummyBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      load(10, dummyBytes);
+    }
+  }
+
+  private static int writePlugins(ParsedState state) throws IOException {
+    BufferedWriter out = new BufferedWriter(Writer.nullWriter());
+    for (FLBConverter.Plugin plugin : state.plugins) {
+      plugin.write(out);
+    }
+    out.flush();
+    return state.plugins.size();
+  }
+
+  private static BufferedWriter writePipeline(ParsedState state) throws IOException {
+    BufferedWriter out = new BufferedWriter(Writer.nullWriter());
+    FLBConverter.writePipelineOutput(state.ctx, out);
+    out.flush();
+    return out;
+  }
+
+  @Benchmark
+  public int pluginWrite(SectionsState state) throws IOException {
+    return writePlugins(state);
+  }
+
+  @Benchmark
+  public int pluginWriteLargeValues(LargeValueState state) throws IOException {
+    return writePlugins(state);
+  }
+
+  @Benchmark
+  public BufferedWriter writePipelineOutput(SectionsState state) throws IOException {
+    return writePipeline(state);
+  }
+
+  @Benchmark
+  public BufferedWriter writePipelineOutputLargeValues(LargeValueState state) throws IOException {
+    return writePipeline(state);
+  }
+}
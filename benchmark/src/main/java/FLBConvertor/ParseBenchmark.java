@@ -0,0 +1,169 @@
+package FLBConvertor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the read side of the converter - consuming a classic file, adding
+ * attribute lines to a plugin and converting attribute names to the idiomatic
+ * form.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+  private static final String BENCH_FILE = "benchmark.conf";
+
+  /**
+   * Configurations of increasing numbers of sections with the standard dummy
+   * payload
+   */
+  @State(Scope.Benchmark)
+  public static class SectionsState {
+    @Param({ "10", "1000", "100000" })
+    public int sections;
+
+    String classicConfig;
+    ByteBuffer classicBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      classicConfig = ClassicConfigGenerator.generate(sections, 0);
+      classicBytes = ByteBuffer.wrap(classicConfig.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * A small number of sections, but with multi-MB dummy payloads
+   */
+  @State(Scope.Benchmark)
+  public static class LargeValueState {
+    @Param({ "1048576", "8388608" })
+    public int dummyBytes;
+
+    String classicConfig;
+    ByteBuffer classicBytes;
+    String dummyLine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      classicConfig = ClassicConfigGenerator.generate(10, dummyBytes);
+      classicBytes = ByteBuffer.wrap(classicConfig.getBytes(StandardCharsets.UTF_8));
+      dummyLine = "    dummy " + ClassicConfigGenerator.dummyValue(dummyBytes);
+    }
+  }
+
+  /**
+   * The attribute lines and names used for the plugin level benchmarks
+   */
+  @State(Scope.Benchmark)
+  public static class AttributeState {
+    final String[] lines = {
+        "  name modify",
+        "  match kube.*",
+        "  Rule remote_ip ip_address",
+        "  Rule remote_user user",
+        "  Add_if_not_present service_name generated",
+        "  # a comment line",
+        "  Buffer_Size 100mb",
+        "  dummy " + ClassicConfigGenerator.DUMMY_RECORD,
+        "  kube_meta_cache_TTL 60s",
+        "  merge_log_key log_processed" };
+
+    final String[] attributeNames = {
+        "name", "match", "kube_URL", "kube_CA_file", "kube_token_file", "kube_meta_cache_TTL",
+        "cache_use_docker_id", "merge_log_key", "merge_log_trim", "Buffer_Size", "Mem_Buf_Limit" };
+
+    boolean idiomaticForm;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      idiomaticForm = FLBConverter.useIdiomaticForm;
+      FLBConverter.useIdiomaticForm = true;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      FLBConverter.useIdiomaticForm = idiomaticForm;
+    }
+  }
+
+  private static FLBConverter.ConversionContext consume(String classicConfig) throws IOException {
+    FLBConverter.ConversionContext ctx = new FLBConverter.ConversionContext(BENCH_FILE);
+    FLBConverter.consumeClassicFile(ctx, new BufferedReader(new StringReader(classicConfig)));
+    return ctx;
+  }
+
+  @Benchmark
+  public FLBConverter.ConversionContext consumeClassicFile(SectionsState state) throws IOException {
+    return consume(state.classicConfig);
+  }
+
+  @Benchmark
+  public FLBConverter.ConversionContext consumeClassicFileLargeValues(LargeValueState state) throws IOException {
+    return consume(state.classicConfig);
+  }
+
+  private static FLBConverter.ConversionContext lex(ByteBuffer classicBytes) {
+    FLBConverter.ConversionContext ctx = new FLBConverter.ConversionContext(BENCH_FILE);
+    FLBConverter.consumeClassicFile(ctx, new FLBConverter.ClassicLexer(classicBytes.duplicate()));
+    return ctx;
+  }
+
+  @Benchmark
+  public FLBConverter.ConversionContext consumeClassicFileLexer(SectionsState state) {
+    return lex(state.classicBytes);
+  }
+
+  @Benchmark
+  public FLBConverter.ConversionContext consumeClassicFileLexerLargeValues(LargeValueState state) {
+    return lex(state.classicBytes);
+  }
+
+  @Benchmark
+  public FLBConverter.Plugin pluginAdd(AttributeState state) {
+    FLBConverter.Plugin plugin = new FLBConverter.Plugin(FLBConverter.PluginType.FILTER);
+    for (String line : state.lines) {
+      plugin.add(line, 1);
+    }
+    return plugin;
+  }
+
+  @Benchmark
+  public FLBConverter.Plugin pluginAddLargeValue(LargeValueState state) {
+    FLBConverter.Plugin plugin = new FLBConverter.Plugin(FLBConverter.PluginType.INPUT);
+    plugin.add(state.dummyLine, 1);
+    return plugin;
+  }
+
+  @Benchmark
+  public int toIdiomaticForm(AttributeState state) {
+    FLBConverter.Plugin plugin = new FLBConverter.Plugin(FLBConverter.PluginType.FILTER);
+    int length = 0;
+    for (String name : state.attributeNames) {
+      length += plugin.toIdiomaticForm(name).length();
+    }
+    return length;
+  }
+}
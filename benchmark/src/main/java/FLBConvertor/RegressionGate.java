@@ -0,0 +1,432 @@
+package FLBConvertor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * An end to end regression and throughput gate. Every classic file in the test
+ * folder that has a golden YAML file alongside it is converted and compared
+ * with the golden file. Then a set of generated corpora - many sections,
+ * repeated keys, multi-MB dummy values and a deep chain of includes - are
+ * converted through the same path as the command line, and the files per
+ * second and MB per second for each are compared with a stored baseline. The
+ * gate fails if a golden file differs, or if the throughput of a corpus falls
+ * more than the threshold percentage below its baseline.
+ *
+ * Options are given as name=value arguments:
+ * <ul>
+ * <li>tests - the folder of .conf and golden .yaml files, default ../test</li>
+ * <li>baseline - the baseline properties file, default
+ * regression-baseline.properties</li>
+ * <li>threshold - the percentage drop allowed, default 20</li>
+ * <li>runs - how many times each corpus is converted, the best run is used,
+ * default 3</li>
+ * <li>warmup - how many times each corpus is converted before measuring, so
+ * the JIT has compiled the converter, default 1</li>
+ * <li>work - where the corpora and YAML are written, default
+ * target/regression</li>
+ * <li>update - when true the results are stored as the new baseline</li>
+ * <li>ci - when true a missing baseline, or a corpus missing from it, fails
+ * the gate rather than being recorded, default true when the CI env var is
+ * set</li>
+ * </ul>
+ * When there is no baseline (outside CI) the results are stored as the
+ * baseline, and the throughput isn't checked. A corpus file that fails to
+ * convert fails the gate, and no baseline is written from that run. Per file
+ * options for the golden tests are read from regression.properties in the test
+ * folder, e.g. test4.conf=FLB_IDIOMATICFORM=true
+ */
+public final class RegressionGate {
+
+  private static final String CONF_EXTN = ".conf";
+  private static final String YAML_EXTN = ".yaml";
+  private static final String TEST_OPTIONS = "regression.properties";
+  private static final String IDIOMATIC_OPTION = "FLB_IDIOMATICFORM";
+  private static final String RESOLVE_INCLUDES_OPTION = "FLB_RESOLVE_INCLUDES";
+  private static final String FILES_PER_SECOND = ".filesPerSecond";
+  private static final String MB_PER_SECOND = ".mbPerSecond";
+  private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+  private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+  private static final String CI_ENV = "CI";
+
+  private final Path tests;
+  private final Path baselineFile;
+  private final double threshold;
+  private final int runs;
+  private final int warmup;
+  private final Path work;
+  private final boolean update;
+  private final boolean ci;
+
+  /** the corpus conversions that failed, over every run */
+  private int failedConversions = 0;
+
+  /**
+   * The results of converting one corpus
+   */
+  static final class Throughput {
+    final String corpus;
+    final double filesPerSecond;
+    final double mbPerSecond;
+
+    Throughput(String corpus, int files, long bytes, long nanos) {
+      this.corpus = corpus;
+      this.filesPerSecond = (files * NANOS_PER_SECOND) / nanos;
+      this.mbPerSecond = ((bytes / BYTES_PER_MB) * NANOS_PER_SECOND) / nanos;
+    }
+  }
+
+  /**
+   * A generated corpus - the files converted, and whether includes are
+   * resolved. The bytes are those of every classic file read, including the
+   * included files.
+   */
+  static final class Corpus {
+    final String name;
+    final List<Path> files;
+    final long bytes;
+    final boolean resolveIncludes;
+
+    Corpus(String name, List<Path> files, long bytes, boolean resolveIncludes) {
+      this.name = name;
+      this.files = files;
+      this.bytes = bytes;
+      this.resolveIncludes = resolveIncludes;
+    }
+  }
+
+  RegressionGate(Map<String, String> options) {
+    tests = Paths.get(options.getOrDefault("tests", "../test"));
+    baselineFile = Paths.get(options.getOrDefault("baseline", "regression-baseline.properties"));
+    threshold = Double.parseDouble(options.getOrDefault("threshold", "20"));
+    runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+    warmup = Integer.parseInt(options.getOrDefault("warmup", "1"));
+    work = Paths.get(options.getOrDefault("work", "target/regression"));
+    update = Boolean.parseBoolean(options.getOrDefault("update", "false"));
+    ci = Boolean.parseBoolean(options.getOrDefault("ci", Boolean.toString(System.getenv(CI_ENV) != null)));
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = new LinkedHashMap<String, String>();
+    for (String arg : args) {
+      final int equals = arg.indexOf('=');
+      if (equals < 1) {
+        System.err.println("Options are given as name=value, not " + arg);
+        System.exit(2);
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    FLBConverter.logLevel = FLBConverter.LogLevel.ERROR;
+    boolean passed = false;
+    try {
+      passed = new RegressionGate(options).run();
+    } finally {
+      FLBConverter.AsyncLog.flush();
+    }
+    System.out.println(passed ? "Regression gate passed" : "Regression gate FAILED");
+    System.exit(passed ? 0 : 1);
+  }
+
+  /**
+   * Runs the golden comparisons and the throughput checks
+   *
+   * @return true if everything passed
+   * @throws IOException if the files can't be read or written
+   */
+  boolean run() throws IOException {
+    Files.createDirectories(work);
+    boolean passed = checkGoldenFiles();
+
+    List<Corpus> corpora = generateCorpora();
+    for (int run = 0; run < warmup; run++) {
+      for (Corpus corpus : corpora) {
+        convert(corpus);
+      }
+    }
+    ArrayList<Throughput> results = new ArrayList<Throughput>();
+    for (Corpus corpus : corpora) {
+      results.add(measure(corpus));
+    }
+    if (failedConversions > 0) {
+      System.out.println("FAIL " + failedConversions + " corpus conversions failed - the throughput isn't checked");
+      return false;
+    }
+    return checkBaseline(results) && passed;
+  }
+
+  /**
+   * Converts each test file with a golden YAML file, and compares the two
+   *
+   * @return true if all the conversions match their golden files
+   * @throws IOException if the files can't be read or written
+   */
+  boolean checkGoldenFiles() throws IOException {
+    Properties testOptions = new Properties();
+    Path optionsFile = tests.resolve(TEST_OPTIONS);
+    if (Files.exists(optionsFile)) {
+      try (InputStream in = Files.newInputStream(optionsFile)) {
+        testOptions.load(in);
+      }
+    }
+    Path goldenWork = work.resolve("golden");
+    Files.createDirectories(goldenWork);
+
+    boolean passed = true;
+    int compared = 0;
+    try (DirectoryStream<Path> confs = Files.newDirectoryStream(tests, "*" + CONF_EXTN)) {
+      for (Path conf : confs) {
+        final String name = conf.getFileName().toString();
+        Path golden = tests.resolve(name.substring(0, name.length() - CONF_EXTN.length()) + YAML_EXTN);
+        if (!Files.exists(golden)) {
+          System.out.println("No golden file for " + name + " - skipped");
+          continue;
+        }
+        Path source = goldenWork.resolve(name);
+        Files.copy(conf, source, StandardCopyOption.REPLACE_EXISTING);
+        Path converted = goldenWork.resolve(golden.getFileName());
+        Files.deleteIfExists(converted);
+
+        applyOptions(testOptions.getProperty(name, ""));
+        FLBConverter.convertFile(new FLBConverter.ConversionContext(source.toString(), converted.toString()));
+        applyOptions("");
+        compared++;
+
+        String difference = firstDifference(golden, converted);
+        if (difference != null) {
+          System.out.println("FAIL " + name + ": " + difference);
+          passed = false;
+        } else {
+          System.out.println("PASS " + name);
+        }
+      }
+    }
+    System.out.println("Compared " + compared + " golden files");
+    return passed;
+  }
+
+  /**
+   * Sets the converter options for a test, given as comma separated env var
+   * style settings. An empty string restores the defaults.
+   */
+  private static void applyOptions(String settings) {
+    FLBConverter.useIdiomaticForm = false;
+    FLBConverter.resolveIncludes = false;
+    for (String setting : settings.split(",")) {
+      final int equals = setting.indexOf('=');
+      if (equals < 1) {
+        continue;
+      }
+      final String option = setting.substring(0, equals).trim();
+      final boolean enabled = Boolean.parseBoolean(setting.substring(equals + 1).trim());
+      if (option.equals(IDIOMATIC_OPTION)) {
+        FLBConverter.useIdiomaticForm = enabled;
+      } else if (option.equals(RESOLVE_INCLUDES_OPTION)) {
+        FLBConverter.resolveIncludes = enabled;
+      } else {
+        System.out.println("Option " + option + " isn't supported by the regression gate");
+      }
+    }
+  }
+
+  /**
+   * Compares the files line by line, ignoring blank lines as the regression
+   * scripts do
+   *
+   * @return a description of the first difference, or null if they match
+   */
+  static String firstDifference(Path golden, Path converted) throws IOException {
+    if (!Files.exists(converted)) {
+      return "no YAML was written";
+    }
+    List<String> expected = nonBlank(Files.readAllLines(golden, StandardCharsets.UTF_8));
+    List<String> actual = nonBlank(Files.readAllLines(converted, StandardCharsets.UTF_8));
+    for (int idx = 0; idx < Math.max(expected.size(), actual.size()); idx++) {
+      final String want = (idx < expected.size()) ? expected.get(idx) : "<end of file>";
+      final String got = (idx < actual.size()) ? actual.get(idx) : "<end of file>";
+      if (!want.equals(got)) {
+        return "expected '" + want + "' but found '" + got + "'";
+      }
+    }
+    return null;
+  }
+
+  private static List<String> nonBlank(List<String> lines) {
+    ArrayList<String> kept = new ArrayList<String>(lines.size());
+    for (String line : lines) {
+      if (!line.isBlank()) {
+        kept.add(line);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * Writes the synthetic corpora to the work folder
+   *
+   * @return the corpora
+   * @throws IOException if the files can't be written
+   */
+  List<Corpus> generateCorpora() throws IOException {
+    ArrayList<Corpus> corpora = new ArrayList<Corpus>();
+    corpora.add(writeCorpus("many-sections", 20, () -> ClassicConfigGenerator.generate(3000, 0)));
+    corpora.add(writeCorpus("repeated-keys", 20, () -> ClassicConfigGenerator.generateRepeatedKeys(200, 50)));
+    corpora.add(writeCorpus("large-dummy", 4, () -> ClassicConfigGenerator.generate(6, 4 * 1024 * 1024)));
+
+    Path chainFolder = work.resolve("deep-includes");
+    Path first = ClassicConfigGenerator.writeIncludeChain(chainFolder, 64, 30);
+    corpora.add(new Corpus("deep-includes", List.of(first), folderBytes(chainFolder), true));
+    return corpora;
+  }
+
+  private interface ConfigSource {
+    String generate();
+  }
+
+  private Corpus writeCorpus(String name, int fileCount, ConfigSource source) throws IOException {
+    Path folder = work.resolve(name);
+    Files.createDirectories(folder);
+    final byte[] conf = source.generate().getBytes(StandardCharsets.UTF_8);
+    ArrayList<Path> files = new ArrayList<Path>(fileCount);
+    for (int idx = 0; idx < fileCount; idx++) {
+      Path file = folder.resolve(name + "-" + idx + CONF_EXTN);
+      try (OutputStream out = Files.newOutputStream(file)) {
+        out.write(conf);
+      }
+      files.add(file);
+    }
+    return new Corpus(name, files, (long) conf.length * fileCount, false);
+  }
+
+  private static long folderBytes(Path folder) throws IOException {
+    long bytes = 0;
+    try (DirectoryStream<Path> confs = Files.newDirectoryStream(folder, "*" + CONF_EXTN)) {
+      for (Path conf : confs) {
+        bytes += Files.size(conf);
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Converts the corpus several times, keeping the best run so a single slow
+   * run (such as the first, before the JIT has done its work) doesn't fail the
+   * gate
+   *
+   * @param corpus the corpus to convert
+   * @return the throughput of the best run
+   */
+  Throughput measure(Corpus corpus) {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < runs; run++) {
+      best = Math.min(best, convert(corpus));
+    }
+    Throughput result = new Throughput(corpus.name, corpus.files.size(), corpus.bytes, best);
+    System.out.println(String.format("%-14s %8.1f files/s %8.2f MB/s", corpus.name, result.filesPerSecond,
+        result.mbPerSecond));
+    return result;
+  }
+
+  /**
+   * Converts each file of the corpus. The included files are read each time,
+   * rather than coming from the fragment cache
+   *
+   * @param corpus the corpus to convert
+   * @return the time taken in nanoseconds, failed conversions are counted in
+   *         failedConversions
+   */
+  private long convert(Corpus corpus) {
+    FLBConverter.resolveIncludes = corpus.resolveIncludes;
+    FLBConverter.IncludeFragment.invalidateAll();
+    final long start = System.nanoTime();
+    for (Path file : corpus.files) {
+      FLBConverter.ConversionContext ctx = FLBConverter.convertFile(new FLBConverter.ConversionContext(file.toString()));
+      if (!ctx.converted) {
+        System.out.println("FAIL " + file + " wasn't converted");
+        failedConversions++;
+      }
+    }
+    final long nanos = System.nanoTime() - start;
+    FLBConverter.resolveIncludes = false;
+    return nanos;
+  }
+
+  /**
+   * Compares the results with the baseline, storing them as the baseline when
+   * an update was asked for, or there isn't one and we're not running in CI
+   *
+   * @param results the throughput of each corpus
+   * @return true if no corpus has fallen more than the threshold below its
+   *         baseline
+   * @throws IOException if the baseline can't be read or written
+   */
+  boolean checkBaseline(List<Throughput> results) throws IOException {
+    final boolean missing = !Files.exists(baselineFile);
+    if (missing && !update && ci) {
+      System.out.println("FAIL no baseline at " + baselineFile.toAbsolutePath()
+          + " - record one with update=true on this machine");
+      return false;
+    }
+    if (update || missing) {
+      TreeMap<String, String> baseline = new TreeMap<String, String>();
+      for (Throughput result : results) {
+        baseline.put(result.corpus + FILES_PER_SECOND, Double.toString(result.filesPerSecond));
+        baseline.put(result.corpus + MB_PER_SECOND, Double.toString(result.mbPerSecond));
+      }
+      StringBuilder content = new StringBuilder("# Regression gate throughput baseline, written by RegressionGate\n");
+      for (Map.Entry<String, String> entry : baseline.entrySet()) {
+        content.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+      }
+      Files.writeString(baselineFile, content, StandardCharsets.UTF_8);
+      if (missing) {
+        System.out.println("No baseline at " + baselineFile.toAbsolutePath()
+            + " - these results are now the baseline, the throughput wasn't checked");
+      } else {
+        System.out.println("Baseline written to " + baselineFile);
+      }
+      return true;
+    }
+
+    Properties baseline = new Properties();
+    try (InputStream in = Files.newInputStream(baselineFile)) {
+      baseline.load(in);
+    }
+    boolean passed = true;
+    final double allowed = 1.0 - (threshold / 100.0);
+    for (Throughput result : results) {
+      passed &= checkRate(baseline, result.corpus + FILES_PER_SECOND, result.filesPerSecond, allowed);
+      passed &= checkRate(baseline, result.corpus + MB_PER_SECOND, result.mbPerSecond, allowed);
+    }
+    return passed;
+  }
+
+  private boolean checkRate(Properties baseline, String key, double rate, double allowed) {
+    String stored = baseline.getProperty(key);
+    if (stored == null) {
+      System.out.println((ci ? "FAIL no" : "No") + " baseline for " + key + " in " + baselineFile
+          + " - run with update=true to record one");
+      return !ci;
+    }
+    final double expected = Double.parseDouble(stored);
+    final double change = (expected == 0) ? 0 : ((rate - expected) / expected) * 100.0;
+    if (rate < expected * allowed) {
+      System.out.println(String.format("FAIL %s is %.2f, %.1f%% below the baseline of %.2f (threshold %.1f%%)", key,
+          rate, -change, expected, threshold));
+      return false;
+    }
+    System.out.println(String.format("PASS %s is %.2f (%+.1f%% against the baseline)", key, rate, change));
+    return true;
+  }
+}
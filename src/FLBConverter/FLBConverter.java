@@ -9,20 +9,106 @@
  */
 package FLBConvertor;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.io.UncheckedIOException;
+import java.io.StringWriter;
 import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import java.util.Iterator;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 /**
  * This is the tools main class - so has the main methods etc
  */
@@ -33,6 +119,7 @@ class FLBConverter {
    */
   private static final String INCLUDES_LBL = "#INCLUDES:";
   private static final String HELP = "--help";
+  private static final String STDIN_ARG = "-";
   private static final String FLB_PATH_PREFIX = "FLB_PATH_PREFIX";
   private static final String FLB_PATH_PREFIX_HELP = "Allows us to create a default offset location for our files. Helps when the folder in which the files to be converted are in a different folder";
 
@@ -51,6 +138,83 @@ class FLBConverter {
   private static final String FLB_IDIOMATICFORM = "FLB_IDIOMATICFORM";
   private static final String FLB_IDIOMATICFORM_HELP = "When set the attributev names are converted to use the Kubernmetes idiomatic format";
 
+  private static final String FLB_PARALLELISM = "FLB_PARALLELISM";
+  private static final String FLB_PARALLELISM_HELP = "The number of files to convert concurrently, or auto to use one per CPU core. Defaults to 1 (sequential)";
+
+  private static final String FLB_VIRTUAL_THREADS = "FLB_VIRTUAL_THREADS";
+  private static final String FLB_VIRTUAL_THREADS_HELP = "When set to true the parallel conversions are run on virtual threads rather than platform threads";
+  private static final String AUTO = "auto";
+
+  private static final String FLB_MEMORY_MAPPED = "FLB_MEMORY_MAPPED";
+  private static final String FLB_MEMORY_MAPPED_HELP = "When true classic files are always read by memory mapping them, when false never. By default files of 1MB or more are memory mapped";
+  private static final long MAPPED_MIN_SIZE = 1024 * 1024;
+
+  private static final String FLB_PARALLEL_PARSE = "FLB_PARALLEL_PARSE";
+  private static final String FLB_PARALLEL_PARSE_HELP = "When true a memory mapped classic file is split at its section headers and the parts parsed concurrently, when false never. By default files of 16MB or more are parsed this way";
+  private static final long PARALLEL_PARSE_MIN_SIZE = 16 * 1024 * 1024;
+
+  private static final String FLB_RESOLVE_INCLUDES = "FLB_RESOLVE_INCLUDES";
+  private static final String FLB_RESOLVE_INCLUDES_HELP = "When set to true @include directives are resolved and the included plugins written into the pipeline, rather than being listed as comments";
+
+  private static final String FLB_TREE_ROOT = "FLB_TREE_ROOT";
+  private static final String FLB_TREE_ROOT_HELP = "Converts every classic file found in this folder tree, rather than the files listed in the conversion.list";
+  private static final String FLB_TREE_OUTPUT = "FLB_TREE_OUTPUT";
+  private static final String FLB_TREE_OUTPUT_HELP = "The folder the YAML files are written to when converting a folder tree, mirroring the folders of the source tree. By default the YAML is written alongside the classic files";
+  private static final String FLB_TREE_INCLUDE = "FLB_TREE_INCLUDE";
+  private static final String FLB_TREE_INCLUDE_HELP = "Comma separated globs, relative to the tree root, selecting the files to convert. Defaults to **.conf";
+  private static final String FLB_TREE_EXCLUDE = "FLB_TREE_EXCLUDE";
+  private static final String FLB_TREE_EXCLUDE_HELP = "Comma separated globs, relative to the tree root, for files that shouldn't be converted, such as files that are only included";
+  private static final String DEFAULT_TREE_INCLUDE = "**" + ".conf";
+  private static final String FLB_ARCHIVE = "FLB_ARCHIVE";
+  private static final String FLB_ARCHIVE_HELP = "A zip, jar, tar or tar.gz bundle whose classic files are converted without extracting them. The FLB_TREE_INCLUDE and FLB_TREE_EXCLUDE globs select the entries";
+  private static final String FLB_ARCHIVE_OUTPUT = "FLB_ARCHIVE_OUTPUT";
+  private static final String FLB_ARCHIVE_OUTPUT_HELP = "The archive the YAML entries are written to, its extension sets the format. Defaults to the bundle's name with -yaml added";
+
+  private static final String FLB_WATCH = "FLB_WATCH";
+  private static final String FLB_WATCH_HELP = "When set to true the files to convert are watched and reconverted when they, or the files they include, change. When set to a folder all the .conf files in that folder tree are watched. Runs until stopped";
+
+  private static final String FLB_WATCH_DEBOUNCE = "FLB_WATCH_DEBOUNCE_MS";
+  private static final String FLB_WATCH_DEBOUNCE_HELP = "How long in milliseconds a watched file must be unchanged before it is reconverted, so a burst of saves results in one conversion. Defaults to 500";
+  private static final long DEFAULT_DEBOUNCE_MS = 500;
+  private static final String CLASSIC_EXTN = ".conf";
+
+  private static final String FLB_CONVERSION_CACHE = "FLB_CONVERSION_CACHE";
+  private static final String FLB_CONVERSION_CACHE_HELP = "When set to true (or the path of a manifest file) files that haven't changed since they were last converted, along with their includes and the options used, are not converted again. The default manifest is .flb-conversion-cache";
+  private static final String DEFAULT_CACHE_MANIFEST = ".flb-conversion-cache";
+
+  private static final String FLB_LOG_LEVEL = "FLB_LOG_LEVEL";
+  private static final String FLB_LOG_LEVEL_HELP = "The level of logging - debug, info or error. Defaults to info, or debug if FLB_CONVERT_DEBUG is true";
+
+  private static final String FLB_METRICS = "FLB_METRICS";
+  private static final String FLB_METRICS_HELP = "When set to true (or the path of a folder) the timings and counts for each file and the whole batch are written as JSON to " + ConversionMetrics.JSON_FILE + " and as a Prometheus textfile collector file " + ConversionMetrics.PROMETHEUS_FILE;
+
+  private static final String FLB_VERIFY = "FLB_VERIFY";
+  private static final String FLB_VERIFY_HELP = "When set to true each YAML file is read back after it is written and compared with the plugins it was written from and with the classic source, reporting any differences with their classic line numbers";
+
+  private static final String FLB_PROCESSORS = "FLB_PROCESSORS";
+  private static final String FLB_PROCESSORS_HELP = "When set to true filters whose Match selects a single input, and that can run as processors, are moved into that input's processors rather than the pipeline's filters. Each move, and why other filters stay, is logged";
+
+  private static final String FLB_FUSE_FILTERS = "FLB_FUSE_FILTERS";
+  private static final String FLB_FUSE_FILTERS_HELP = "When set to true runs of adjacent modify or record_modifier filters with the same Match are merged into one filter where that doesn't change what they do, saving a pass over each record. The passes removed are logged";
+
+  private static final String FLB_ROUTING = "FLB_ROUTING";
+  private static final String FLB_ROUTING_HELP = "When set to true the filters and outputs each input's records reach are logged as a routing matrix, along with inputs that reach no output and filters or outputs that no input reaches";
+
+  private static final String FLB_TUNING = "FLB_TUNING";
+  private static final String FLB_TUNING_HELP = "Set to report (or true) to log the service, input and output settings that are likely to limit throughput, with their classic line numbers, or to fix to also change them in the converted YAML";
+
+  private static final String FLB_SHARDS = "FLB_SHARDS";
+  private static final String FLB_SHARDS_HELP = "The number of YAML files to split the pipeline across, so it can be run by several Fluent Bit instances. Inputs are kept with the filters and outputs their records reach, and each file gets a copy of the service. Set to auto for a file per independent part of the pipeline";
+
+  private static final String FLB_SCALAR_STYLE = "FLB_SCALAR_STYLE";
+  private static final String FLB_SCALAR_STYLE_HELP = "How long values, and values containing quotes, are written - quoted (the default) writes them as they are in the classic file, literal writes them as |- block scalars and folded as >- block scalars, breaking long lines between words";
+
+  private static final String FLB_SERVER_PORT = "FLB_SERVER_PORT";
+  private static final String FLB_SERVER_PORT_HELP = "When set the converter runs as a server on this localhost port, converting classic configurations POSTed to /convert and returning the YAML. Runs until stopped";
+
+  private static final String FLB_NUL_SEPARATED = "FLB_NUL_SEPARATED";
+  private static final String FLB_NUL_SEPARATED_HELP = "When reading from stdin, treat the input as a stream of classic configurations separated by NUL characters, writing each YAML document followed by a NUL";
+
   /**
    * Constants post fixed with CLASSIC are strings we search in the classic
    * format files
@@ -61,6 +225,12 @@ class FLBConverter {
   private static final String OUTPUTCLASSIC = "[OUTPUT]";
   private static final String INPUTCLASSIC = "[INPUT]";
   private static final String SERVICECLASSIC = "[SERVICE]";
+  private static final String PARSERCLASSIC = "[PARSER]";
+  private static final String MULTILINEPARSERCLASSIC = "[MULTILINE_PARSER]";
+  private static final String UPSTREAMCLASSIC = "[UPSTREAM]";
+  private static final String NODECLASSIC = "[NODE]";
+  private static final String CUSTOMCLASSIC = "[CUSTOM]";
+  private static final String PLUGINSCLASSIC = "[PLUGINS]";
   private static final String INCLUDECLASSIC = "@include";
 
   private static final String NL = "\n";
@@ -75,6 +245,13 @@ class FLBConverter {
   private static final String FILTERSYAML = "filters";
   private static final String INPUTSYAML = "inputs";
   private static final String SERVICEYAMLLBL = "service:\n";
+  private static final String SERVICEYAML = "service";
+  private static final String PARSERSYAML = "parsers";
+  private static final String MULTILINEPARSERSYAML = "multiline_parsers";
+  private static final String UPSTREAMSYAML = "upstream_servers";
+  private static final String NODESYAML = "nodes";
+  private static final String CUSTOMSYAML = "customs";
+  private static final String PLUGINSYAML = "plugins";
 
   /**
    * log message prefixes
@@ -87,480 +264,6885 @@ class FLBConverter {
    * Define the debug flag globally - nothing is gained by passing it around
    */
   private static boolean debug = false;
-  private static boolean useIdiomaticForm = false;
+  static LogLevel logLevel = LogLevel.INFO;
+  static boolean useIdiomaticForm = false;
   private static boolean logToFile = false;
-  private static FileWriter converterReport = null;
+  private static boolean useVirtualThreads = false;
+
+  /** creates the virtual threads, when they're being used */
+  private static ThreadFactory virtualThreads = null;
+  private static String memoryMappedFlag = null;
+  private static String parallelParseFlag = null;
+  static boolean resolveIncludes = false;
+  private static ConversionCache conversionCache = null;
+  private static File metricsFolder = null;
+  private static boolean verifyOutput = false;
+  static ScalarStyle scalarStyle = ScalarStyle.QUOTED;
+  static boolean useProcessors = false;
+  static boolean fuseFilters = false;
+  static boolean reportRouting = false;
+  static TuningMode tuningMode = TuningMode.OFF;
+
+  /** how many files the pipeline is split across, 0 if it isn't */
+  static int shardCount = 0;
 
   /**
-   * Define the different plugin types.
+   * Where log messages are displayed. Normally stdout, but when we're writing
+   * the YAML to stdout the messages go to stderr
    */
-  enum PluginType {
-    INPUT, OUTPUT, FILTER, SERVICE, INCLUDES, SET
-  };
+  private static PrintStream console = System.out;
 
   /**
-   * We've defined this structure to simplify asnd ensure consistency. The Hashamp
-   * allows us to look up attribute names, but there are scenarios where an
-   * attribute key can be repeated.
+   * Define the different plugin types. Those that have a section header in the
+   * classic format carry the header, the YAML label they're written under and
+   * how to create the plugin, so recognizing a section is a table lookup rather
+   * than a chain of comparisons.
    */
-  static class HashMapArray extends LinkedHashMap<String, ArrayList<String>> {
-  }
+  enum PluginType {
+    INPUT(INPUTCLASSIC, INPUTSYAML, type -> new InputPlugin()),
+    OUTPUT(OUTPUTCLASSIC, OUTPUTSYAML, Plugin::new),
+    FILTER(FILTERCLASSIC, FILTERSYAML, Plugin::new),
+    SERVICE(SERVICECLASSIC, SERVICEYAML, type -> new ServicePlugin()),
+    INCLUDES(null, null, null),
+    SET(null, null, null),
+    PARSER(PARSERCLASSIC, PARSERSYAML, SectionPlugin::new),
+    MULTILINE_PARSER(MULTILINEPARSERCLASSIC, MULTILINEPARSERSYAML, type -> new MultilineParserPlugin()),
+    UPSTREAM(UPSTREAMCLASSIC, UPSTREAMSYAML, type -> new UpstreamPlugin()),
+    NODE(NODECLASSIC, NODESYAML, type -> new NodePlugin()),
+    CUSTOM(CUSTOMCLASSIC, CUSTOMSYAML, SectionPlugin::new),
+    PLUGINS(PLUGINSCLASSIC, PLUGINSYAML, type -> new PluginsPlugin());
+
+    /** the section header used in the classic format, null if there isn't one */
+    final String classicHeader;
+    /** the label the plugins are grouped under in the YAML */
+    final String yamlLabel;
+    private final Function<PluginType, Plugin> factory;
 
-  private static SpecialPlugin service = null;
-  private static SpecialPlugin includes = null;
-  private static ArrayList<Plugin> inputs = null;
-  private static ArrayList<Plugin> outputs = null;
-  private static ArrayList<Plugin> filters = null;
+    PluginType(String classicHeader, String yamlLabel, Function<PluginType, Plugin> factory) {
+      this.classicHeader = classicHeader;
+      this.yamlLabel = yamlLabel;
+      this.factory = factory;
+    }
+
+    /**
+     * @return a new plugin to receive the attributes of this type of section
+     */
+    Plugin newPlugin() {
+      return factory.apply(this);
+    }
+  };
 
   /**
-   * Writes a debug message if debug is allowed. If the report file is setup
-   * then we'll also add the debug message to that as well
-   * 
-   * @param msg the message to write as a dubg statment
+   * Classifies a line as a section header. The headers are held in a small open
+   * addressed hash table keyed on a case insensitive hash of the header, so the
+   * cost of classifying a line doesn't grow as more section types are added -
+   * anything not shaped like [...] or longer than the longest header is
+   * rejected without hashing, otherwise it is one hash and normally one
+   * comparison. Both the string and byte level lexer paths use this table.
    */
-  static void debug(String msg) {
-    if (debug) {
-      final String logStr = DEBUG_LBL + msg;
-      System.out.println(logStr);
-      if (logToFile && converterReport != null) {
-        try {
-          converterReport.write(logStr + NL);
-        } catch (IOException err) {
-          System.out.println("Unable to record debug to report file");
+  static final class SectionTable {
+    private static final int TABLE_SIZE = 32;
+    private static final int MASK = TABLE_SIZE - 1;
+    private static final PluginType[] TABLE = new PluginType[TABLE_SIZE];
+    private static final char OPEN = '[';
+    private static final char CLOSE = ']';
+    static final int MAX_HEADER_LENGTH;
+
+    static {
+      int maxLength = 0;
+      for (PluginType type : PluginType.values()) {
+        final String header = type.classicHeader;
+        if (header != null) {
+          int hash = 0;
+          for (int idx = 0; idx < header.length(); idx++) {
+            hash = hash(hash, header.charAt(idx));
+          }
+          int slot = slot(hash);
+          while (TABLE[slot] != null) {
+            slot = next(slot);
+          }
+          TABLE[slot] = type;
+          maxLength = Math.max(maxLength, header.length());
         }
       }
+      MAX_HEADER_LENGTH = maxLength;
     }
-  }
 
-  /**
-   * Writes a log message. If the report file is setup
-   * then we'll also add the debug message to that as well
-   * 
-   * @param msg message to be logged
-   */
-  static void info(String msg) {
-    final String logStr = INFO_LBL + msg;
-    System.out.println(logStr);
-    if (logToFile && converterReport != null) {
-      try {
-        converterReport.write(logStr + NL);
-      } catch (IOException err) {
-        System.out.println("Unable to record info to report file");
-      }
+    private SectionTable() {
     }
-  }
 
-  /**
-   * If an error needs to be logged use this method. If the file is enabled then
-   * we add the log to the file as well.
-   * 
-   * @param msg message to be displayed
-   */
-  static void err(String msg) {
-    final String logStr = ERROR_LBL + msg;
-    System.out.println(logStr);
-    if (logToFile && converterReport != null) {
-      try {
-        converterReport.write(logStr + NL);
-      } catch (IOException err) {
-        System.out.println("Unable to record ERROR to report file");
+    /**
+     * Adds a character to the running hash, ASCII lower casing it so the hash
+     * ignores case
+     */
+    static int hash(int hash, int chr) {
+      if ((chr >= 'A') && (chr <= 'Z')) {
+        chr += ('a' - 'A');
       }
+      return (hash * 31) + chr;
     }
-  }
 
-  /**
-   * This class helps us process the plugins and directives. Each plugin will have
-   * an instance of this class. We track the plugin type so we can get the order
-   * of output correct
-   */
-  static class Plugin {
-    private static final String WILDCARD = "*";
-    private static final String DUMMYATTR = "dummy";
-    private static final String COMMENT = "#";
-    private static final String NAMEATTR = "name";
-    private static final String SEPARATOR = " ";
-    static final int PLUGININDENT = 1;
-    static final int NAMEINDENT = 2;
-    static final int ATTRIBUTEINDENT = 3;
+    static int slot(int hash) {
+      return (hash ^ (hash >>> 16)) & MASK;
+    }
 
-    /** pluginType is an enumeration to make it easy to determine the plugin type */
-    public PluginType pluginType;
-    /** name represents the name plugin */
-    private String name = null;
+    static int next(int slot) {
+      return (slot + 1) & MASK;
+    }
 
     /**
-     * As certain attributes are allowed to reoccur such as the rules in the
-     * modifier
-     * filter plugin we store each attribute name as a HashMap containing array
-     * lists. We've declared our our own class for this to simplify the use of the
-     * definition
+     * @return the section type in the slot, null once we've probed past the
+     *         candidates
      */
-    HashMapArray attributes = new HashMapArray();
+    static PluginType at(int slot) {
+      return TABLE[slot];
+    }
 
     /**
-     * Standard constructor
+     * Quick test of whether a trimmed line could be a section header
      * 
-     * @param type this the enumeration showing the type of plugin being handled
+     * @param length the length of the line
+     * @param first  the first character
+     * @param last   the last character
+     * @return true if the line is bracketed
      */
-    public Plugin(PluginType type) {
-      this.pluginType = type;
+    static boolean isHeaderShape(int length, int first, int last) {
+      return (length > 2) && (first == OPEN) && (last == CLOSE);
     }
 
     /**
-     * get the number of different attributes types (some plugins allow multiple
-     * occurrences of the same attribute)
+     * Works out whether the trimmed line is a section header we know
      * 
-     * @return the number of attributes held by this plugin. We only count one
-     *         unique occurence of an attribute
+     * @param line the trimmed line
+     * @return the section type, or null if the line isn't a known header
      */
-    public int attributeCountByType() {
-      return attributes.size();
+    static PluginType classify(String line) {
+      final int length = line.length();
+      if ((length > MAX_HEADER_LENGTH) || !isHeaderShape(length, line.charAt(0), line.charAt(length - 1))) {
+        return null;
+      }
+      int hash = 0;
+      for (int idx = 0; idx < length; idx++) {
+        hash = hash(hash, line.charAt(idx));
+      }
+      for (int slot = slot(hash); TABLE[slot] != null; slot = next(slot)) {
+        if (TABLE[slot].classicHeader.equalsIgnoreCase(line)) {
+          return TABLE[slot];
+        }
+      }
+      return null;
     }
+  }
+
+  /**
+   * Holds a plugin's attributes in the order they were first declared. Nearly
+   * every attribute has a single value, so rather than a map entry and an
+   * ArrayList per attribute we keep two parallel arrays - the keys and the
+   * values. A value slot holds the String (or the ValueSlice for a large value)
+   * itself, and only becomes an array when the key is repeated (such as the modifier filter's Rule). The
+   * multi value arrays grow by doubling and are padded with nulls, with the
+   * number of values each slot holds kept alongside so adding a value doesn't
+   * need to count the ones already there. Keys are
+   * interned in a shared pool so the same attribute name across thousands of
+   * plugins is held once, and the lookup can usually be an identity check.
+   * Plugins have few attributes, so a linear scan beats hashing.
+   */
+  static final class AttributeStore {
+    /** Once the pool reaches this size new keys are no longer interned */
+    private static final int MAX_POOLED_KEYS = 4096;
+    private static final ConcurrentHashMap<String, String> KEY_POOL = new ConcurrentHashMap<>();
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] keys = null;
+    private Object[] values = null;
+
+    /** the classic line each key was first declared on, 0 if not known */
+    private int[] lines = null;
+
+    /** the number of values held in each slot */
+    private int[] counts = null;
+    private int size = 0;
 
     /**
-     * builds an indent string that will be accepted by YAML
+     * Provides the shared instance of the attribute name. The pool is bounded so
+     * a long running server can't be made to grow it without limit
      * 
-     * @param depth how many levels of indetation
-     * @return the YAML suitable indentation characters
+     * @param key the attribute name
+     * @return the pooled instance of the name
      */
-    String indenter(int depth) {
-      String indent = "";
-      for (int idx = 0; idx < depth; idx++) {
-        indent = indent + "  ";
+    static String intern(String key) {
+      String pooled = KEY_POOL.get(key);
+      if (pooled == null) {
+        if (KEY_POOL.size() >= MAX_POOLED_KEYS) {
+          return key;
+        }
+        pooled = KEY_POOL.putIfAbsent(key, key);
+        if (pooled == null) {
+          pooled = key;
+        }
       }
-      return indent;
+      return pooled;
     }
 
     /**
-     * We examine the line to see if the @includes is used. Fluent Bit allows us to
-     * set attribute elements with an @includes, however in YAML its use is a lot
-     * more restrictive. So when we encounter its use we need to log it
+     * Locates the slot for the key
      * 
-     * @param line   the line to examine
-     * @param lineNo position in the source file
-     * @return true if an includes is identified
+     * @param key the attribute name
+     * @return the index of the key, or -1 if it isn't held
      */
-    static boolean checkForInclusion(String line, int lineNo) {
-      boolean found = false;
-      String tempLine = line.toLowerCase();
-      if (tempLine.contains(INCLUDECLASSIC)) {
-        info("Warning: @include found at line " + lineNo + "  >>  " + line);
-        found = true;
+    int indexOf(String key) {
+      for (int idx = 0; idx < size; idx++) {
+        String held = keys[idx];
+        if (held == key || held.equals(key)) {
+          return idx;
+        }
       }
-
-      return found;
+      return -1;
     }
 
     /**
-     * converts the attribute name to its idiomatc form if the option is enabled
+     * Adds the value to the key, keeping any existing values for that key
      * 
-     * @param attributeName name to convert
-     * @return returns the attribute key in a format dictated by the idiomatv
+     * @param key   the attribute name
+     * @param value the attribute value
      */
-    private String toIdiomaticForm(String attributeName) {
-
-      if (!useIdiomaticForm) {
-        return attributeName;
-      }
-      attributeName = attributeName.toLowerCase();
-      StringBuilder builder = new StringBuilder(attributeName);
+    void add(String key, String value) {
+      add(key, value, 0);
+    }
 
-      // Traverse the string character by
-      // character and remove underscore
-      // and capitalize next letter
-      for (int i = 0; i < builder.length(); i++) {
+    /**
+     * Adds the value to the key, keeping any existing values for that key, and
+     * recording where the key came from
+     * 
+     * @param key    the attribute name
+     * @param value  the attribute value
+     * @param lineNo the classic line the attribute was declared on
+     */
+    void add(String key, String value, int lineNo) {
+      addValue(key, value, lineNo);
+    }
 
-        // Check char is underscore
-        if (builder.charAt(i) == '_') {
+    /**
+     * Adds a large value that is still held as a view of the source, keeping any
+     * existing values for that key
+     * 
+     * @param key    the attribute name
+     * @param value  the attribute value
+     * @param lineNo the classic line the attribute was declared on
+     */
+    void add(String key, ValueSlice value, int lineNo) {
+      addValue(key, value, lineNo);
+    }
 
-          builder.deleteCharAt(i);
-          builder.replace(
-              i, i + 1,
-              String.valueOf(
-                  Character.toUpperCase(
-                      builder.charAt(i))));
+    private void addValue(String key, Object value, int lineNo) {
+      key = intern(key);
+      int idx = indexOf(key);
+      if (idx < 0) {
+        if (keys == null) {
+          keys = new String[INITIAL_CAPACITY];
+          values = new Object[INITIAL_CAPACITY];
+          lines = new int[INITIAL_CAPACITY];
+          counts = new int[INITIAL_CAPACITY];
+        } else if (size == keys.length) {
+          keys = Arrays.copyOf(keys, size * 2);
+          values = Arrays.copyOf(values, size * 2);
+          lines = Arrays.copyOf(lines, size * 2);
+          counts = Arrays.copyOf(counts, size * 2);
         }
+        keys[size] = key;
+        values[size] = value;
+        lines[size] = lineNo;
+        counts[size] = 1;
+        size++;
+      } else {
+        appendValue(idx, value);
       }
-
-      // Return in String type
-      return builder.toString();
-
     }
 
     /**
+     * Adds a further value to an existing slot, converting a single value into
+     * an array when needed
      * 
-     * Each attribute is processed into this instance of a plugin.
-     * If any issues are identified such as the use of
-     * the @includes feature this is logged to
-     * info. We also deal with any of the foible such as quoting
-     * wildcards and dummy attributes
-     * 
-     * @param attribute the attribute line from the source file
-     * @param lineNo    the line number for this attribute in the source file
-     * 
+     * @param idx   the slot
+     * @param value the value to add
      */
-    public void add(String attribute, int lineNo) {
-      boolean hasInclusion = false;
-      if (attribute == null) {
-        return;
-      }
-      attribute = attribute.trim();
-
-      if (attribute.length() == 0) {
+    private void appendValue(int idx, Object value) {
+      Object held = values[idx];
+      final int count = counts[idx]++;
+      if (!(held instanceof Object[])) {
+        values[idx] = new Object[] { held, value, null, null };
         return;
       }
-      hasInclusion = checkForInclusion(attribute, lineNo);
-
-      String attributeName = null;
-      int sepPos = 0;
-      if (attribute.startsWith(COMMENT)) {
-        sepPos = 1;
-      } else {
-        sepPos = attribute.indexOf(SEPARATOR);
-      }
-      if (sepPos > 0) {
-        attributeName = attribute.substring(0, sepPos).trim();
-        if (hasInclusion) {
-          if (!attributeName.startsWith(COMMENT)) {
-            attributeName = "#" + attributeName;
-            // its not already a comment - let's comment out the inclusion
-          }
-        }
-        attributeName = toIdiomaticForm(attributeName);
-        // we need to handle the name attribute slightly differently
-        if (attributeName.equalsIgnoreCase(NAMEATTR)) {
-          this.name = attribute.substring(sepPos).trim();
-        } else {
-          // determine whether there is a wildcard involved, correct the quotations
-          String attributeValue = attribute.substring(sepPos).trim();
-          if (attributeValue.equalsIgnoreCase(WILDCARD)) {
-            attributeValue = "'*'";
-          }
-          // ensure that dummy attributes are correctly quoted
-          if ((attributeName.equalsIgnoreCase(DUMMYATTR)) && (!attributeValue.startsWith("'"))) {
-            attributeValue = "'" + attributeValue + "'";
-          }
-          ArrayList<String> values = null;
-          if (attributes.containsKey(attributeName)) {
-            values = attributes.get(attributeName);
-          } else {
-            values = new ArrayList<String>();
-          }
-          values.add(attributeValue);
-          attributes.put(attributeName, values);
-        }
-      } else {
-        info("Cant process attribute:" + attribute);
+      Object[] multi = (Object[]) held;
+      if (count == multi.length) {
+        multi = Arrays.copyOf(multi, count * 2);
+        values[idx] = multi;
       }
-
+      multi[count] = value;
     }
 
     /**
-     * Provides a correctly formatted plugin name - we declare this separatelty so
-     * anything that is handled using the plugin object such as a service can have
-     * this action overridden
-     * 
-     * @return returns the name label with correct indentation for the YAML config
+     * @return the number of different attribute names held
      */
-    String writePrefix() {
-      return indenter(NAMEINDENT) + "- name: " + this.name + NL;
+    int size() {
+      return size;
     }
 
     /**
-     * We build the YAML representation of the plugin, iterating over the data
-     * structure and handling the possibility of having multiple attributes of the
-     * same type
-     * 
-     * @return string containing the plugin in YAML format
+     * @param idx the slot
+     * @return the attribute name in the slot
      */
-    public String write() {
-      String YAMLoutput = writePrefix();
-      Iterator<String> iter = attributes.keySet().iterator();
-      String key = null;
-      String line = null;
-
-      while (iter.hasNext()) {
-        key = iter.next();
-        ArrayList<String> multiValues = attributes.get(key);
-        Iterator<String> valIter = multiValues.iterator();
-        String value = null;
-        while (valIter.hasNext()) {
-          value = valIter.next();
-          if (key.equals(COMMENT)) {
-            line = indenter(ATTRIBUTEINDENT) + key + value;
-          } else {
-            line = indenter(ATTRIBUTEINDENT) + key + ": " + value;
-          }
-          debug(line);
-          YAMLoutput = YAMLoutput + line + NL;
-        }
-      }
+    String key(int idx) {
+      return keys[idx];
+    }
 
-      return YAMLoutput;
+    /**
+     * @param idx the slot
+     * @return the classic line the slot's attribute name was first declared on
+     */
+    int line(int idx) {
+      return lines[idx];
     }
 
-  }
+    /**
+     * @param idx the slot
+     * @return the number of values held for the slot's attribute name
+     */
+    int valueCount(int idx) {
+      return counts[idx];
+    }
 
-  /**
-   * We have extended the plugin to bring together those versions of
-   * Plugin that are more specialized
-   * such as needing singelton characteristics.
-   */
-  static class SpecialPlugin extends Plugin {
+    /**
+     * @param idx      the slot
+     * @param valueIdx which of the slot's values, in the order they were added
+     * @return the value
+     */
+    String value(int idx, int valueIdx) {
+      return rawValue(idx, valueIdx).toString();
+    }
 
     /**
-     * standard constructor where we'll cascade the informas
+     * Provides the value as it is held, so a ValueSlice can be written out
+     * without first being turned into a String
      * 
-     * @param type the plugin type to be construb
+     * @param idx      the slot
+     * @param valueIdx which of the slot's values, in the order they were added
+     * @return the String or ValueSlice
      */
-    public SpecialPlugin(PluginType type) {
-      super(type);
+    Object rawValue(int idx, int valueIdx) {
+      Object held = values[idx];
+      return (held instanceof Object[] multi) ? multi[valueIdx] : held;
     }
 
     /**
-     * Provide identation that reflects the service block
+     * @param idx      the slot
+     * @param valueIdx which of the slot's values, in the order they were added
+     * @return the length of the value, without turning a ValueSlice into a String
      */
-    @Override
-    String indenter(int depth) {
-      return "  ";
+    int valueLength(int idx, int valueIdx) {
+      Object held = rawValue(idx, valueIdx);
+      return (held instanceof ValueSlice slice) ? slice.length() : ((String) held).length();
     }
 
     /**
-     * We don't want to handle a name attribute in a manner that is different to
-     * other service attributes.
+     * Replaces all of the slot's values with the one value
+     * 
+     * @param idx   the slot
+     * @param value the value the slot now holds
      */
-    @Override
-    String writePrefix() {
-      return "";
+    void set(int idx, String value) {
+      values[idx] = value;
+      counts[idx] = 1;
     }
 
     /**
-     * This adds a plugin to the list of plugins, unless the
+     * Adds every value of another store's slot, as they are held
      * 
-     * @param plugin the plugin object to be added to the the appropriate collection
+     * @param from the store holding the slot
+     * @param idx  the slot in that store
      */
-    public void add(Plugin plugin) {
-      debug("merging special plugin");
-      if (plugin.attributes != null) {
-        Iterator keys = (plugin.attributes.keySet()).iterator();
-
-        while (keys.hasNext()) {
-          String key = (String) keys.next();
-          if (this.attributes.containsKey(key)) {
-            ArrayList<String> values = attributes.get(key);
-            ArrayList<String> newValues = plugin.attributes.get(key);
-            values.addAll(newValues);
-            this.attributes.replace((String) key, values);
-          }
-        }
+    void addSlot(AttributeStore from, int idx) {
+      final int valueCount = from.valueCount(idx);
+      for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
+        addValue(from.key(idx), from.rawValue(idx, valueIdx), from.line(idx));
       }
-
     }
-  }
 
-  /**
-   * We need the representation of services to differ from inputs, outputs and
-   * filters. The level of YAML indentation is different, and we don't have a name
-   * attribute
-   */
-  static class ServicePlugin extends SpecialPlugin {
     /**
-     * default constructor which will push down the plugin type
+     * Removes the slot, keeping the order of the others
+     * 
+     * @param idx the slot
      */
-    public ServicePlugin() {
-      super(PluginType.SERVICE);
+    void remove(int idx) {
+      final int moved = size - idx - 1;
+      System.arraycopy(keys, idx + 1, keys, idx, moved);
+      System.arraycopy(values, idx + 1, values, idx, moved);
+      System.arraycopy(lines, idx + 1, lines, idx, moved);
+      System.arraycopy(counts, idx + 1, counts, idx, moved);
+      size--;
+      keys[size] = null;
+      values[size] = null;
     }
 
-  }
+    /**
+     * Locates the slot for an attribute name however it was written, so Match,
+     * match and (in the idiomatic form) matchRegex for Match_Regex are all found
+     * 
+     * @param name the attribute name in lower case with underscores
+     * @return the index of the key, or -1 if it isn't held
+     */
+    int find(String name) {
+      for (int idx = 0; idx < size; idx++) {
+        if (sameName(keys[idx], name)) {
+          return idx;
+        }
+      }
+      return -1;
+    }
+
+    private static boolean sameName(String key, String name) {
+      int keyIdx = 0;
+      int nameIdx = 0;
+      while (true) {
+        while ((keyIdx < key.length()) && (key.charAt(keyIdx) == '_')) {
+          keyIdx++;
+        }
+        while ((nameIdx < name.length()) && (name.charAt(nameIdx) == '_')) {
+          nameIdx++;
+        }
+        if ((keyIdx == key.length()) || (nameIdx == name.length())) {
+          return (keyIdx == key.length()) && (nameIdx == name.length());
+        }
+        if (Character.toLowerCase(key.charAt(keyIdx++)) != name.charAt(nameIdx++)) {
+          return false;
+        }
+      }
+    }
+
+    /**
+     * Adds all the values of another store, in the order they were added there
+     * 
+     * @param from the store to take the values from
+     */
+    void addAll(AttributeStore from) {
+      for (int idx = 0; idx < from.size(); idx++) {
+        final int valueCount = from.valueCount(idx);
+        for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
+          addValue(from.key(idx), from.rawValue(idx, valueIdx), from.line(idx));
+        }
+      }
+    }
+
+    /**
+     * Creates an independent copy - the multi value arrays are copied so adding
+     * to the copy doesn't change this store
+     * 
+     * @return the copied store
+     */
+    AttributeStore copy() {
+      AttributeStore copy = new AttributeStore();
+      if (keys != null) {
+        copy.keys = Arrays.copyOf(keys, size);
+        copy.values = Arrays.copyOf(values, size);
+        copy.lines = Arrays.copyOf(lines, size);
+        copy.counts = Arrays.copyOf(counts, size);
+        for (int idx = 0; idx < size; idx++) {
+          if (copy.values[idx] instanceof Object[] multi) {
+            copy.values[idx] = multi.clone();
+          }
+        }
+        copy.size = size;
+      }
+      return copy;
+    }
+
+    /**
+     * Replaces any value that is a view of a memory mapped file with a copy
+     * held on the heap, so the mapping isn't used once parsing is done
+     */
+    void copyMappedSlices() {
+      for (int idx = 0; idx < size; idx++) {
+        if (values[idx] instanceof ValueSlice slice) {
+          values[idx] = slice.onHeap();
+        } else if (values[idx] instanceof Object[] multi) {
+          for (int valueIdx = 0; valueIdx < counts[idx]; valueIdx++) {
+            if (multi[valueIdx] instanceof ValueSlice slice) {
+              multi[valueIdx] = slice.onHeap();
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A large attribute value held as an offset and length into what it was read
+   * from - either the classic file's bytes or the line read from it - rather
+   * than as a String of its own. A multi MB dummy payload would otherwise be
+   * copied when it is trimmed, again when the quotes are added, and again when
+   * it is written. Instead the quotes are only recorded, and the value is
+   * decoded straight into the output as the YAML is written, so the payload is
+   * copied once on its way from the input to the output. Small values aren't
+   * worth the indirection, so only values of at least MIN_SIZE are sliced. A
+   * slice of a memory mapped file is only used while parsing - a file truncated
+   * while it is mapped makes reading the mapping fail with an InternalError -
+   * after which the value's bytes are copied to the heap.
+   */
+  static final class ValueSlice {
+    /** values shorter than this are held as Strings */
+    static final int MIN_SIZE = 4096;
+    private static final int CHUNK_CHARS = 8192;
+    private static final char QUOTE = '\'';
+
+    private final ByteBuffer bytes;
+    private final String text;
+    private final int offset;
+    private final int length;
+
+    /** set when the value is written out wrapped in single quotes */
+    private final boolean quoted;
+
+    /**
+     * @param bytes  the buffer holding the classic file, which mustn't change
+     *               while the slice is in use
+     * @param offset where the value starts in the buffer
+     * @param length the number of bytes in the value
+     */
+    ValueSlice(ByteBuffer bytes, int offset, int length) {
+      this(bytes, null, offset, length, false);
+    }
+
+    /**
+     * @param text   the line the value was read from
+     * @param offset where the value starts in the line
+     * @param length the number of characters in the value
+     */
+    ValueSlice(String text, int offset, int length) {
+      this(null, text, offset, length, false);
+    }
+
+    private ValueSlice(ByteBuffer bytes, String text, int offset, int length, boolean quoted) {
+      this.bytes = bytes;
+      this.text = text;
+      this.offset = offset;
+      this.length = length;
+      this.quoted = quoted;
+    }
+
+    /**
+     * @return the same value, to be written wrapped in single quotes
+     */
+    ValueSlice quoted() {
+      return new ValueSlice(bytes, text, offset, length, true);
+    }
+
+    /**
+     * @return this slice if it isn't a view of a memory mapped file, otherwise
+     *         the same value with its bytes copied to the heap
+     */
+    ValueSlice onHeap() {
+      if ((bytes == null) || !bytes.isDirect()) {
+        return this;
+      }
+      ByteBuffer copy = ByteBuffer.allocate(length);
+      copy.put(0, bytes, offset, length);
+      return new ValueSlice(copy, null, 0, length, quoted);
+    }
+
+    /**
+     * @param chr an ASCII character
+     * @return true if the value as written starts with the character
+     */
+    boolean startsWith(char chr) {
+      if (quoted) {
+        return chr == QUOTE;
+      }
+      if (length == 0) {
+        return false;
+      }
+      return (bytes != null) ? bytes.get(offset) == chr : text.charAt(offset) == chr;
+    }
+
+    /**
+     * @return the length of the value as written - for a slice of the classic
+     *         file's bytes this is the number of bytes, which only differs from
+     *         the number of characters when the value isn't ASCII
+     */
+    int length() {
+      return quoted ? length + 2 : length;
+    }
+
+    /**
+     * Writes the value, with its quotes, to the output. A Writer is given the
+     * characters directly, as Writer.append would first copy them into a String
+     * 
+     * @param out where the value is written
+     * @throws IOException if the output can't be written to
+     */
+    void writeTo(Appendable out) throws IOException {
+      if (quoted) {
+        out.append(QUOTE);
+      }
+      writeRange(out, offset, length);
+      if (quoted) {
+        out.append(QUOTE);
+      }
+    }
+
+    /**
+     * @return true if the value is written in single quotes, whether they were
+     *         added by us or were in the classic file
+     */
+    boolean isSingleQuoted() {
+      return quoted || ((length >= 2) && (at(offset) == QUOTE) && (at(offset + length - 1) == QUOTE));
+    }
+
+    /**
+     * @return where the value's content starts, inside any single quotes
+     */
+    int contentStart() {
+      return (!quoted && isSingleQuoted()) ? offset + 1 : offset;
+    }
+
+    /**
+     * @return where the value's content ends (exclusive), inside any quotes
+     */
+    int contentEnd() {
+      return (!quoted && isSingleQuoted()) ? offset + length - 1 : offset + length;
+    }
+
+    /**
+     * @param idx the position in the source
+     * @return the byte (for the classic file's bytes) or character at the
+     *         position - the ASCII characters are the same either way
+     */
+    int at(int idx) {
+      return (bytes != null) ? bytes.get(idx) & 0xff : text.charAt(idx);
+    }
+
+    /**
+     * Writes the value without any single quotes around it. Doubled quotes
+     * within the value are left for the caller to deal with
+     * 
+     * @param out where the content is written
+     * @throws IOException if the output can't be written to
+     */
+    void writeContentTo(Appendable out) throws IOException {
+      writeRange(out, contentStart(), contentEnd() - contentStart());
+    }
+
+    private void writeRange(Appendable out, int from, int count) throws IOException {
+      if (bytes == null) {
+        if (out instanceof Writer writer) {
+          writer.write(text, from, count);
+        } else {
+          out.append(text, from, from + count);
+        }
+      } else {
+        decodeTo(out, from, count);
+      }
+    }
+
+    /**
+     * Decodes the bytes in fixed size chunks, so only the chunk is ever held as
+     * characters. Malformed input is replaced, just as new String would
+     * 
+     * @param out   where the characters are written
+     * @param from  where the bytes start in the buffer
+     * @param count the number of bytes
+     * @throws IOException if the output can't be written to
+     */
+    private void decodeTo(Appendable out, int from, int count) throws IOException {
+      CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      ByteBuffer in = bytes.slice(from, count);
+      CharBuffer chunk = CharBuffer.allocate(Math.min(CHUNK_CHARS, Math.max(count, 16)));
+      CoderResult result;
+      do {
+        result = decoder.decode(in, chunk, true);
+        drain(chunk, out);
+      } while (result.isOverflow());
+      do {
+        result = decoder.flush(chunk);
+        drain(chunk, out);
+      } while (result.isOverflow());
+    }
+
+    private static void drain(CharBuffer chunk, Appendable out) throws IOException {
+      chunk.flip();
+      if (out instanceof Writer writer) {
+        writer.write(chunk.array(), 0, chunk.limit());
+      } else {
+        out.append(chunk);
+      }
+      chunk.clear();
+    }
+
+    /**
+     * @return the value with its quotes as a String - only needed when a large
+     *         value is inspected rather than just written
+     */
+    @Override
+    public String toString() {
+      StringBuilder result = new StringBuilder(length());
+      try {
+        writeTo(result);
+      } catch (IOException err) {
+        throw new UncheckedIOException(err);
+      }
+      return result.toString();
+    }
+  }
+
+  /**
+   * How attribute values are written. By default values are written as they
+   * are in the classic file, with dummy payloads wrapped in single quotes. The
+   * block styles write long values, and values containing quotes, as literal
+   * (|-) or folded (>-) block scalars on the following lines, which need no
+   * quoting at all.
+   */
+  enum ScalarStyle {
+    QUOTED(null), LITERAL("|-"), FOLDED(">-");
+
+    /** the block scalar header written after the key */
+    final String indicator;
+
+    ScalarStyle(String indicator) {
+      this.indicator = indicator;
+    }
+  }
+
+  /**
+   * What the tuning advisor does - nothing, log the settings that hold back
+   * throughput, or log them and change them in the converted YAML
+   */
+  enum TuningMode {
+    OFF, REPORT, FIX
+  }
+
+  /**
+   * Writes a value as a YAML block scalar. The value's content - without the
+   * single quotes that would otherwise surround it, and with doubled quotes
+   * back to a single quote - is passed through in chunks as it is decoded, so
+   * the memory needed doesn't depend on the size of the value. With the folded
+   * style, long lines are broken at a space between two words once they pass
+   * FOLD_WIDTH, which a YAML reader turns back into the space. A value with no
+   * such spaces, like most JSON payloads, stays on one line. Values that start
+   * with a space or hold control characters can't be written this way and keep
+   * the normal style.
+   */
+  static final class BlockScalar implements Appendable {
+    /** values at least this long are written as block scalars */
+    static final int MIN_LENGTH = 80;
+    static final int FOLD_WIDTH = 80;
+    private static final String CONTENT_INDENT = "  ";
+    private static final int CHUNK_CHARS = 8192;
+    private static final char QUOTE = '\'';
+    private static final char DOUBLE_QUOTE = '"';
+
+    private final Appendable out;
+    private final String indent;
+    private final boolean folded;
+    private final boolean unescape;
+    private final char[] chunk = new char[CHUNK_CHARS];
+    private int used = 0;
+    private int column = 0;
+    private char previous = 0;
+    private boolean pendingQuote = false;
+    private boolean pendingSpace = false;
+
+    private BlockScalar(Appendable out, String indent, boolean folded, boolean unescape) {
+      this.out = out;
+      this.indent = indent;
+      this.folded = folded;
+      this.unescape = unescape;
+    }
+
+    /**
+     * Writes the value as a block scalar, if the style calls for one and the
+     * value suits it. The key and separator have already been written
+     * 
+     * @param out    where the value is written
+     * @param value  the String or ValueSlice held for the attribute
+     * @param indent the indentation of the attribute's key
+     * @return true if the value was written, false if it should be written in
+     *         the normal way
+     * @throws IOException if the output can't be written to
+     */
+    static boolean write(Appendable out, Object value, String indent) throws IOException {
+      if (scalarStyle == ScalarStyle.QUOTED) {
+        return false;
+      }
+      final ValueSlice slice = (value instanceof ValueSlice held) ? held
+          : new ValueSlice((String) value, 0, ((String) value).length());
+      if (!suits(slice)) {
+        return false;
+      }
+      final String contentIndent = indent + CONTENT_INDENT;
+      out.append(scalarStyle.indicator).append(NL).append(contentIndent);
+      BlockScalar block = new BlockScalar(out, contentIndent, scalarStyle == ScalarStyle.FOLDED,
+          slice.isSingleQuoted());
+      slice.writeContentTo(block);
+      block.finish();
+      return true;
+    }
+
+    /**
+     * @param slice the value
+     * @return true if the value is long or holds quotes, and can be written as a
+     *         block scalar
+     */
+    private static boolean suits(ValueSlice slice) {
+      final int start = slice.contentStart();
+      final int end = slice.contentEnd();
+      if ((start == end) || (slice.at(start) <= ' ')) {
+        return false;
+      }
+      boolean hasQuote = false;
+      for (int idx = start; idx < end; idx++) {
+        final int chr = slice.at(idx);
+        if (((chr < ' ') && (chr != '\t')) || (chr == 0x7f)) {
+          return false;
+        }
+        hasQuote = hasQuote || (chr == QUOTE) || (chr == DOUBLE_QUOTE);
+      }
+      return hasQuote || (end - start >= MIN_LENGTH);
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+      return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+      for (int idx = start; idx < end; idx++) {
+        append(csq.charAt(idx));
+      }
+      return this;
+    }
+
+    /**
+     * Takes the next character of the content, holding back a quote until we
+     * know whether it's doubled
+     */
+    @Override
+    public Appendable append(char chr) throws IOException {
+      if (pendingQuote) {
+        pendingQuote = false;
+        put(QUOTE);
+        if (chr == QUOTE) {
+          return this;
+        }
+      } else if (unescape && (chr == QUOTE)) {
+        pendingQuote = true;
+        return this;
+      }
+      put(chr);
+      return this;
+    }
+
+    /**
+     * Adds a content character, holding back a space that could become a line
+     * break until we know the next character starts a word
+     */
+    private void put(char chr) throws IOException {
+      if (pendingSpace) {
+        pendingSpace = false;
+        if (chr != ' ') {
+          emit('\n');
+          for (int idx = 0; idx < indent.length(); idx++) {
+            emit(indent.charAt(idx));
+          }
+          column = 0;
+        } else {
+          emit(' ');
+        }
+      } else if (folded && (chr == ' ') && (column >= FOLD_WIDTH) && (previous != ' ')) {
+        pendingSpace = true;
+        previous = chr;
+        return;
+      }
+      emit(chr);
+      previous = chr;
+    }
+
+    private void emit(char chr) throws IOException {
+      if (used == chunk.length) {
+        flush();
+      }
+      chunk[used++] = chr;
+      column++;
+    }
+
+    private void flush() throws IOException {
+      if (out instanceof Writer writer) {
+        writer.write(chunk, 0, used);
+      } else {
+        out.append(CharBuffer.wrap(chunk, 0, used));
+      }
+      used = 0;
+    }
+
+    private void finish() throws IOException {
+      if (pendingQuote) {
+        pendingQuote = false;
+        put(QUOTE);
+      }
+      if (pendingSpace) {
+        pendingSpace = false;
+        emit(' ');
+      }
+      flush();
+    }
+  }
+
+  /**
+   * Holds everything that belongs to the conversion of a single classic file -
+   * the plugins read, and the report file being written. By keeping this state
+   * out of static fields, several files can be converted at the same time
+   * without any cross contamination. The context is bound to the thread
+   * performing the conversion so the logging methods write to the correct
+   * report file.
+   */
+  static class ConversionContext {
+    private static final ThreadLocal<ConversionContext> current = new ThreadLocal<ConversionContext>();
+
+    final String inFileName;
+    final String outFileName;
+    SpecialPlugin service = null;
+    SpecialPlugin includes = null;
+    ArrayList<Plugin> inputs = null;
+    ArrayList<Plugin> outputs = null;
+    ArrayList<Plugin> filters = null;
+
+    /**
+     * The plugins for the sections that sit outside of the pipeline, such as
+     * parsers and upstream servers, grouped by type in the order they're
+     * written
+     */
+    EnumMap<PluginType, ArrayList<Plugin>> sections = null;
+    ReportFile converterReport = null;
+
+    /**
+     * When resolving includes, this tracks the files currently being included so
+     * we can detect circular includes
+     */
+    ArrayDeque<String> includeStack = null;
+
+    /**
+     * The canonical paths of the files included by this conversion, so we know
+     * which conversions are affected when an included file changes
+     */
+    LinkedHashSet<String> includedFiles = new LinkedHashSet<String>();
+
+    /**
+     * The includes that couldn't be resolved or use a wildcard, keyed by the
+     * including file and the include's target, with the files they matched. A
+     * file created later can change what these include, so the conversion
+     * cache checks they still match the same files
+     */
+    LinkedHashMap<String, String> includeLookups = new LinkedHashMap<String, String>();
+
+    /** the YAML files written for each shard, when splitting the pipeline */
+    ArrayList<String> shardFiles = new ArrayList<String>();
+
+    /** set once the YAML has been successfully written */
+    boolean converted = false;
+
+    /**
+     * set when the conversion cache found the file unchanged, so its YAML was
+     * left as it was
+     */
+    boolean skipped = false;
+
+    /** the hash of the classic file's content when using the conversion cache */
+    String contentHash = null;
+
+    /** the number of lines in the classic file, once it has been parsed */
+    int lineCount = 0;
+
+    /** only set when we're recording the conversion's metrics */
+    ConversionMetrics metrics = null;
+
+    /**
+     * Only set when the context is being used to parse an include fragment, in
+     * which case the plugins are collected in file order rather than being
+     * separated by type
+     */
+    IncludeFragment fragment = null;
+
+    /**
+     * Create the context for converting one file
+     * 
+     * @param inFileName name of the classic file to be processed
+     */
+    ConversionContext(String inFileName) {
+      this(inFileName, getOutFile(inFileName));
+    }
+
+    /**
+     * Create the context for converting one file to a given output file
+     * 
+     * @param inFileName  name of the classic file to be processed
+     * @param outFileName name of the YAML file to write
+     */
+    ConversionContext(String inFileName, String outFileName) {
+      this.inFileName = inFileName;
+      this.outFileName = outFileName;
+    }
+
+    /**
+     * Associates this context with the current thread, so log messages are
+     * routed to this conversion's report
+     */
+    void bind() {
+      current.set(this);
+    }
+
+    /**
+     * Detaches the context from the current thread
+     */
+    void unbind() {
+      current.remove();
+    }
+
+    /**
+     * @return the context bound to the current thread, or null
+     */
+    static ConversionContext bound() {
+      return current.get();
+    }
+
+    /**
+     * Locates the report writer for the conversion being run by this thread
+     * 
+     * @return the report writer, or null if there isn't one
+     */
+    static ReportFile currentReport() {
+      ConversionContext ctx = current.get();
+      if (ctx == null) {
+        return null;
+      }
+      return ctx.converterReport;
+    }
+  }
+
+  /**
+   * The log levels, in order of increasing severity
+   */
+  enum LogLevel {
+    DEBUG(DEBUG_LBL), INFO(INFO_LBL), ERROR(ERROR_LBL);
+
+    final String label;
+
+    LogLevel(String label) {
+      this.label = label;
+    }
+  }
+
+  /**
+   * Writes a debug message if debug is allowed. If the report file is setup
+   * then we'll also add the debug message to that as well
+   * 
+   * @param msg the message to write as a dubg statment
+   */
+  static void debug(String msg) {
+    if (debug) {
+      AsyncLog.log(LogLevel.DEBUG, msg);
+    }
+  }
+
+  /**
+   * Writes a log message. If the report file is setup
+   * then we'll also add the debug message to that as well
+   * 
+   * @param msg message to be logged
+   */
+  static void info(String msg) {
+    if (logLevel != LogLevel.ERROR) {
+      AsyncLog.log(LogLevel.INFO, msg);
+    }
+  }
+
+  /**
+   * Logs a line that belongs in the conversion's report, such as the plugin
+   * counts. It is shown on the console like an info message, but is always
+   * written to the report, whatever the log level
+   * 
+   * @param msg message to be reported
+   */
+  static void report(String msg) {
+    if (logLevel != LogLevel.ERROR) {
+      AsyncLog.log(LogLevel.INFO, msg);
+    } else if (logToFile) {
+      ReportFile report = ConversionContext.currentReport();
+      if (report != null) {
+        AsyncLog.report(report, INFO_LBL + msg);
+      }
+    }
+  }
+
+  /**
+   * If an error needs to be logged use this method. If the file is enabled then
+   * we add the log to the file as well.
+   * 
+   * @param msg message to be displayed
+   */
+  static void err(String msg) {
+    AsyncLog.log(LogLevel.ERROR, msg);
+  }
+
+  /**
+   * A conversion's report file. The file is only opened, written and closed by
+   * the log writer thread, in the order the requests were logged, so a report
+   * being rewritten (such as in watch mode) can't be overtaken by the writes
+   * still pending for its previous version.
+   */
+  static final class ReportFile {
+    final File file;
+    private Writer writer = null;
+
+    ReportFile(File file) {
+      this.file = file;
+    }
+
+    private void write(String line) throws IOException {
+      if (writer == null) {
+        writer = new BufferedWriter(new FileWriter(file));
+      }
+      writer.write(line);
+      writer.write(NL);
+    }
+
+    private void close() throws IOException {
+      if (writer != null) {
+        writer.close();
+        writer = null;
+      }
+    }
+  }
+
+  /**
+   * Logging that doesn't hold up the conversion. Messages are placed into a
+   * bounded ring buffer, and a single background thread writes them to the
+   * console and the report files. The slots are allocated up front, so logging
+   * a message doesn't create any objects beyond the message itself. As there is
+   * a single queue, the messages keep the order they were logged in. If the
+   * buffer fills, debug messages are dropped (and the number dropped logged)
+   * rather than holding up the caller, other messages wait for space so nothing
+   * of importance is lost. Call flush to wait for everything logged so far to
+   * be written.
+   */
+  static final class AsyncLog {
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_TIMEOUT_MS = 10000;
+    private static final byte OP_LOG = 0;
+    private static final byte OP_REPORT_ONLY = 1;
+    private static final byte OP_CLOSE = 2;
+
+    private static final byte[] ops = new byte[CAPACITY];
+    private static final LogLevel[] levels = new LogLevel[CAPACITY];
+    private static final String[] messages = new String[CAPACITY];
+    private static final ReportFile[] reports = new ReportFile[CAPACITY];
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition notEmpty = lock.newCondition();
+    private static final Condition notFull = lock.newCondition();
+    private static final Condition written = lock.newCondition();
+    private static long head = 0;
+    private static long tail = 0;
+    private static long writtenCount = 0;
+    private static long droppedCount = 0;
+    private static Thread writer = null;
+
+    private AsyncLog() {
+    }
+
+    /**
+     * Queues a message for the console, and the report of the conversion bound
+     * to this thread if reports are being written
+     * 
+     * @param level the message's level
+     * @param msg   the message
+     */
+    static void log(LogLevel level, String msg) {
+      enqueue(OP_LOG, level, msg, logToFile ? ConversionContext.currentReport() : null);
+    }
+
+    /**
+     * Queues a line to be written to a report without a level label, and not
+     * shown on the console
+     * 
+     * @param report the report to write to
+     * @param line   the line to write
+     */
+    static void report(ReportFile report, String line) {
+      enqueue(OP_REPORT_ONLY, null, line, report);
+    }
+
+    /**
+     * Queues the closing of a report, once everything logged to it has been
+     * written
+     * 
+     * @param report the report to close
+     */
+    static void close(ReportFile report) {
+      enqueue(OP_CLOSE, null, null, report);
+    }
+
+    private static void enqueue(byte op, LogLevel level, String msg, ReportFile report) {
+      lock.lock();
+      try {
+        if (writer == null) {
+          writer = new Thread(AsyncLog::drain, "flb-log-writer");
+          writer.setDaemon(true);
+          writer.start();
+          Runtime.getRuntime().addShutdownHook(new Thread(AsyncLog::flush));
+        }
+        while (tail - head == CAPACITY) {
+          if (level == LogLevel.DEBUG) {
+            droppedCount++;
+            return;
+          }
+          notFull.awaitUninterruptibly();
+        }
+        final int slot = (int) (tail & MASK);
+        ops[slot] = op;
+        levels[slot] = level;
+        messages[slot] = msg;
+        reports[slot] = report;
+        tail++;
+        notEmpty.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Waits until everything logged so far has been written, up to a time limit
+     * so a stuck console can't stop us from exiting
+     */
+    static void flush() {
+      lock.lock();
+      try {
+        final long target = tail;
+        long remaining = TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT_MS);
+        while ((writtenCount < target) && (remaining > 0)) {
+          remaining = written.awaitNanos(remaining);
+        }
+      } catch (InterruptedException interruptErr) {
+        Thread.currentThread().interrupt();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * The writer thread's loop, taking each message off the buffer and writing
+     * it out. The console is flushed whenever the buffer has been emptied
+     */
+    private static void drain() {
+      while (true) {
+        byte op;
+        LogLevel level;
+        String msg;
+        ReportFile report;
+        long dropped = 0;
+        boolean emptied = false;
+        lock.lock();
+        try {
+          while (head == tail) {
+            notEmpty.awaitUninterruptibly();
+          }
+          final int slot = (int) (head & MASK);
+          op = ops[slot];
+          level = levels[slot];
+          msg = messages[slot];
+          report = reports[slot];
+          messages[slot] = null;
+          reports[slot] = null;
+          head++;
+          emptied = (head == tail);
+          dropped = droppedCount;
+          droppedCount = 0;
+          notFull.signal();
+        } finally {
+          lock.unlock();
+        }
+
+        if (dropped > 0) {
+          console.println(INFO_LBL + dropped + " debug messages dropped as the log buffer was full");
+        }
+        write(op, level, msg, report);
+        if (emptied) {
+          console.flush();
+        }
+
+        lock.lock();
+        try {
+          writtenCount++;
+          written.signalAll();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+
+    private static void write(byte op, LogLevel level, String msg, ReportFile report) {
+      try {
+        switch (op) {
+          case OP_LOG:
+            final String logStr = level.label + msg;
+            console.println(logStr);
+            if (report != null) {
+              report.write(logStr);
+            }
+            break;
+          case OP_REPORT_ONLY:
+            report.write(msg);
+            break;
+          case OP_CLOSE:
+            report.close();
+            break;
+          default:
+            break;
+        }
+      } catch (IOException ioErr) {
+        console.println(ERROR_LBL + "Unable to write to report file " + report.file.getPath() + " : "
+            + ioErr.getMessage());
+      }
+    }
+  }
+
+  /**
+   * This class helps us process the plugins and directives. Each plugin will have
+   * an instance of this class. We track the plugin type so we can get the order
+   * of output correct
+   */
+  static class Plugin {
+    private static final String WILDCARD = "*";
+    private static final String DUMMYATTR = "dummy";
+    private static final String COMMENT = "#";
+    private static final String NAMEATTR = "name";
+    private static final String SEPARATOR = " ";
+    static final int PLUGININDENT = 1;
+    static final int NAMEINDENT = 2;
+    static final int ATTRIBUTEINDENT = 3;
+    private static final String INDENT = "  ";
+    private static final int MAXCACHEDINDENT = 8;
+
+    /**
+     * The indentation strings are the same for every line at a given depth, so
+     * rather than rebuilding them for each line we create them once
+     */
+    private static final String[] INDENTS = new String[MAXCACHEDINDENT + 1];
+    static {
+      INDENTS[0] = "";
+      for (int idx = 1; idx <= MAXCACHEDINDENT; idx++) {
+        INDENTS[idx] = INDENTS[idx - 1] + INDENT;
+      }
+    }
+
+    /** pluginType is an enumeration to make it easy to determine the plugin type */
+    public PluginType pluginType;
+    /** name represents the name plugin */
+    private String name = null;
+
+    /**
+     * Records that the plugin has been added to the conversion. When resolving
+     * includes a plugin can be stored before its section ends so it keeps its
+     * position ahead of the included plugins
+     */
+    boolean stored = false;
+
+    /** the line of the plugin's section header (or directive) in the classic file */
+    int lineNo = 0;
+
+    /**
+     * As certain attributes are allowed to reoccur such as the rules in the
+     * modifier
+     * filter plugin each attribute name can hold several values. The store keeps
+     * the declaration order, which is the order we write the attributes in
+     */
+    AttributeStore attributes = new AttributeStore();
+
+    /**
+     * Standard constructor
+     * 
+     * @param type this the enumeration showing the type of plugin being handled
+     */
+    public Plugin(PluginType type) {
+      this.pluginType = type;
+    }
+
+    /**
+     * Creates an empty plugin of the same class and type, so copies keep any
+     * overridden behaviour
+     * 
+     * @return new plugin instance
+     */
+    Plugin newInstance() {
+      return new Plugin(pluginType);
+    }
+
+    /**
+     * Creates a copy of this plugin with its own attribute lists, so the copy
+     * can be changed without affecting the original. Used when the same
+     * included plugins are added to multiple conversions
+     * 
+     * @return the copied plugin
+     */
+    Plugin copy() {
+      Plugin copy = newInstance();
+      copy.name = this.name;
+      copy.lineNo = this.lineNo;
+      copy.attributes = attributes.copy();
+      return copy;
+    }
+
+    /**
+     * get the number of different attributes types (some plugins allow multiple
+     * occurrences of the same attribute)
+     * 
+     * @return the number of attributes held by this plugin. We only count one
+     *         unique occurence of an attribute
+     */
+    public int attributeCountByType() {
+      return attributes.size();
+    }
+
+    /**
+     * builds an indent string that will be accepted by YAML
+     * 
+     * @param depth how many levels of indetation
+     * @return the YAML suitable indentation characters
+     */
+    String indenter(int depth) {
+      if (depth <= MAXCACHEDINDENT) {
+        return INDENTS[depth];
+      }
+      return INDENT.repeat(depth);
+    }
+
+    /**
+     * We examine the line to see if the @includes is used. Fluent Bit allows us to
+     * set attribute elements with an @includes, however in YAML its use is a lot
+     * more restrictive. So when we encounter its use we need to log it
+     * 
+     * @param line   the line to examine
+     * @param lineNo position in the source file
+     * @return true if an includes is identified
+     */
+    static boolean checkForInclusion(String line, int lineNo) {
+      boolean found = false;
+      if (containsIgnoreCase(line, INCLUDECLASSIC)) {
+        info("Warning: @include found at line " + lineNo + "  >>  " + line.trim());
+        found = true;
+      }
+
+      return found;
+    }
+
+    /**
+     * A case insensitive search that, unlike lower casing the line first, doesn't
+     * copy it
+     * 
+     * @param line    the text to search
+     * @param keyword the lower case text to look for
+     * @return true if the line contains the keyword
+     */
+    static boolean containsIgnoreCase(String line, String keyword) {
+      final int last = line.length() - keyword.length();
+      final char first = keyword.charAt(0);
+      for (int idx = 0; idx <= last; idx++) {
+        if (Character.toLowerCase(line.charAt(idx)) == first
+            && line.regionMatches(true, idx, keyword, 0, keyword.length())) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * converts the attribute name to its idiomatc form if the option is enabled
+     * 
+     * @param attributeName name to convert
+     * @return returns the attribute key in a format dictated by the idiomatv
+     */
+    String toIdiomaticForm(String attributeName) {
+
+      if (!useIdiomaticForm) {
+        return attributeName;
+      }
+      attributeName = attributeName.toLowerCase();
+      StringBuilder builder = new StringBuilder(attributeName);
+
+      // Traverse the string character by
+      // character and remove underscore
+      // and capitalize next letter
+      for (int i = 0; i < builder.length(); i++) {
+
+        // Check char is underscore
+        if (builder.charAt(i) == '_') {
+
+          builder.deleteCharAt(i);
+          builder.replace(
+              i, i + 1,
+              String.valueOf(
+                  Character.toUpperCase(
+                      builder.charAt(i))));
+        }
+      }
+
+      // Return in String type
+      return builder.toString();
+
+    }
+
+    /**
+     * 
+     * Each attribute is processed into this instance of a plugin.
+     * If any issues are identified such as the use of
+     * the @includes feature this is logged to
+     * info. We also deal with any of the foible such as quoting
+     * wildcards and dummy attributes
+     * 
+     * @param attribute the attribute line from the source file
+     * @param lineNo    the line number for this attribute in the source file
+     * 
+     */
+    public void add(String attribute, int lineNo) {
+      boolean hasInclusion = false;
+      if (attribute == null) {
+        return;
+      }
+      // work with the bounds of the trimmed line rather than trimming, so a large
+      // value is only ever copied once
+      int start = 0;
+      int end = attribute.length();
+      while (start < end && attribute.charAt(start) <= ' ') {
+        start++;
+      }
+      while (end > start && attribute.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      if (start == end) {
+        return;
+      }
+      hasInclusion = checkForInclusion(attribute, lineNo);
+
+      int sepPos = 0;
+      if (attribute.startsWith(COMMENT, start)) {
+        sepPos = start + 1;
+      } else {
+        sepPos = attribute.indexOf(SEPARATOR, start);
+        if (sepPos >= end) {
+          sepPos = -1;
+        }
+      }
+      if (sepPos > start) {
+        String attributeName = attribute.substring(start, sepPos).trim();
+        int valueStart = sepPos;
+        while (valueStart < end && attribute.charAt(valueStart) <= ' ') {
+          valueStart++;
+        }
+        if (end - valueStart >= ValueSlice.MIN_SIZE) {
+          addAttribute(attributeName, new ValueSlice(attribute, valueStart, end - valueStart), hasInclusion, lineNo);
+        } else {
+          addAttribute(attributeName, attribute.substring(valueStart, end), hasInclusion, lineNo);
+        }
+      } else {
+        info("Cant process attribute:" + attribute.substring(start, end));
+      }
+
+    }
+
+    /**
+     * Stores a large attribute value that is still a view of the source. The
+     * value is only turned into a String when this plugin has to look at it, or
+     * it's the plugin's name, otherwise any quoting is left to be applied as the
+     * value is written
+     * 
+     * @param attributeName  the trimmed attribute name
+     * @param attributeValue the trimmed attribute value
+     * @param hasInclusion   true if the source line uses an @include
+     * @param lineNo         the line the attribute is on in the classic file
+     */
+    void addAttribute(String attributeName, ValueSlice attributeValue, boolean hasInclusion, int lineNo) {
+      String idiomaticName = toIdiomaticForm(attributeName);
+      if (hasInclusion || !keepsSlices() || idiomaticName.equalsIgnoreCase(NAMEATTR)) {
+        addAttribute(attributeName, attributeValue.toString(), hasInclusion, lineNo);
+        return;
+      }
+      if ((idiomaticName.equalsIgnoreCase(DUMMYATTR)) && (!attributeValue.startsWith('\''))) {
+        attributeValue = attributeValue.quoted();
+      }
+      attributes.add(idiomaticName, attributeValue, lineNo);
+    }
+
+    /**
+     * @return true if large values can be held as a ValueSlice, false if the
+     *         plugin needs every value as a String
+     */
+    boolean keepsSlices() {
+      return true;
+    }
+
+    /**
+     * Stores an attribute that has already been split into its name and value.
+     * This is where we deal with the foibles such as commenting out inclusions,
+     * quoting wildcards and dummy attributes
+     * 
+     * @param attributeName  the trimmed attribute name
+     * @param attributeValue the trimmed attribute value
+     * @param hasInclusion   true if the source line uses an @include
+     * @param lineNo         the line the attribute is on in the classic file
+     */
+    void addAttribute(String attributeName, String attributeValue, boolean hasInclusion, int lineNo) {
+      if (hasInclusion) {
+        if (!attributeName.startsWith(COMMENT)) {
+          attributeName = "#" + attributeName;
+          // its not already a comment - let's comment out the inclusion
+        }
+      }
+      attributeName = toIdiomaticForm(attributeName);
+      // we need to handle the name attribute slightly differently
+      if (attributeName.equalsIgnoreCase(NAMEATTR)) {
+        this.name = attributeValue;
+      } else {
+        // determine whether there is a wildcard involved, correct the quotations
+        if (attributeValue.equalsIgnoreCase(WILDCARD)) {
+          attributeValue = "'*'";
+        }
+        // ensure that dummy attributes are correctly quoted
+        if ((attributeName.equalsIgnoreCase(DUMMYATTR)) && (!attributeValue.startsWith("'"))) {
+          attributeValue = "'" + attributeValue + "'";
+        }
+        attributes.add(attributeName, attributeValue, lineNo);
+      }
+    }
+
+    /**
+     * Writes a correctly formatted plugin name - we declare this separatelty so
+     * anything that is handled using the plugin object such as a service can have
+     * this action overridden
+     * 
+     * @param out where the name label is written to with correct indentation
+     *            for the YAML config
+     * @throws IOException if the output can't be written to
+     */
+    void writePrefix(Appendable out) throws IOException {
+      out.append(indenter(NAMEINDENT)).append("- name: ").append(this.name).append(NL);
+    }
+
+    /**
+     * We emit the YAML representation of the plugin straight to the output,
+     * iterating over the data structure and handling the possibility of having
+     * multiple attributes of the same type. Writing directly means we never hold
+     * a copy of the whole plugin block in memory, which matters for large
+     * attributes like dummy payloads
+     * 
+     * @param out the writer (or other Appendable) to emit the YAML to
+     * @throws IOException if the output can't be written to
+     */
+    public void write(Appendable out) throws IOException {
+      writePrefix(out);
+      final String indent = indenter(ATTRIBUTEINDENT);
+      final int attributeCount = attributes.size();
+
+      for (int idx = 0; idx < attributeCount; idx++) {
+        final String key = attributes.key(idx);
+        final boolean isComment = key.equals(COMMENT);
+        final int valueCount = attributes.valueCount(idx);
+        for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
+          final Object value = attributes.rawValue(idx, valueIdx);
+          out.append(indent).append(key);
+          if (!isComment) {
+            out.append(": ");
+          }
+          if (key.startsWith(COMMENT) || !BlockScalar.write(out, value, indent)) {
+            appendValue(out, value);
+          }
+          out.append(NL);
+          if (debug) {
+            debug(indent + key + (isComment ? "" : ": ") + value);
+          }
+        }
+      }
+    }
+
+    /**
+     * Writes an attribute value, leaving a ValueSlice to decode itself straight
+     * into the output
+     * 
+     * @param out   where the value is written
+     * @param value the String or ValueSlice held for the attribute
+     * @throws IOException if the output can't be written to
+     */
+    static void appendValue(Appendable out, Object value) throws IOException {
+      if (value instanceof ValueSlice slice) {
+        slice.writeTo(out);
+      } else {
+        out.append((String) value);
+      }
+    }
+
+    /**
+     * Describes the YAML the plugin should be written as, so the verifier can
+     * compare it with what was actually written
+     * 
+     * @param into the entries of the list the plugin is written in
+     */
+    void expect(ArrayList<YamlVerifier.Node> into) {
+      YamlVerifier.Node item = YamlVerifier.Node.container(null, lineNo);
+      item.children.add(YamlVerifier.Node.scalar(NAMEATTR, name, lineNo));
+      expectAttributes(item.children);
+      into.add(item);
+    }
+
+    /**
+     * Describes the attributes, in the order they're written
+     * 
+     * @param into the entries the attributes are written in
+     */
+    void expectAttributes(ArrayList<YamlVerifier.Node> into) {
+      for (int idx = 0; idx < attributes.size(); idx++) {
+        final String key = attributes.key(idx);
+        final int valueCount = attributes.valueCount(idx);
+        for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
+          final String value = attributes.value(idx, valueIdx);
+          if (key.startsWith(COMMENT)) {
+            into.add(YamlVerifier.Node.comment(key + (key.equals(COMMENT) ? "" : ": ") + value,
+                attributes.line(idx)));
+          } else {
+            into.add(YamlVerifier.Node.scalar(key, value, attributes.line(idx)));
+          }
+        }
+      }
+    }
+
+    /**
+     * Provides the YAML representation of the plugin as a string. Only intended
+     * for small uses as the output should be streamed using write(Appendable)
+     * 
+     * @return string containing the plugin in YAML format
+     */
+    public String write() {
+      StringWriter YAMLoutput = new StringWriter();
+      try {
+        write(YAMLoutput);
+      } catch (IOException ioErr) {
+        // a StringWriter doesn't throw IO errors
+        err("Unexpected error writing plugin:" + ioErr.getMessage());
+      }
+      return YAMLoutput.toString();
+    }
+
+  }
+
+  /**
+   * We have extended the plugin to bring together those versions of
+   * Plugin that are more specialized
+   * such as needing singelton characteristics.
+   */
+  static class SpecialPlugin extends Plugin {
+
+    /**
+     * standard constructor where we'll cascade the informas
+     * 
+     * @param type the plugin type to be construb
+     */
+    public SpecialPlugin(PluginType type) {
+      super(type);
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new SpecialPlugin(pluginType);
+    }
+
+    /**
+     * Provide identation that reflects the service block
+     */
+    @Override
+    String indenter(int depth) {
+      return "  ";
+    }
+
+    /**
+     * We don't want to handle a name attribute in a manner that is different to
+     * other service attributes.
+     */
+    @Override
+    void writePrefix(Appendable out) {
+      // no name label for this type of plugin
+    }
+
+    /**
+     * Merges another section of the same type into this one, adding all of its
+     * attributes
+     * 
+     * @param plugin the plugin object to be added to the the appropriate collection
+     */
+    public void add(Plugin plugin) {
+      debug("merging special plugin");
+      if (plugin.attributes != null) {
+        final AttributeStore merging = plugin.attributes;
+        for (int idx = 0; idx < merging.size(); idx++) {
+          this.attributes.addSlot(merging, idx);
+        }
+      }
+
+    }
+  }
+
+  /**
+   * We need the representation of services to differ from inputs, outputs and
+   * filters. The level of YAML indentation is different, and we don't have a name
+   * attribute
+   */
+  static class ServicePlugin extends SpecialPlugin {
+    /**
+     * default constructor which will push down the plugin type
+     */
+    public ServicePlugin() {
+      super(PluginType.SERVICE);
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new ServicePlugin();
+    }
+
+    /**
+     * Merges a further [SERVICE] section, such as one in an included file.
+     * Fluent Bit applies the service settings in the order they're read, so a
+     * setting in both sections takes the later section's value
+     * 
+     * @param plugin the later service section
+     */
+    @Override
+    public void add(Plugin plugin) {
+      debug("merging service plugin");
+      if (plugin.attributes != null) {
+        final AttributeStore merging = plugin.attributes;
+        for (int idx = 0; idx < merging.size(); idx++) {
+          final int heldIdx = this.attributes.indexOf(merging.key(idx));
+          if (heldIdx < 0) {
+            this.attributes.addSlot(merging, idx);
+          } else {
+            info("Service " + merging.key(idx) + " is set again by a later service section (line "
+                + merging.line(idx) + "), the later value is used");
+            this.attributes.set(heldIdx, merging.value(idx, merging.valueCount(idx) - 1));
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * We need the rewepresentation of services to differ from inputs, outputs and
+   * filters. The level of YAML indentation is different, and we don't have a name
+   * attribute
+   */
+  static class IncludesPlugin extends SpecialPlugin {
+    /**
+     * When resolving includes within a fragment, the directive is recorded so it
+     * can be resolved each time the fragment is used
+     */
+    String directive = null;
+
+    /**
+     * Standard construct which will pushdown to the basse class the type of okugin
+     */
+    public IncludesPlugin() {
+      super(PluginType.INCLUDES);
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new IncludesPlugin();
+    }
+
+    /**
+     * Constructor for the includes variant - which allows us to creat
+     * 
+     * @param line   the line of source to be processed
+     * @param lineNo The lineNo reflects where this attribute originated from
+     */
+    public IncludesPlugin(String line, int lineNo) {
+      super(PluginType.INCLUDES);
+      add(line, lineNo);
+    }
+
+    /**
+     * Provide identation that reflects the service block. Using space characters as
+     * YAML doesn't allow tab characters
+     * 
+     * @return the indentation string
+     */
+    @Override
+    String indenter(int depth) {
+      return "  ";
+    }
+
+    /**
+     * We don't want to handle a name attribute in a manner that is different to
+     * other service attributes.
+     */
+    @Override
+    void writePrefix(Appendable out) {
+      // no name label for this type of plugin
+    }
+
+  }
+
+  /**
+   * The sections that are written at the top level of the YAML rather than in
+   * the pipeline, such as parsers and customs. They're written the same way as
+   * the pipeline plugins, just one level of indentation less. Values that are
+   * regular expressions or time formats are single quoted, as they often hold
+   * characters that YAML would otherwise interpret.
+   */
+  static class SectionPlugin extends Plugin {
+    static final String REGEXATTR = "regex";
+    private static final String TIMEFORMATATTR = "time_format";
+    private static final String QUOTE = "'";
+
+    /**
+     * Standard constructor
+     * 
+     * @param type the section type
+     */
+    public SectionPlugin(PluginType type) {
+      super(type);
+    }
+
+    /**
+     * Values are examined when they're added, so are always held as Strings
+     */
+    @Override
+    boolean keepsSlices() {
+      return false;
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new SectionPlugin(pluginType);
+    }
+
+    @Override
+    String indenter(int depth) {
+      return super.indenter(depth - 1);
+    }
+
+    @Override
+    void addAttribute(String attributeName, String attributeValue, boolean hasInclusion, int lineNo) {
+      if ((attributeName.equalsIgnoreCase(REGEXATTR) || attributeName.equalsIgnoreCase(TIMEFORMATATTR))
+          && !attributeValue.startsWith(QUOTE)) {
+        attributeValue = singleQuoted(attributeValue);
+      }
+      super.addAttribute(attributeName, attributeValue, hasInclusion, lineNo);
+    }
+
+    /**
+     * Single quotes a value for YAML, which only requires embedded quotes to be
+     * doubled up - backslashes are kept as they are, which suits expressions
+     * 
+     * @param value the value to quote
+     * @return the quoted value
+     */
+    static String singleQuoted(String value) {
+      return QUOTE + value.replace(QUOTE, QUOTE + QUOTE) + QUOTE;
+    }
+  }
+
+  /**
+   * A multiline parser's rules are written in the classic format as a line of
+   * three quoted values - the state, the expression and the next state. In the
+   * YAML they become a list of rules, so we hold them separately from the other
+   * attributes.
+   */
+  static class MultilineParserPlugin extends SectionPlugin {
+    private static final String RULEATTR = "rule";
+    private static final String RULESYAML = "rules";
+    private static final String STATEYAML = "state";
+    private static final String NEXTSTATEYAML = "next_state";
+    private static final char DOUBLEQUOTE = '"';
+    private static final char ESCAPE = '\\';
+
+    /** each rule holds the state, regex and next state */
+    ArrayList<String[]> rules = new ArrayList<String[]>();
+
+    public MultilineParserPlugin() {
+      super(PluginType.MULTILINE_PARSER);
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new MultilineParserPlugin();
+    }
+
+    @Override
+    Plugin copy() {
+      MultilineParserPlugin copy = (MultilineParserPlugin) super.copy();
+      copy.rules = new ArrayList<String[]>(rules);
+      return copy;
+    }
+
+    @Override
+    void addAttribute(String attributeName, String attributeValue, boolean hasInclusion, int lineNo) {
+      if (attributeName.equalsIgnoreCase(RULEATTR) && !hasInclusion) {
+        String[] rule = parseRule(attributeValue);
+        if (rule != null) {
+          rules.add(rule);
+          return;
+        }
+        err("Multiline parser rule doesn't have a state, expression and next state:" + attributeValue);
+      }
+      super.addAttribute(attributeName, attributeValue, hasInclusion, lineNo);
+    }
+
+    /**
+     * Splits the rule into its double quoted values. A backslash escaped quote
+     * is taken as part of the value, any other backslash is kept as it is
+     * 
+     * @param ruleValue the value of the rule line
+     * @return the three values, or null if the rule doesn't have exactly three
+     */
+    static String[] parseRule(String ruleValue) {
+      ArrayList<String> parts = new ArrayList<String>(3);
+      StringBuilder part = null;
+      for (int idx = 0; idx < ruleValue.length(); idx++) {
+        final char chr = ruleValue.charAt(idx);
+        if (part == null) {
+          if (chr == DOUBLEQUOTE) {
+            part = new StringBuilder();
+          } else if (!Character.isWhitespace(chr)) {
+            return null;
+          }
+        } else if ((chr == ESCAPE) && (idx + 1 < ruleValue.length())
+            && (ruleValue.charAt(idx + 1) == DOUBLEQUOTE)) {
+          part.append(DOUBLEQUOTE);
+          idx++;
+        } else if (chr == DOUBLEQUOTE) {
+          parts.add(part.toString());
+          part = null;
+        } else {
+          part.append(chr);
+        }
+      }
+      if ((part != null) || (parts.size() != 3)) {
+        return null;
+      }
+      return parts.toArray(new String[3]);
+    }
+
+    @Override
+    public void write(Appendable out) throws IOException {
+      super.write(out);
+      if (!rules.isEmpty()) {
+        final String ruleIndent = indenter(ATTRIBUTEINDENT + 1);
+        final String valueIndent = indenter(ATTRIBUTEINDENT + 2);
+        out.append(indenter(ATTRIBUTEINDENT)).append(RULESYAML).append(":").append(NL);
+        for (String[] rule : rules) {
+          out.append(ruleIndent).append("- ").append(STATEYAML).append(": ").append(rule[0]).append(NL);
+          out.append(valueIndent).append(REGEXATTR).append(": ").append(singleQuoted(rule[1])).append(NL);
+          out.append(valueIndent).append(NEXTSTATEYAML).append(": ").append(rule[2]).append(NL);
+        }
+      }
+    }
+
+    @Override
+    void expect(ArrayList<YamlVerifier.Node> into) {
+      super.expect(into);
+      if (!rules.isEmpty()) {
+        YamlVerifier.Node ruleList = YamlVerifier.Node.container(RULESYAML, lineNo);
+        for (String[] rule : rules) {
+          YamlVerifier.Node ruleItem = YamlVerifier.Node.container(null, lineNo);
+          ruleItem.children.add(YamlVerifier.Node.scalar(STATEYAML, rule[0], lineNo));
+          ruleItem.children.add(YamlVerifier.Node.scalar(REGEXATTR, singleQuoted(rule[1]), lineNo));
+          ruleItem.children.add(YamlVerifier.Node.scalar(NEXTSTATEYAML, rule[2], lineNo));
+          ruleList.children.add(ruleItem);
+        }
+        into.get(into.size() - 1).children.add(ruleList);
+      }
+    }
+  }
+
+  /**
+   * An upstream server, which in the classic format is followed by [NODE]
+   * sections. The nodes are attached to the upstream they follow and written as
+   * its list of nodes.
+   */
+  static class UpstreamPlugin extends SectionPlugin {
+    ArrayList<Plugin> nodes = new ArrayList<Plugin>();
+
+    public UpstreamPlugin() {
+      super(PluginType.UPSTREAM);
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new UpstreamPlugin();
+    }
+
+    @Override
+    Plugin copy() {
+      UpstreamPlugin copy = (UpstreamPlugin) super.copy();
+      copy.nodes = new ArrayList<Plugin>(nodes.size());
+      for (Plugin node : nodes) {
+        copy.nodes.add(node.copy());
+      }
+      return copy;
+    }
+
+    @Override
+    public void write(Appendable out) throws IOException {
+      super.write(out);
+      if (!nodes.isEmpty()) {
+        out.append(indenter(ATTRIBUTEINDENT)).append(NODESYAML).append(":").append(NL);
+        for (Plugin node : nodes) {
+          node.write(out);
+        }
+      }
+    }
+
+    @Override
+    void expect(ArrayList<YamlVerifier.Node> into) {
+      super.expect(into);
+      if (!nodes.isEmpty()) {
+        YamlVerifier.Node nodeList = YamlVerifier.Node.container(NODESYAML, lineNo);
+        for (Plugin node : nodes) {
+          node.expect(nodeList.children);
+        }
+        into.get(into.size() - 1).children.add(nodeList);
+      }
+    }
+  }
+
+  /**
+   * A node of an upstream server, indented to sit within the upstream's list
+   * of nodes
+   */
+  static class NodePlugin extends Plugin {
+    public NodePlugin() {
+      super(PluginType.NODE);
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new NodePlugin();
+    }
+
+    @Override
+    String indenter(int depth) {
+      return super.indenter(depth + 1);
+    }
+  }
+
+  /**
+   * The [PLUGINS] section lists the paths of the plugin libraries to load. In
+   * the YAML this is just a list of the paths, so rather than name and
+   * attribute pairs we write each path as a list entry.
+   */
+  static class PluginsPlugin extends Plugin {
+    private static final String PATHATTR = "path";
+
+    public PluginsPlugin() {
+      super(PluginType.PLUGINS);
+    }
+
+    /**
+     * Values are examined when they're added, so are always held as Strings
+     */
+    @Override
+    boolean keepsSlices() {
+      return false;
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new PluginsPlugin();
+    }
+
+    @Override
+    void addAttribute(String attributeName, String attributeValue, boolean hasInclusion, int lineNo) {
+      if (!hasInclusion && !attributeName.equals(Plugin.COMMENT) && !attributeName.equalsIgnoreCase(PATHATTR)) {
+        info("[PLUGINS] only supports Path, written as a comment:" + attributeName + " " + attributeValue);
+        attributeName = "#" + attributeName;
+      }
+      super.addAttribute(attributeName, attributeValue, hasInclusion, lineNo);
+    }
+
+    @Override
+    public void write(Appendable out) throws IOException {
+      final String indent = indenter(PLUGININDENT);
+      for (int idx = 0; idx < attributes.size(); idx++) {
+        final String key = attributes.key(idx);
+        final boolean isPath = key.equalsIgnoreCase(PATHATTR);
+        final int valueCount = attributes.valueCount(idx);
+        for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
+          out.append(indent);
+          if (isPath) {
+            out.append("- ");
+          } else {
+            out.append(key).append(key.equals(Plugin.COMMENT) ? "" : " ");
+          }
+          out.append(attributes.value(idx, valueIdx)).append(NL);
+        }
+      }
+    }
+
+    @Override
+    void expect(ArrayList<YamlVerifier.Node> into) {
+      for (int idx = 0; idx < attributes.size(); idx++) {
+        final String key = attributes.key(idx);
+        final int valueCount = attributes.valueCount(idx);
+        for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
+          final String value = attributes.value(idx, valueIdx);
+          if (key.equalsIgnoreCase(PATHATTR)) {
+            into.add(YamlVerifier.Node.scalar(null, value, attributes.line(idx)));
+          } else {
+            into.add(YamlVerifier.Node.comment(key + (key.equals(Plugin.COMMENT) ? "" : " ") + value,
+                attributes.line(idx)));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * An input, which can carry the filters moved into its processors. The
+   * processors are written after the input's attributes as the logs
+   * processors.
+   */
+  static class InputPlugin extends Plugin {
+    private static final String PROCESSORSYAML = "processors";
+    private static final String LOGSYAML = "logs";
+
+    ArrayList<Plugin> processors = new ArrayList<Plugin>();
+
+    public InputPlugin() {
+      super(PluginType.INPUT);
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new InputPlugin();
+    }
+
+    @Override
+    Plugin copy() {
+      InputPlugin copy = (InputPlugin) super.copy();
+      copy.processors = new ArrayList<Plugin>(processors.size());
+      for (Plugin processor : processors) {
+        copy.processors.add(processor.copy());
+      }
+      return copy;
+    }
+
+    @Override
+    public void write(Appendable out) throws IOException {
+      super.write(out);
+      if (!processors.isEmpty()) {
+        out.append(indenter(ATTRIBUTEINDENT)).append(PROCESSORSYAML).append(":").append(NL);
+        out.append(indenter(ATTRIBUTEINDENT + 1)).append(LOGSYAML).append(":").append(NL);
+        for (Plugin processor : processors) {
+          processor.write(out);
+        }
+      }
+    }
+
+    @Override
+    void expect(ArrayList<YamlVerifier.Node> into) {
+      super.expect(into);
+      if (!processors.isEmpty()) {
+        YamlVerifier.Node processorBlock = YamlVerifier.Node.container(PROCESSORSYAML, lineNo);
+        YamlVerifier.Node logs = YamlVerifier.Node.container(LOGSYAML, lineNo);
+        for (Plugin processor : processors) {
+          processor.expect(logs.children);
+        }
+        processorBlock.children.add(logs);
+        into.get(into.size() - 1).children.add(processorBlock);
+      }
+    }
+  }
+
+  /**
+   * A filter moved into an input's processors, indented to sit within the
+   * input's list of logs processors. A processor only sees the input's records
+   * so it has no Match
+   */
+  static class ProcessorPlugin extends Plugin {
+    public ProcessorPlugin() {
+      super(PluginType.FILTER);
+    }
+
+    /**
+     * @param filter the filter being moved
+     * @return the processor doing the filter's work
+     */
+    static Plugin of(Plugin filter) {
+      Plugin processor = new ProcessorPlugin();
+      processor.name = filter.name;
+      processor.lineNo = filter.lineNo;
+      processor.attributes = filter.attributes.copy();
+      for (String matchName : ProcessorRewrite.MATCH_ATTRS) {
+        final int idx = processor.attributes.find(matchName);
+        if (idx >= 0) {
+          processor.attributes.remove(idx);
+        }
+      }
+      return processor;
+    }
+
+    @Override
+    Plugin newInstance() {
+      return new ProcessorPlugin();
+    }
+
+    @Override
+    String indenter(int depth) {
+      return super.indenter(depth + 3);
+    }
+  }
+
+  /**
+   * Merges runs of adjacent filters that are the same plugin with the same
+   * Match into one filter, saving Fluent Bit a pass over each record for every
+   * filter merged. A merge only happens when the single filter is sure to do
+   * exactly what the run did:
+   * <ul>
+   * <li>modify applies its rules in the order they're written, so the rules of
+   * the second filter must follow those of the first. As the attributes are
+   * written grouped by name, the second filter's rules can only share a name
+   * with the first filter's last rule. Neither can have a Condition, as that
+   * applies to the whole filter.</li>
+   * <li>record_modifier removes keys before adding records, whatever order
+   * they're written in, so the filters can only hold Record and Remove_key,
+   * the second can't remove a key the first adds, and they can't both add the
+   * same key.</li>
+   * <li>nest carries out a single operation, so nest filters are never
+   * merged.</li>
+   * </ul>
+   * Filters with other settings, such as an Alias, are left alone. Each merge
+   * and each adjacent filter that can't be merged is logged.
+   */
+  static final class FilterFusion {
+    private static final String MODIFY = "modify";
+    private static final String RECORD_MODIFIER = "record_modifier";
+    private static final String NEST = "nest";
+    private static final String CONDITION = "condition";
+    private static final String RECORD = "record";
+    private static final String REMOVE_KEY = "remove_key";
+
+    /** the rules of the modify filter */
+    private static final HashSet<String> MODIFY_RULES = new HashSet<String>(Arrays.asList("set", "add", "remove",
+        "remove_wildcard", "remove_regex", "rename", "hard_rename", "copy", "hard_copy", "move_to_start",
+        "move_to_end"));
+
+    private FilterFusion() {
+    }
+
+    /**
+     * Merges the runs of filters in the list
+     * 
+     * @param filters the filters, in the order records pass through them
+     * @return the number of filters merged away, so record passes removed
+     */
+    static int fuse(ArrayList<Plugin> filters) {
+      if ((filters == null) || (filters.size() < 2)) {
+        return 0;
+      }
+      ArrayList<Plugin> fused = new ArrayList<Plugin>(filters.size());
+      Plugin previous = null;
+      for (Plugin filter : filters) {
+        if ((previous != null) && sameStage(previous, filter)) {
+          final String reason = reasonNotToMerge(previous, filter);
+          final String described = "Filter " + filter.name + " (line " + filter.lineNo + ")";
+          if (reason == null) {
+            merge(previous, filter);
+            info(described + " merged into the filter at line " + previous.lineNo);
+            continue;
+          }
+          info(described + " not merged with the filter at line " + previous.lineNo + " as " + reason);
+        }
+        fused.add(filter);
+        previous = filter;
+      }
+      final int removed = filters.size() - fused.size();
+      filters.clear();
+      filters.addAll(fused);
+      return removed;
+    }
+
+    /**
+     * @return true if the filters are the same plugin, selecting the same records
+     */
+    private static boolean sameStage(Plugin first, Plugin second) {
+      if ((first.name == null) || !first.name.equalsIgnoreCase(second.name)) {
+        return false;
+      }
+      for (String matchName : ProcessorRewrite.MATCH_ATTRS) {
+        final int firstIdx = first.attributes.find(matchName);
+        final int secondIdx = second.attributes.find(matchName);
+        if ((firstIdx < 0) != (secondIdx < 0)) {
+          return false;
+        }
+        if ((firstIdx >= 0) && !first.attributes.value(firstIdx, 0).equals(second.attributes.value(secondIdx, 0))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return why the second filter can't be merged into the first, null if it
+     *         can
+     */
+    private static String reasonNotToMerge(Plugin first, Plugin second) {
+      final String name = first.name.toLowerCase();
+      if (name.equals(NEST)) {
+        return "a nest filter carries out a single operation";
+      }
+      if (name.equals(MODIFY)) {
+        return reasonNotToMergeModify(first, second);
+      }
+      if (name.equals(RECORD_MODIFIER)) {
+        return reasonNotToMergeRecordModifier(first, second);
+      }
+      return "only modify and record_modifier filters are merged";
+    }
+
+    private static String reasonNotToMergeModify(Plugin first, Plugin second) {
+      String reason = otherSettings(first, MODIFY_RULES);
+      if (reason == null) {
+        reason = otherSettings(second, MODIFY_RULES);
+      }
+      if (reason != null) {
+        return reason;
+      }
+      final String lastRule = lastRule(first.attributes);
+      boolean firstRule = true;
+      for (int idx = 0; idx < second.attributes.size(); idx++) {
+        final String key = second.attributes.key(idx);
+        if (isRule(key)) {
+          if (!(firstRule && key.equals(lastRule)) && (first.attributes.indexOf(key) >= 0)) {
+            return "its " + key + " rules would be written ahead of earlier rules";
+          }
+          firstRule = false;
+        }
+      }
+      return null;
+    }
+
+    private static String reasonNotToMergeRecordModifier(Plugin first, Plugin second) {
+      final HashSet<String> recordRules = new HashSet<String>(Arrays.asList(RECORD, REMOVE_KEY));
+      String reason = otherSettings(first, recordRules);
+      if (reason == null) {
+        reason = otherSettings(second, recordRules);
+      }
+      if (reason != null) {
+        return reason;
+      }
+      final HashSet<String> added = recordKeys(first.attributes, RECORD);
+      for (String key : recordKeys(second.attributes, RECORD)) {
+        if (added.contains(key)) {
+          return "both add the record " + key;
+        }
+      }
+      for (String key : recordKeys(second.attributes, REMOVE_KEY)) {
+        if (added.contains(key)) {
+          return "it removes the record " + key + " added before it";
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @param filter  the filter
+     * @param allowed the rules that can be merged
+     * @return a description of the first setting that stops the filter being
+     *         merged, null if there isn't one
+     */
+    private static String otherSettings(Plugin filter, HashSet<String> allowed) {
+      for (int idx = 0; idx < filter.attributes.size(); idx++) {
+        final String key = filter.attributes.key(idx);
+        if (isRule(key) && !allowed.contains(normalName(key))) {
+          return (normalName(key).equals(CONDITION) ? "the filter at line " + filter.lineNo + " has a Condition"
+              : "the filter at line " + filter.lineNo + " sets " + key);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return true for the attributes other than comments and the Match
+     */
+    private static boolean isRule(String key) {
+      if (key.startsWith(Plugin.COMMENT)) {
+        return false;
+      }
+      final String name = normalName(key);
+      return !name.equals(ProcessorRewrite.MATCH_ATTRS[0]) && !name.equals(ProcessorRewrite.MATCH_ATTRS[1]);
+    }
+
+    /**
+     * @return the attribute name in lower case with underscores, so idiomatic
+     *         names such as removeKey compare with remove_key
+     */
+    private static String normalName(String key) {
+      StringBuilder name = new StringBuilder(key.length() + 2);
+      for (int idx = 0; idx < key.length(); idx++) {
+        final char chr = key.charAt(idx);
+        if (Character.isUpperCase(chr) && (idx > 0) && Character.isLowerCase(key.charAt(idx - 1))) {
+          name.append('_');
+        }
+        name.append(Character.toLowerCase(chr));
+      }
+      return name.toString();
+    }
+
+    private static String lastRule(AttributeStore attributes) {
+      for (int idx = attributes.size() - 1; idx >= 0; idx--) {
+        if (isRule(attributes.key(idx))) {
+          return attributes.key(idx);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return the record keys named by the first word of each value of the rule
+     */
+    private static HashSet<String> recordKeys(AttributeStore attributes, String rule) {
+      HashSet<String> keys = new HashSet<String>();
+      final int idx = attributes.find(rule);
+      if (idx >= 0) {
+        for (int valueIdx = 0; valueIdx < attributes.valueCount(idx); valueIdx++) {
+          final String value = attributes.value(idx, valueIdx).trim();
+          final int end = value.indexOf(' ');
+          keys.add((end < 0) ? value : value.substring(0, end));
+        }
+      }
+      return keys;
+    }
+
+    /**
+     * Adds the rules (and comments) of the second filter to the first, after
+     * the first filter's own
+     */
+    private static void merge(Plugin into, Plugin from) {
+      for (int idx = 0; idx < from.attributes.size(); idx++) {
+        final String key = from.attributes.key(idx);
+        if (key.startsWith(Plugin.COMMENT) || isRule(key)) {
+          into.attributes.addSlot(from.attributes, idx);
+        }
+      }
+    }
+  }
+
+  /**
+   * Fluent Bit's tag patterns, as used by Match, where * stands for any run of
+   * characters. An input's Tag can also hold a *, such as tail's kube.*, which
+   * is filled in for each record, so a Tag is treated as a pattern too.
+   */
+  static final class TagPattern {
+    private static final char WILDCARD = '*';
+
+    private TagPattern() {
+    }
+
+    /**
+     * @param pattern the Match pattern
+     * @param tag     the tag, where a * is only matched by a * in the pattern
+     * @return true if the pattern matches the whole tag - for a tag holding a *
+     *         this means every tag it can become is matched
+     */
+    static boolean matches(String pattern, String tag) {
+      int patternIdx = 0;
+      int tagIdx = 0;
+      int starIdx = -1;
+      int starTagIdx = 0;
+      while (tagIdx < tag.length()) {
+        if ((patternIdx < pattern.length()) && (pattern.charAt(patternIdx) == WILDCARD)) {
+          starIdx = patternIdx++;
+          starTagIdx = tagIdx;
+        } else if ((patternIdx < pattern.length()) && (pattern.charAt(patternIdx) == tag.charAt(tagIdx))) {
+          patternIdx++;
+          tagIdx++;
+        } else if (starIdx >= 0) {
+          patternIdx = starIdx + 1;
+          tagIdx = ++starTagIdx;
+        } else {
+          return false;
+        }
+      }
+      while ((patternIdx < pattern.length()) && (pattern.charAt(patternIdx) == WILDCARD)) {
+        patternIdx++;
+      }
+      return patternIdx == pattern.length();
+    }
+
+    /**
+     * @param match the Match pattern
+     * @param tag   the Tag, which may hold a *
+     * @return true if every tag the Tag can become is matched
+     */
+    static boolean covers(String match, String tag) {
+      return matches(match, tag);
+    }
+
+    /**
+     * @param first  a pattern
+     * @param second another pattern
+     * @return true if there is a tag both patterns match
+     */
+    static boolean overlaps(String first, String second) {
+      // reachable[i][j] - the first i characters of first and j of second can
+      // match the same text
+      boolean[][] reachable = new boolean[first.length() + 1][second.length() + 1];
+      reachable[0][0] = true;
+      for (int firstIdx = 0; firstIdx <= first.length(); firstIdx++) {
+        for (int secondIdx = 0; secondIdx <= second.length(); secondIdx++) {
+          if (!reachable[firstIdx][secondIdx]) {
+            continue;
+          }
+          final boolean firstStar = (firstIdx < first.length()) && (first.charAt(firstIdx) == WILDCARD);
+          final boolean secondStar = (secondIdx < second.length()) && (second.charAt(secondIdx) == WILDCARD);
+          if (firstStar) {
+            reachable[firstIdx + 1][secondIdx] = true;
+            if (secondIdx < second.length()) {
+              reachable[firstIdx][secondIdx + 1] = true;
+            }
+          }
+          if (secondStar) {
+            reachable[firstIdx][secondIdx + 1] = true;
+            if (firstIdx < first.length()) {
+              reachable[firstIdx + 1][secondIdx] = true;
+            }
+          }
+          if (!firstStar && !secondStar && (firstIdx < first.length()) && (secondIdx < second.length())
+              && (first.charAt(firstIdx) == second.charAt(secondIdx))) {
+            reachable[firstIdx + 1][secondIdx + 1] = true;
+          }
+        }
+      }
+      return reachable[first.length()][second.length()];
+    }
+  }
+
+  /**
+   * Moves filters out of the pipeline's filter chain and into the processors
+   * of the input they apply to, so their records are processed in the input's
+   * thread rather than going through the global chain. A filter is only moved
+   * when it is known to work as a processor, its Match selects exactly one
+   * input and every record from that input, and no earlier filter for that
+   * input stays in the chain - so the order each record is filtered in is
+   * unchanged. Inputs without a Tag have Fluent Bit's default tag (the plugin
+   * name and its instance number), and records re-emitted by rewrite_tag are
+   * treated as coming from another input. Each move, and the reason for
+   * leaving a filter in place, is logged.
+   */
+  static final class ProcessorRewrite {
+    static final String[] MATCH_ATTRS = { "match", "match_regex" };
+    private static final String TAG_ATTR = "tag";
+    private static final String RULE_ATTR = "rule";
+    private static final String REWRITE_TAG = "rewrite_tag";
+    private static final char WILDCARD = '*';
+    private static final char TEMPLATE = '$';
+    private static final char TAG_PART_SEPARATOR = '.';
+
+    /** filters that work on each record on its own, so can run as processors */
+    private static final HashSet<String> PROCESSOR_FILTERS = new HashSet<String>(Arrays.asList("aws", "ecs",
+        "expect", "geoip2", "grep", "kubernetes", "lua", "modify", "nest", "nightfall", "parser", "record_modifier",
+        "sysinfo", "type_converter", "wasm"));
+
+    /** why filters we know about can't be processors */
+    private static final HashMap<String, String> NOT_PROCESSORS = new HashMap<String, String>();
+    static {
+      NOT_PROCESSORS.put(REWRITE_TAG, "it re-emits records with a new tag through the filter chain");
+      NOT_PROCESSORS.put("multiline", "it buffers records and re-emits them through the filter chain");
+      NOT_PROCESSORS.put("log_to_metrics", "it emits metrics through an input of its own");
+      NOT_PROCESSORS.put("throttle", "it limits the rate of everything it matches over time windows");
+      NOT_PROCESSORS.put("tensorflow", "it isn't supported as a processor");
+    }
+
+    /**
+     * Where records come from - an input, or the records re-emitted by a
+     * rewrite_tag filter
+     */
+    static final class Source {
+      final InputPlugin input;
+
+      /** the rewrite_tag filter re-emitting the records, null for an input */
+      final Plugin emitter;
+      final String tag;
+      final String label;
+      boolean blocked = false;
+
+      Source(InputPlugin input, Plugin emitter, String tag, String label) {
+        this.input = input;
+        this.emitter = emitter;
+        this.tag = tag;
+        this.label = label;
+      }
+    }
+
+    private ProcessorRewrite() {
+    }
+
+    /**
+     * Moves the eligible filters of the conversion into their input's
+     * processors
+     * 
+     * @param ctx the conversion holding the parsed pipeline
+     */
+    static void rewrite(ConversionContext ctx) {
+      if ((ctx.inputs == null) || ctx.inputs.isEmpty() || (ctx.filters == null) || ctx.filters.isEmpty()) {
+        return;
+      }
+      ArrayList<Source> sources = sources(ctx);
+      ArrayList<Plugin> remaining = new ArrayList<Plugin>(ctx.filters.size());
+      int moved = 0;
+      for (Plugin filter : ctx.filters) {
+        ArrayList<Source> selected = new ArrayList<Source>();
+        final String reason = reasonToKeep(filter, sources, selected);
+        final String described = "Filter " + filter.name + " (line " + filter.lineNo + ")";
+        if (reason == null) {
+          final InputPlugin input = selected.get(0).input;
+          input.processors.add(ProcessorPlugin.of(filter));
+          moved++;
+          info(described + " moved to the processors of " + selected.get(0).label);
+        } else {
+          remaining.add(filter);
+          for (Source source : selected) {
+            source.blocked = true;
+          }
+          info(described + " left in the filter chain as " + reason);
+        }
+      }
+      ctx.filters = remaining;
+      info("Moved " + moved + " of " + (moved + remaining.size()) + " filters into input processors");
+    }
+
+    /**
+     * Works out where the records come from and their tags
+     * 
+     * @param ctx the conversion holding the parsed pipeline
+     * @return the inputs, followed by the records re-emitted by rewrite_tag
+     */
+    static ArrayList<Source> sources(ConversionContext ctx) {
+      ArrayList<Source> sources = new ArrayList<Source>();
+      HashMap<String, Integer> instances = new HashMap<String, Integer>();
+      for (Plugin plugin : ctx.inputs) {
+        final String name = String.valueOf(plugin.name).toLowerCase();
+        final int instance = instances.merge(name, 1, Integer::sum) - 1;
+        final int tagIdx = plugin.attributes.find(TAG_ATTR);
+        final String tag = (tagIdx < 0) ? name + TAG_PART_SEPARATOR + instance
+            : YamlVerifier.unquote(plugin.attributes.value(tagIdx, 0));
+        final String label = "input " + plugin.name + " (line " + plugin.lineNo + ", tag " + tag + ")";
+        if (plugin instanceof InputPlugin input) {
+          sources.add(new Source(input, null, tag, label));
+        }
+      }
+      for (Plugin filter : (ctx.filters == null) ? Collections.<Plugin>emptyList() : ctx.filters) {
+        if (REWRITE_TAG.equalsIgnoreCase(filter.name)) {
+          final int ruleIdx = filter.attributes.find(RULE_ATTR);
+          final int ruleCount = (ruleIdx < 0) ? 0 : filter.attributes.valueCount(ruleIdx);
+          for (int valueIdx = 0; valueIdx < ruleCount; valueIdx++) {
+            sources.add(new Source(null, filter, emittedTag(filter.attributes.value(ruleIdx, valueIdx)),
+                "the records re-emitted by rewrite_tag (line " + filter.lineNo + ")"));
+          }
+          if (ruleCount == 0) {
+            sources.add(new Source(null, filter, String.valueOf(WILDCARD),
+                "the records re-emitted by rewrite_tag (line " + filter.lineNo + ")"));
+          }
+        }
+      }
+      return sources;
+    }
+
+    /**
+     * A rewrite_tag rule is "$key regex new_tag keep". Parts of the new tag
+     * taken from the record could be anything, so become wildcards
+     * 
+     * @param rule the rule
+     * @return the tag pattern of the re-emitted records
+     */
+    static String emittedTag(String rule) {
+      final String[] parts = rule.trim().split("\\s+");
+      if (parts.length < 3) {
+        return String.valueOf(WILDCARD);
+      }
+      final String newTag = parts[2];
+      StringBuilder tag = new StringBuilder(newTag.length());
+      boolean inTemplate = false;
+      for (int idx = 0; idx < newTag.length(); idx++) {
+        final char chr = newTag.charAt(idx);
+        if (chr == TEMPLATE) {
+          inTemplate = true;
+          tag.append(WILDCARD);
+        } else if (chr == TAG_PART_SEPARATOR) {
+          inTemplate = false;
+          tag.append(chr);
+        } else if (!inTemplate) {
+          tag.append(chr);
+        }
+      }
+      return tag.toString();
+    }
+
+    /**
+     * Decides whether the filter can be moved, collecting the sources it selects
+     * 
+     * @param filter   the filter
+     * @param sources  where the records come from
+     * @param selected receives the sources whose records the filter could see
+     * @return why the filter stays in the chain, or null if it can be moved
+     */
+    private static String reasonToKeep(Plugin filter, ArrayList<Source> sources, ArrayList<Source> selected) {
+      final int matchIdx = filter.attributes.find(MATCH_ATTRS[0]);
+      final int regexIdx = filter.attributes.find(MATCH_ATTRS[1]);
+      Pattern regex = null;
+      if (regexIdx >= 0) {
+        try {
+          regex = Pattern.compile(filter.attributes.value(regexIdx, 0));
+        } catch (PatternSyntaxException patternErr) {
+          return "its Match_Regex isn't a valid regular expression";
+        }
+      }
+      final String match = (matchIdx < 0) ? null : YamlVerifier.unquote(filter.attributes.value(matchIdx, 0));
+      boolean allRecords = true;
+      Source unknown = null;
+      for (Source source : sources) {
+        if (regex != null) {
+          // a regular expression can't be compared with a tag holding a *
+          if (source.tag.indexOf(WILDCARD) >= 0) {
+            selected.add(source);
+            unknown = (unknown == null) ? source : unknown;
+          } else if (regex.matcher(source.tag).find()) {
+            selected.add(source);
+          }
+        } else if ((match != null) && TagPattern.overlaps(match, source.tag)) {
+          selected.add(source);
+          allRecords = TagPattern.covers(match, source.tag);
+        }
+      }
+      final String name = String.valueOf(filter.name).toLowerCase();
+      if (!PROCESSOR_FILTERS.contains(name)) {
+        return NOT_PROCESSORS.getOrDefault(name, "it isn't known to work as a processor");
+      }
+      if ((match == null) && (regex == null)) {
+        return "it has no Match";
+      }
+      if (unknown != null) {
+        return "its Match_Regex can't be checked against the tag of " + unknown.label;
+      }
+      if (selected.isEmpty()) {
+        return "its Match doesn't select any input";
+      }
+      if (selected.size() > 1) {
+        return "its Match selects " + selected.size() + " sources of records";
+      }
+      final Source source = selected.get(0);
+      if (source.input == null) {
+        return "its Match only selects " + source.label;
+      }
+      if (!allRecords) {
+        return "its Match only selects some of the records from " + source.label;
+      }
+      if (source.blocked) {
+        return "an earlier filter for " + source.label + " stays in the chain";
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Works out where each input's records are routed. Every Match of the
+   * filters and outputs is compiled into one trie, with a * in a pattern
+   * becoming a node that can absorb any number of characters, so a tag is
+   * matched against all the patterns in a single walk of the trie rather than
+   * pattern by pattern. A tag holding a * (such as tail's kube.*) can become
+   * any text at that point, so the walk moves to every node below. A
+   * Match_Regex can't be folded into the trie, so those are tried against each
+   * tag directly. The records re-emitted by rewrite_tag are routed as well.
+   * The routing matrix - the processors, filters and outputs each input
+   * reaches - is logged, along with inputs whose records reach no output and
+   * filters or outputs no records reach.
+   */
+  static final class RoutingIndex {
+    private static final char WILDCARD = '*';
+
+    /**
+     * A point in the trie. A star node is reached by a * and loops back on
+     * itself for any character
+     */
+    private static final class TrieNode {
+      final boolean star;
+      HashMap<Character, TrieNode> children = null;
+      TrieNode starChild = null;
+      ArrayList<Integer> ends = null;
+
+      /** the last walk that reached this node, so each walk visits a node once */
+      int visited = 0;
+
+      TrieNode(boolean star) {
+        this.star = star;
+      }
+    }
+
+    private final TrieNode root = new TrieNode(false);
+    private final ArrayList<Plugin> targets = new ArrayList<Plugin>();
+    private final ArrayList<String> matches = new ArrayList<String>();
+    private final ArrayList<Integer> regexTargets = new ArrayList<Integer>();
+    private final ArrayList<Pattern> regexes = new ArrayList<Pattern>();
+    private final ArrayList<Integer> unmatchable = new ArrayList<Integer>();
+    private int walk = 0;
+
+    /**
+     * Compiles the Match of each filter and output
+     * 
+     * @param filters the filters, which may be null
+     * @param outputs the outputs, which may be null
+     */
+    RoutingIndex(ArrayList<Plugin> filters, ArrayList<Plugin> outputs) {
+      for (ArrayList<Plugin> plugins : Arrays.asList(filters, outputs)) {
+        if (plugins != null) {
+          for (Plugin plugin : plugins) {
+            addTarget(plugin);
+          }
+        }
+      }
+    }
+
+    private void addTarget(Plugin plugin) {
+      final int target = targets.size();
+      targets.add(plugin);
+      final int matchIdx = plugin.attributes.find(ProcessorRewrite.MATCH_ATTRS[0]);
+      final int regexIdx = plugin.attributes.find(ProcessorRewrite.MATCH_ATTRS[1]);
+      String match = null;
+      if (regexIdx >= 0) {
+        match = plugin.attributes.value(regexIdx, 0);
+        try {
+          regexes.add(Pattern.compile(match));
+          regexTargets.add(target);
+        } catch (PatternSyntaxException patternErr) {
+          unmatchable.add(target);
+        }
+      } else if (matchIdx >= 0) {
+        match = YamlVerifier.unquote(plugin.attributes.value(matchIdx, 0));
+        insert(match, target);
+      } else {
+        unmatchable.add(target);
+      }
+      matches.add(match);
+    }
+
+    private void insert(String pattern, int target) {
+      TrieNode node = root;
+      for (int idx = 0; idx < pattern.length(); idx++) {
+        final char chr = pattern.charAt(idx);
+        if (chr == WILDCARD) {
+          if (node.starChild == null) {
+            node.starChild = new TrieNode(true);
+          }
+          node = node.starChild;
+        } else {
+          if (node.children == null) {
+            node.children = new HashMap<Character, TrieNode>();
+          }
+          node = node.children.computeIfAbsent(chr, key -> new TrieNode(false));
+        }
+      }
+      if (node.ends == null) {
+        node.ends = new ArrayList<Integer>();
+      }
+      node.ends.add(target);
+    }
+
+    /**
+     * Adds the node, and the star nodes that follow it as a * can match
+     * nothing, to the nodes of the current walk
+     */
+    private void reach(TrieNode node, ArrayList<TrieNode> into) {
+      while ((node != null) && (node.visited != walk)) {
+        node.visited = walk;
+        into.add(node);
+        node = node.starChild;
+      }
+    }
+
+    /**
+     * Adds every node below the node, for a * in the tag
+     */
+    private void reachAll(TrieNode node, ArrayList<TrieNode> into) {
+      ArrayDeque<TrieNode> pending = new ArrayDeque<TrieNode>();
+      pending.push(node);
+      while (!pending.isEmpty()) {
+        TrieNode next = pending.pop();
+        if (next.children != null) {
+          for (TrieNode child : next.children.values()) {
+            if (child.visited != walk) {
+              child.visited = walk;
+              into.add(child);
+              pending.push(child);
+            }
+          }
+        }
+        if ((next.starChild != null) && (next.starChild.visited != walk)) {
+          next.starChild.visited = walk;
+          into.add(next.starChild);
+          pending.push(next.starChild);
+        }
+      }
+    }
+
+    /**
+     * Finds the filters and outputs whose Match selects records with the tag
+     * 
+     * @param tag the tag, which may hold a *
+     * @return the targets reached, in the order the filters and outputs are
+     *         declared
+     */
+    BitSet route(String tag) {
+      ArrayList<TrieNode> current = new ArrayList<TrieNode>();
+      ArrayList<TrieNode> next = new ArrayList<TrieNode>();
+      walk++;
+      reach(root, current);
+      for (int idx = 0; idx < tag.length() && !current.isEmpty(); idx++) {
+        final char chr = tag.charAt(idx);
+        walk++;
+        next.clear();
+        for (TrieNode node : current) {
+          if (chr == WILDCARD) {
+            // a node already reached has had every node below it reached too
+            if (node.visited != walk) {
+              node.visited = walk;
+              next.add(node);
+              reachAll(node, next);
+            }
+          } else {
+            if (node.star) {
+              reach(node, next);
+            }
+            if (node.children != null) {
+              reach(node.children.get(chr), next);
+            }
+          }
+        }
+        ArrayList<TrieNode> swap = current;
+        current = next;
+        next = swap;
+      }
+      BitSet reached = new BitSet(targets.size());
+      for (TrieNode node : current) {
+        if (node.ends != null) {
+          for (int target : node.ends) {
+            reached.set(target);
+          }
+        }
+      }
+      final boolean literalTag = tag.indexOf(WILDCARD) < 0;
+      for (int idx = 0; idx < regexes.size(); idx++) {
+        if (!literalTag || regexes.get(idx).matcher(tag).find()) {
+          reached.set(regexTargets.get(idx));
+        }
+      }
+      return reached;
+    }
+
+    /**
+     * Logs the routing matrix for the conversion, and the plugins that are
+     * never reached or route nowhere
+     * 
+     * @param ctx the conversion holding the prepared pipeline
+     */
+    static void report(ConversionContext ctx) {
+      if ((ctx.inputs == null) || ctx.inputs.isEmpty()) {
+        return;
+      }
+      final long start = System.nanoTime();
+      RoutingIndex index = new RoutingIndex(ctx.filters, ctx.outputs);
+      final int filterCount = (ctx.filters == null) ? 0 : ctx.filters.size();
+      ArrayList<ProcessorRewrite.Source> sources = ProcessorRewrite.sources(ctx);
+      BitSet reachedAny = new BitSet(index.targets.size());
+      ArrayList<String> matrix = new ArrayList<String>();
+      ArrayList<String> warnings = new ArrayList<String>();
+      for (ProcessorRewrite.Source source : sources) {
+        final BitSet reached = index.route(source.tag);
+        reachedAny.or(reached);
+        StringBuilder filters = new StringBuilder();
+        StringBuilder outputs = new StringBuilder();
+        for (int target = reached.nextSetBit(0); target >= 0; target = reached.nextSetBit(target + 1)) {
+          StringBuilder into = (target < filterCount) ? filters : outputs;
+          into.append((into.length() == 0) ? "" : ", ").append(index.describe(target, source.tag));
+        }
+        matrix.add(source.label);
+        if ((source.input != null) && !source.input.processors.isEmpty()) {
+          StringBuilder processors = new StringBuilder();
+          for (Plugin processor : source.input.processors) {
+            processors.append((processors.length() == 0) ? "" : ", ").append(processor.name).append(" (line ")
+                .append(processor.lineNo).append(")");
+          }
+          matrix.add("  processors: " + processors);
+        }
+        matrix.add("  filters: " + ((filters.length() == 0) ? "none" : filters));
+        matrix.add("  outputs: " + ((outputs.length() == 0) ? "none" : outputs));
+        if (outputs.length() == 0) {
+          warnings.add("Warning: " + source.label + " reaches no output");
+        }
+      }
+      for (int target = 0; target < index.targets.size(); target++) {
+        if (!reachedAny.get(target)) {
+          final Plugin plugin = index.targets.get(target);
+          final String match = index.matches.get(target);
+          warnings.add("Warning: " + ((target < filterCount) ? "filter " : "output ") + plugin.name + " (line "
+              + plugin.lineNo + ") " + ((match == null) ? "has no Match" : "isn't reached by any input, its Match is "
+                  + match));
+        }
+      }
+      info("Routing matrix:" + NL + String.join(NL, matrix));
+      for (String warning : warnings) {
+        info(warning);
+      }
+      final long elapsed = System.nanoTime() - start;
+      info("Routed " + sources.size() + " inputs to " + index.targets.size() + " filters and outputs in "
+          + (elapsed / 1000000) + "ms");
+    }
+
+    /**
+     * @param target the filter or output
+     * @param tag    the tag routed to it
+     * @return the plugin, noting if only some of the tag's records reach it
+     */
+    private String describe(int target, String tag) {
+      final Plugin plugin = targets.get(target);
+      String partial = "";
+      if (tag.indexOf(WILDCARD) >= 0) {
+        final String match = matches.get(target);
+        final boolean regex = plugin.attributes.find(ProcessorRewrite.MATCH_ATTRS[1]) >= 0;
+        if (regex || !TagPattern.covers(match, tag)) {
+          partial = ", some records";
+        }
+      }
+      return plugin.name + " (line " + plugin.lineNo + partial + ")";
+    }
+  }
+
+  /**
+   * Looks over the service, inputs and outputs for the settings that most often
+   * hold back throughput once a configuration is under load, which otherwise
+   * get tuned by hand after each conversion:
+   * <ul>
+   * <li>a flush interval under a second, so chunks are flushed to the outputs
+   * more often than they fill</li>
+   * <li>network outputs without workers, so each flush waits on the round trip
+   * of the one before</li>
+   * <li>inputs that can take in data faster than it is sent on, with neither a
+   * Mem_Buf_Limit nor filesystem storage, so memory grows without limit under
+   * backpressure - and filesystem storage without a storage.path in the
+   * service, where Fluent Bit falls back to memory</li>
+   * <li>Buffer_Size values so large that every connection or file can hold
+   * that much memory</li>
+   * </ul>
+   * Each finding is logged with the classic line of the setting, or of the
+   * plugin when the setting is missing. When fixing, the setting is changed or
+   * added in the converted YAML.
+   */
+  static final class TuningAdvisor {
+    private static final String FLUSH_ATTR = "flush";
+    private static final String WORKERS_ATTR = "workers";
+    private static final String MEM_BUF_LIMIT_ATTR = "mem_buf_limit";
+    private static final String STORAGE_TYPE_ATTR = "storage.type";
+    private static final String STORAGE_PATH_ATTR = "storage.path";
+    private static final String BUFFER_SIZE_ATTR = "buffer_size";
+    private static final String FILESYSTEM = "filesystem";
+
+    private static final double MIN_FLUSH = 1;
+    private static final String FIXED_FLUSH = "1";
+    private static final String FIXED_WORKERS = "2";
+    private static final String FIXED_MEM_BUF_LIMIT = "50MB";
+    private static final long MAX_BUFFER_SIZE = 8L * 1024 * 1024;
+    private static final String FIXED_BUFFER_SIZE = "8MB";
+
+    /** outputs that send each flush over the network */
+    private static final HashSet<String> NETWORK_OUTPUTS = new HashSet<String>(Arrays.asList("azure", "azure_blob", "azure_kusto",
+        "azure_logs_ingestion", "bigquery", "chronicle", "cloudwatch_logs", "datadog", "es", "forward", "gelf",
+        "http", "influxdb", "kafka", "kafka-rest", "kinesis_firehose", "kinesis_streams", "logdna", "loki",
+        "nats", "new_relic", "opensearch", "opentelemetry", "oracle_log_analytics", "prometheus_remote_write",
+        "s3", "skywalking", "splunk", "stackdriver", "syslog", "tcp", "websocket"));
+
+    /** inputs that take in data as fast as it arrives, rather than sampling */
+    private static final HashSet<String> HIGH_VOLUME_INPUTS = new HashSet<String>(Arrays.asList("elasticsearch", "forward", "http", "kafka",
+        "mqtt", "opentelemetry", "splunk", "syslog", "systemd", "tail", "tcp", "udp"));
+
+    private static final Pattern SIZE = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*([kmg]?)b?",
+        Pattern.CASE_INSENSITIVE);
+
+    private TuningAdvisor() {
+    }
+
+    /**
+     * Logs the settings of the conversion that are likely to limit throughput,
+     * changing them when asked to
+     * 
+     * @param ctx the conversion holding the prepared pipeline
+     * @param fix true if the settings are changed in the converted YAML
+     */
+    static void advise(ConversionContext ctx, boolean fix) {
+      int findings = 0;
+      int fixed = 0;
+      boolean hasStoragePath = false;
+      if (ctx.service != null) {
+        final AttributeStore service = ctx.service.attributes;
+        hasStoragePath = service.find(STORAGE_PATH_ATTR) >= 0;
+        final int flushIdx = service.find(FLUSH_ATTR);
+        if (flushIdx >= 0) {
+          final String flush = service.value(flushIdx, 0);
+          final double interval = parseNumber(flush);
+          if (interval < MIN_FLUSH) {
+            findings++;
+            String message = "flush " + flush + " in the service flushes chunks more often than they fill, "
+                + "each flush costing a round trip to every output";
+            if (fix) {
+              service.set(flushIdx, FIXED_FLUSH);
+              message += ", fixed to " + FIXED_FLUSH;
+              fixed++;
+            }
+            finding(service.line(flushIdx), message);
+          }
+        }
+      }
+
+      for (Plugin input : (ctx.inputs == null) ? Collections.<Plugin>emptyList() : ctx.inputs) {
+        final String name = String.valueOf(input.name).toLowerCase();
+        final AttributeStore attributes = input.attributes;
+        final int storageIdx = attributes.find(STORAGE_TYPE_ATTR);
+        final boolean filesystem = (storageIdx >= 0)
+            && attributes.value(storageIdx, 0).equalsIgnoreCase(FILESYSTEM);
+        if (filesystem && !hasStoragePath) {
+          findings++;
+          finding(attributes.line(storageIdx), "input " + input.name + " uses filesystem storage, but the "
+              + "service has no storage.path so its chunks are only held in memory");
+        }
+        if (HIGH_VOLUME_INPUTS.contains(name) && !filesystem && (attributes.find(MEM_BUF_LIMIT_ATTR) < 0)) {
+          findings++;
+          String message = "input " + input.name + " has neither a Mem_Buf_Limit nor storage.type "
+              + FILESYSTEM + ", so its memory grows without limit when the outputs fall behind";
+          if (fix) {
+            input.addAttribute(keyLike(input, MEM_BUF_LIMIT_ATTR), FIXED_MEM_BUF_LIMIT, false, input.lineNo);
+            message += ", fixed with a Mem_Buf_Limit of " + FIXED_MEM_BUF_LIMIT;
+            fixed++;
+          }
+          finding(input.lineNo, message);
+        }
+        if (checkBufferSize(input, fix)) {
+          findings++;
+          fixed += fix ? 1 : 0;
+        }
+      }
+
+      for (Plugin output : (ctx.outputs == null) ? Collections.<Plugin>emptyList() : ctx.outputs) {
+        final String name = String.valueOf(output.name).toLowerCase();
+        if (NETWORK_OUTPUTS.contains(name) && (output.attributes.find(WORKERS_ATTR) < 0)) {
+          findings++;
+          String message = "output " + output.name + " sends over the network without setting workers, "
+              + "so its throughput depends on the version's default";
+          if (fix) {
+            output.addAttribute(keyLike(output, WORKERS_ATTR), FIXED_WORKERS, false, output.lineNo);
+            message += ", fixed with " + FIXED_WORKERS + " workers";
+            fixed++;
+          }
+          finding(output.lineNo, message);
+        }
+        if (checkBufferSize(output, fix)) {
+          findings++;
+          fixed += fix ? 1 : 0;
+        }
+      }
+      info("Tuning found " + findings + " settings to review" + (fix ? ", " + fixed + " fixed" : ""));
+    }
+
+    /**
+     * Checks the plugin's Buffer_Size isn't so large that each connection or
+     * file can hold that much memory
+     * 
+     * @param plugin the input or output
+     * @param fix    true if the size is changed in the converted YAML
+     * @return true if the size was too large
+     */
+    private static boolean checkBufferSize(Plugin plugin, boolean fix) {
+      final int bufferIdx = plugin.attributes.find(BUFFER_SIZE_ATTR);
+      if (bufferIdx < 0) {
+        return false;
+      }
+      final String size = plugin.attributes.value(bufferIdx, 0);
+      if (parseSize(size) <= MAX_BUFFER_SIZE) {
+        return false;
+      }
+      String message = plugin.pluginType.name().toLowerCase() + " " + plugin.name + " has a Buffer_Size of "
+          + size + ", which can be allocated for each connection or file";
+      if (fix) {
+        plugin.attributes.set(bufferIdx, FIXED_BUFFER_SIZE);
+        message += ", fixed to " + FIXED_BUFFER_SIZE;
+      }
+      finding(plugin.attributes.line(bufferIdx), message);
+      return true;
+    }
+
+    /**
+     * Works out how to write an added attribute's name, following the case of
+     * the plugin's other attributes - mem_buf_limit, Mem_Buf_Limit or
+     * MEM_BUF_LIMIT. In the idiomatic form the name is converted as it's added
+     * 
+     * @param plugin the plugin the attribute is added to
+     * @param name   the attribute name in lower case with underscores
+     * @return the name to add
+     */
+    private static String keyLike(Plugin plugin, String name) {
+      if (useIdiomaticForm) {
+        return name;
+      }
+      for (int idx = 0; idx < plugin.attributes.size(); idx++) {
+        final String key = plugin.attributes.key(idx);
+        if (key.isEmpty() || !Character.isLetter(key.charAt(0))) {
+          continue;
+        }
+        if (Character.isLowerCase(key.charAt(0))) {
+          return name;
+        }
+        if ((key.length() > 1) && key.equals(key.toUpperCase())) {
+          return name.toUpperCase();
+        }
+        StringBuilder capitalized = new StringBuilder(name);
+        for (int chrIdx = 0; chrIdx < capitalized.length(); chrIdx++) {
+          if ((chrIdx == 0) || (capitalized.charAt(chrIdx - 1) == '_')) {
+            capitalized.setCharAt(chrIdx, Character.toUpperCase(capitalized.charAt(chrIdx)));
+          }
+        }
+        return capitalized.toString();
+      }
+      return name;
+    }
+
+    private static void finding(int lineNo, String message) {
+      info("Tuning (line " + lineNo + "): " + message);
+    }
+
+    /**
+     * @param value the setting, which may be quoted
+     * @return the number, or infinity if it isn't a number, so it isn't flagged
+     */
+    private static double parseNumber(String value) {
+      try {
+        return Double.parseDouble(YamlVerifier.unquote(value).trim());
+      } catch (NumberFormatException numErr) {
+        return Double.POSITIVE_INFINITY;
+      }
+    }
+
+    /**
+     * @param value a size such as 32k, 5MB or 100mb
+     * @return the size in bytes, or 0 if it can't be read, so it isn't flagged
+     */
+    static long parseSize(String value) {
+      Matcher matcher = SIZE.matcher(YamlVerifier.unquote(value).trim());
+      if (!matcher.matches()) {
+        return 0;
+      }
+      final double number = Double.parseDouble(matcher.group(1));
+      final String unit = matcher.group(2).toLowerCase();
+      final int shift = unit.isEmpty() ? 0 : 10 * ("kmg".indexOf(unit.charAt(0)) + 1);
+      return (long) (number * (1L << shift));
+    }
+  }
+
+  /**
+   * Splits the pipeline into parts that can be run by separate Fluent Bit
+   * instances. The routing of the tags links each input to the filters and
+   * outputs its records reach (and a rewrite_tag filter to where its re-emitted
+   * records go), and the connected groups of plugins are the pipeline's
+   * independent components - no record ever passes from one to another. The
+   * components are spread across the shards largest first, each going to the
+   * shard with the least load so far, where the load is estimated as the
+   * number of plugins (counting an input's processors). Each shard is written
+   * as its own YAML file with a copy of the service, the includes and the
+   * top level sections such as parsers, and keeps the plugins in their
+   * original order so the filter chain runs as before. Filters and outputs
+   * that no input reaches never receive a record, so they are put in the
+   * least loaded shard once the components have been shared out, keeping the
+   * whole configuration across the shards.
+   */
+  static final class PipelineSharder {
+    private static final String SHARD_SUFFIX = "-shard";
+    private static final String YAML_EXTN = ".yaml";
+
+    private PipelineSharder() {
+    }
+
+    /**
+     * Finds the root of the plugin's component, flattening the path as it goes
+     */
+    private static int root(int[] parents, int node) {
+      while (parents[node] != node) {
+        parents[node] = parents[parents[node]];
+        node = parents[node];
+      }
+      return node;
+    }
+
+    private static void join(int[] parents, int first, int second) {
+      parents[root(parents, first)] = root(parents, second);
+    }
+
+    /**
+     * @param plugin the input, filter or output
+     * @return the plugin's estimated load
+     */
+    private static int load(Plugin plugin) {
+      return 1 + ((plugin instanceof InputPlugin input) ? input.processors.size() : 0);
+    }
+
+    /**
+     * @param outFileName the YAML file of the whole conversion
+     * @param shard       the shard's number, from 1
+     * @return the YAML file for the shard
+     */
+    static String shardFileName(String outFileName, int shard) {
+      final String base = outFileName.endsWith(YAML_EXTN)
+          ? outFileName.substring(0, outFileName.length() - YAML_EXTN.length())
+          : outFileName;
+      return base + SHARD_SUFFIX + shard + YAML_EXTN;
+    }
+
+    /**
+     * Splits the conversion's pipeline across the shards, writing a YAML file
+     * for each and logging the load of each
+     * 
+     * @param ctx        the conversion holding the prepared pipeline
+     * @param maxShards  the most shards to write, there are fewer when the
+     *                   pipeline has fewer components
+     * @throws IOException if a shard can't be written
+     */
+    static void writeShards(ConversionContext ctx, int maxShards) throws IOException {
+      if ((ctx.inputs == null) || ctx.inputs.isEmpty()) {
+        info("No inputs to split across shards");
+        removeStaleShards(ctx.outFileName, 1);
+        return;
+      }
+      final ArrayList<Plugin> filters = (ctx.filters == null) ? new ArrayList<Plugin>() : ctx.filters;
+      final ArrayList<Plugin> outputs = (ctx.outputs == null) ? new ArrayList<Plugin>() : ctx.outputs;
+      final int inputCount = ctx.inputs.size();
+      final int filterCount = filters.size();
+
+      // the plugins are numbered inputs, then filters, then outputs - the
+      // routing numbers the filters and outputs in the same order
+      final int pluginCount = inputCount + filterCount + outputs.size();
+      final int[] parents = new int[pluginCount];
+      for (int node = 0; node < pluginCount; node++) {
+        parents[node] = node;
+      }
+      final IdentityHashMap<Plugin, Integer> nodes = new IdentityHashMap<Plugin, Integer>();
+      for (int idx = 0; idx < inputCount; idx++) {
+        nodes.put(ctx.inputs.get(idx), idx);
+      }
+      for (int idx = 0; idx < filterCount; idx++) {
+        nodes.put(filters.get(idx), inputCount + idx);
+      }
+
+      // a rewrite_tag filter's records only flow once an input reaches the
+      // filter, which may be through another rewrite_tag filter
+      RoutingIndex index = new RoutingIndex(filters, outputs);
+      final boolean[] reached = new boolean[pluginCount];
+      ArrayList<ProcessorRewrite.Source> pending = ProcessorRewrite.sources(ctx);
+      boolean routed = true;
+      while (routed) {
+        routed = false;
+        for (Iterator<ProcessorRewrite.Source> sources = pending.iterator(); sources.hasNext();) {
+          final ProcessorRewrite.Source source = sources.next();
+          final int from = nodes.get((source.input != null) ? source.input : source.emitter);
+          if (source.input != null) {
+            reached[from] = true;
+          } else if (!reached[from]) {
+            continue;
+          }
+          final BitSet targets = index.route(source.tag);
+          for (int target = targets.nextSetBit(0); target >= 0; target = targets.nextSetBit(target + 1)) {
+            reached[inputCount + target] = true;
+            join(parents, from, inputCount + target);
+          }
+          sources.remove();
+          routed = true;
+        }
+      }
+
+      // gather the components, keeping them in the order of their first plugin
+      LinkedHashMap<Integer, int[]> components = new LinkedHashMap<Integer, int[]>();
+      int totalLoad = 0;
+      int unreached = 0;
+      int unreachedLoad = 0;
+      for (int node = 0; node < pluginCount; node++) {
+        final int pluginLoad = load(plugin(ctx, filters, outputs, node));
+        totalLoad += pluginLoad;
+        if (!reached[node]) {
+          unreached++;
+          unreachedLoad += pluginLoad;
+          continue;
+        }
+        components.computeIfAbsent(root(parents, node), key -> new int[1])[0] += pluginLoad;
+      }
+
+      // largest component first, onto the least loaded shard
+      final int shards = Math.min(maxShards, components.size());
+      final int[] shardLoads = new int[shards];
+      final HashMap<Integer, Integer> shardOf = new HashMap<Integer, Integer>();
+      ArrayList<Map.Entry<Integer, int[]>> bySize = new ArrayList<Map.Entry<Integer, int[]>>(components.entrySet());
+      bySize.sort((first, second) -> Integer.compare(second.getValue()[0], first.getValue()[0]));
+      for (Map.Entry<Integer, int[]> component : bySize) {
+        int lightest = 0;
+        for (int shard = 1; shard < shards; shard++) {
+          if (shardLoads[shard] < shardLoads[lightest]) {
+            lightest = shard;
+          }
+        }
+        shardLoads[lightest] += component.getValue()[0];
+        shardOf.put(component.getKey(), lightest);
+      }
+
+      int unreachedShard = 0;
+      for (int shard = 1; shard < shards; shard++) {
+        if (shardLoads[shard] < shardLoads[unreachedShard]) {
+          unreachedShard = shard;
+        }
+      }
+      shardLoads[unreachedShard] += unreachedLoad;
+
+      info("Split the pipeline's " + components.size() + " independent components across " + shards + " shards");
+      if (unreached > 0) {
+        info("Warning: " + unreached + " filters and outputs that no input reaches were put in shard "
+            + (unreachedShard + 1));
+      }
+      for (int shard = 0; shard < shards; shard++) {
+        ConversionContext shardCtx = new ConversionContext(ctx.inFileName, shardFileName(ctx.outFileName, shard + 1));
+        shardCtx.service = ctx.service;
+        shardCtx.includes = ctx.includes;
+        shardCtx.sections = ctx.sections;
+        shardCtx.inputs = new ArrayList<Plugin>();
+        shardCtx.filters = new ArrayList<Plugin>();
+        shardCtx.outputs = new ArrayList<Plugin>();
+        for (int node = 0; node < pluginCount; node++) {
+          if (reached[node] ? (shardOf.get(root(parents, node)) == shard) : (shard == unreachedShard)) {
+            final ArrayList<Plugin> into = (node < inputCount) ? shardCtx.inputs
+                : (node < inputCount + filterCount) ? shardCtx.filters : shardCtx.outputs;
+            into.add(plugin(ctx, filters, outputs, node));
+          }
+        }
+        try (BufferedWriter outFile = new BufferedWriter(new FileWriter(shardCtx.outFileName))) {
+          writePipelineOutput(shardCtx, outFile);
+        }
+        ctx.shardFiles.add(shardCtx.outFileName);
+        info("Shard " + (shard + 1) + " " + shardCtx.outFileName + ": " + shardCtx.inputs.size() + " inputs, "
+            + shardCtx.filters.size() + " filters, " + shardCtx.outputs.size() + " outputs - estimated load "
+            + shardLoads[shard] + " plugins (" + (100 * shardLoads[shard] / Math.max(1, totalLoad)) + "%)");
+        if (verifyOutput) {
+          try (BufferedReader yaml = new BufferedReader(new FileReader(shardCtx.outFileName))) {
+            YamlVerifier.verify(shardCtx, yaml);
+          }
+        }
+      }
+      removeStaleShards(ctx.outFileName, shards + 1);
+    }
+
+    /**
+     * Deletes the shard files left by an earlier conversion that wrote more
+     * shards, so they can't be mistaken for part of this conversion
+     * 
+     * @param outFileName the YAML file of the whole conversion
+     * @param firstStale  the number of the first shard not written this time
+     */
+    private static void removeStaleShards(String outFileName, int firstStale) {
+      for (int shard = firstStale;; shard++) {
+        final File stale = new File(shardFileName(outFileName, shard));
+        if (!stale.exists()) {
+          return;
+        }
+        if (stale.delete()) {
+          info("Removed " + stale.getPath() + " left by an earlier conversion with more shards");
+        } else {
+          err("Unable to remove " + stale.getPath() + " left by an earlier conversion with more shards");
+          return;
+        }
+      }
+    }
+
+    private static Plugin plugin(ConversionContext ctx, ArrayList<Plugin> filters, ArrayList<Plugin> outputs,
+        int node) {
+      final int inputCount = ctx.inputs.size();
+      if (node < inputCount) {
+        return ctx.inputs.get(node);
+      }
+      return (node < inputCount + filters.size()) ? filters.get(node - inputCount)
+          : outputs.get(node - inputCount - filters.size());
+    }
+  }
+
+  /**
+   * An included classic file that has been parsed. The plugins are held in the
+   * order they're declared, along with any @include directives the fragment
+   * has (as IncludesPlugin entries) which are resolved each time the fragment is
+   * used, so cycles are detected against the including chain. Fragments are
+   * cached, so a fragment shared by many files is only read and parsed once.
+   * Each cached fragment records the modification time and size of the file it
+   * was read from, and is read again if either has changed, so watch mode and
+   * the conversion server never use an old parse of an edited fragment. The
+   * cached plugins are never handed out directly, each use gets copies.
+   */
+  static class IncludeFragment {
+    private static final ConcurrentHashMap<String, IncludeFragment> cache = new ConcurrentHashMap<String, IncludeFragment>();
+
+    final File source;
+    final ArrayList<Plugin> plugins = new ArrayList<Plugin>();
+
+    /** the modification time of the file when it was read, null if not known */
+    private FileTime modified = null;
+
+    /** the size of the file when it was read */
+    private long size = -1;
+
+    /**
+     * @param source the file the fragment is read from
+     */
+    IncludeFragment(File source) {
+      this.source = source;
+    }
+
+    /**
+     * @param attributes the file's current attributes, null if they can't be
+     *                   read
+     * @return true if the fragment was read from the file as it is now
+     */
+    private boolean isCurrent(BasicFileAttributes attributes) {
+      return (attributes != null) && (modified != null) && modified.equals(attributes.lastModifiedTime())
+          && (size == attributes.size());
+    }
+
+    private static BasicFileAttributes attributes(File file) {
+      try {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      } catch (IOException ioErr) {
+        return null;
+      }
+    }
+
+    /**
+     * Retrieves the parsed fragment, reading it if this is the first time it has
+     * been used or the file has changed since it was read
+     * 
+     * @param canonicalPath the canonical path of the included file
+     * @return the parsed fragment
+     * @throws IOException if the fragment can't be read
+     */
+    static IncludeFragment load(String canonicalPath) throws IOException {
+      final File file = new File(canonicalPath);
+      final BasicFileAttributes attributes = attributes(file);
+      IncludeFragment cached = cache.get(canonicalPath);
+      if ((cached != null) && cached.isCurrent(attributes)) {
+        return cached;
+      }
+      try {
+        return cache.compute(canonicalPath,
+            (key, held) -> ((held != null) && held.isCurrent(attributes)) ? held : parse(file, attributes));
+      } catch (UncheckedIOException ioErr) {
+        throw ioErr.getCause();
+      }
+    }
+
+    /**
+     * Removes a fragment from the cache, so it is read again the next time it is
+     * used. Needed when the file has changed
+     * 
+     * @param canonicalPath the canonical path of the included file
+     * @return true if the fragment had been cached
+     */
+    static boolean invalidate(String canonicalPath) {
+      return cache.remove(canonicalPath) != null;
+    }
+
+    /**
+     * Empties the cache, so every fragment is read again. Used when measuring
+     * conversions that include files
+     */
+    static void invalidateAll() {
+      cache.clear();
+    }
+
+    /**
+     * Parses the fragment using a context that collects the plugins in order
+     * 
+     * @param source     the included file
+     * @param attributes the file's attributes before it is read, so a change
+     *                   made while it is being read is picked up next time
+     * @return the parsed fragment
+     */
+    private static IncludeFragment parse(File source, BasicFileAttributes attributes) {
+      info("Reading include fragment " + source.getPath());
+      ConversionContext fragmentCtx = new ConversionContext(source.getPath());
+      fragmentCtx.fragment = new IncludeFragment(source);
+      if (attributes != null) {
+        fragmentCtx.fragment.modified = attributes.lastModifiedTime();
+        fragmentCtx.fragment.size = attributes.size();
+      }
+      try {
+        readClassicFile(fragmentCtx, source);
+      } catch (IOException ioErr) {
+        throw new UncheckedIOException(ioErr);
+      }
+      return fragmentCtx.fragment;
+    }
+  }
+
+  /**
+   * A manifest, persisted between runs, that lets us skip files that haven't
+   * changed since they were last converted. Each entry is keyed by the classic
+   * file's path, and records a hash of its content combined with the options
+   * that affect the output, the size of the YAML produced and a hash of each
+   * file it included. A file is only skipped if all of these still match and
+   * the YAML is still in place. Rather than parsing a file to find its includes
+   * we check the includes recorded by the last conversion - if the file's
+   * content is the same its includes are too. Includes that couldn't be
+   * resolved, or that use a wildcard, are looked up again so a fragment created
+   * since the last conversion is picked up.
+   */
+  static class ConversionCache {
+    /**
+     * Included in the hash, so needs changing whenever the conversion logic
+     * changes the YAML produced
+     */
+    private static final String CACHE_VERSION = "3";
+    private static final String FIELD_SEPARATOR = "\t";
+    private static final String INCLUDE_SEPARATOR = "=";
+    private static final String LOOKUP_PREFIX = "@";
+    private static final String LOOKUP_SEPARATOR = "|";
+    private static final String SHARD_PREFIX = ">";
+    private static final String NO_MATCHES = "none";
+    private static final String BATCH_REPORT = "flb-converter-batch" + REPORT_EXTN;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Details recorded for each conversion
+     */
+    static class CacheEntry {
+      final String contentHash;
+      final long outLength;
+      final LinkedHashMap<String, String> includeHashes = new LinkedHashMap<String, String>();
+      final LinkedHashMap<String, String> includeLookups = new LinkedHashMap<String, String>();
+
+      /** the length of each shard's YAML file, when the pipeline was split */
+      final LinkedHashMap<String, Long> shardLengths = new LinkedHashMap<String, Long>();
+
+      CacheEntry(String contentHash, long outLength) {
+        this.contentHash = contentHash;
+        this.outLength = outLength;
+      }
+    }
+
+    private final File manifest;
+    private final ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param manifest the file the cache is persisted to
+     */
+    ConversionCache(File manifest) {
+      this.manifest = manifest;
+    }
+
+    /**
+     * The options that change the YAML generated, so a change in options means
+     * the files need converting again
+     * 
+     * @return description of the options in effect
+     */
+    static String optionsKey() {
+      return "version=" + CACHE_VERSION + ";idiomatic=" + useIdiomaticForm + ";resolveIncludes=" + resolveIncludes
+          + ";pathPrefix=" + getPathPrefix() + ";scalarStyle=" + scalarStyle
+          + ";processors=" + useProcessors + ";fuseFilters=" + fuseFilters + ";tuningFixes="
+          + (tuningMode == TuningMode.FIX) + ";shards=" + shardCount;
+    }
+
+    /**
+     * Creates a SHA-256 digest, which every JVM is required to provide
+     * 
+     * @return the digest
+     */
+    private static MessageDigest newDigest() {
+      try {
+        return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException algErr) {
+        throw new IllegalStateException(algErr);
+      }
+    }
+
+    /**
+     * Adds the content of the file to the digest, reading it in blocks so large
+     * files aren't held in memory
+     * 
+     * @param digest the digest to update
+     * @param file   the file to read
+     * @throws IOException if the file can't be read
+     */
+    private static void digestFile(MessageDigest digest, File file) throws IOException {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        while (channel.read(buffer) >= 0) {
+          buffer.flip();
+          digest.update(buffer);
+          buffer.clear();
+        }
+      } finally {
+        channel.close();
+      }
+    }
+
+    /**
+     * @param file the file to hash
+     * @return hex string of the hash of the file's content
+     * @throws IOException if the file can't be read
+     */
+    static String hashFile(File file) throws IOException {
+      MessageDigest digest = newDigest();
+      digestFile(digest, file);
+      return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param includingFile the canonical path of the file holding the include
+     * @param target        the file named by the include
+     * @return the key the include's matches are recorded under
+     */
+    static String lookupKey(String includingFile, String target) {
+      return includingFile + LOOKUP_SEPARATOR + target;
+    }
+
+    /**
+     * @param matches the files an include matched
+     * @return hex string of the hash of the files' paths, or none if there
+     *         weren't any
+     */
+    static String matchesHash(ArrayList<File> matches) {
+      if (matches.isEmpty()) {
+        return NO_MATCHES;
+      }
+      MessageDigest digest = newDigest();
+      for (File match : matches) {
+        digest.update(canonicalPath(match).getBytes(StandardCharsets.UTF_8));
+        digest.update(NL.getBytes(StandardCharsets.UTF_8));
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * @param file the classic file to hash
+     * @return hex string of the hash of the options and the file's content
+     * @throws IOException if the file can't be read
+     */
+    static String hashClassicFile(File file) throws IOException {
+      MessageDigest digest = newDigest();
+      digest.update(optionsKey().getBytes(StandardCharsets.UTF_8));
+      digestFile(digest, file);
+      return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Loads the manifest if it exists. A manifest that can't be read just means
+     * everything gets converted
+     * 
+     * @param manifest the manifest file
+     * @return the cache
+     */
+    static ConversionCache load(File manifest) {
+      ConversionCache cache = new ConversionCache(manifest);
+      if (!manifest.exists()) {
+        if (debug) {
+          debug("No conversion cache manifest at " + manifest.getPath());
+        }
+        return cache;
+      }
+      try {
+        BufferedReader br = new BufferedReader(new FileReader(manifest, StandardCharsets.UTF_8));
+        try {
+          String line = null;
+          while ((line = br.readLine()) != null) {
+            String[] fields = line.split(FIELD_SEPARATOR);
+            if (fields.length < 3) {
+              continue;
+            }
+            CacheEntry entry = new CacheEntry(fields[1], Long.parseLong(fields[2]));
+            for (int idx = 3; idx < fields.length; idx++) {
+              int sepPos = fields[idx].lastIndexOf(INCLUDE_SEPARATOR);
+              if (fields[idx].startsWith(LOOKUP_PREFIX) && (sepPos > LOOKUP_PREFIX.length())) {
+                entry.includeLookups.put(fields[idx].substring(LOOKUP_PREFIX.length(), sepPos),
+                    fields[idx].substring(sepPos + 1));
+              } else if (fields[idx].startsWith(SHARD_PREFIX) && (sepPos > SHARD_PREFIX.length())) {
+                entry.shardLengths.put(fields[idx].substring(SHARD_PREFIX.length(), sepPos),
+                    Long.parseLong(fields[idx].substring(sepPos + 1)));
+              } else if (sepPos > 0) {
+                entry.includeHashes.put(fields[idx].substring(0, sepPos), fields[idx].substring(sepPos + 1));
+              }
+            }
+            cache.entries.put(fields[0], entry);
+          }
+        } finally {
+          br.close();
+        }
+        info("Loaded " + cache.entries.size() + " entries from conversion cache " + manifest.getPath());
+      } catch (IOException | NumberFormatException loadErr) {
+        err("Unable to load conversion cache " + manifest.getPath() + " : " + loadErr.toString());
+        cache.entries.clear();
+      }
+      return cache;
+    }
+
+    /**
+     * Checks whether the file needs converting. The content hash is kept in the
+     * context so it can be recorded after the conversion - using the hash from
+     * before the conversion means a file changed during the conversion will be
+     * converted again next time.
+     * 
+     * @param ctx the conversion about to be run
+     * @return true if the existing YAML is still valid
+     */
+    boolean isUnchanged(ConversionContext ctx) {
+      final String sourcePath = canonicalPath(new File(ctx.inFileName));
+      String reason = null;
+      try {
+        ctx.contentHash = hashClassicFile(new File(ctx.inFileName));
+        CacheEntry entry = entries.get(sourcePath);
+        File outFile = new File(ctx.outFileName);
+        if (entry == null) {
+          reason = "not previously converted";
+        } else if (!entry.contentHash.equals(ctx.contentHash)) {
+          reason = "file or options changed";
+        } else if ((!outFile.exists()) || (outFile.length() != entry.outLength)) {
+          reason = "YAML file missing or changed";
+        } else {
+          for (Map.Entry<String, Long> shard : entry.shardLengths.entrySet()) {
+            final File shardFile = new File(shard.getKey());
+            if ((!shardFile.exists()) || (shardFile.length() != shard.getValue())) {
+              reason = "shard YAML file " + shard.getKey() + " missing or changed";
+              break;
+            }
+          }
+          Iterator<Map.Entry<String, String>> iter = entry.includeHashes.entrySet().iterator();
+          while ((reason == null) && iter.hasNext()) {
+            Map.Entry<String, String> include = iter.next();
+            File includeFile = new File(include.getKey());
+            if ((!includeFile.exists()) || (!hashFile(includeFile).equals(include.getValue()))) {
+              reason = "included file " + include.getKey() + " changed";
+            }
+          }
+          Iterator<Map.Entry<String, String>> lookupIter = entry.includeLookups.entrySet().iterator();
+          while ((reason == null) && lookupIter.hasNext()) {
+            Map.Entry<String, String> lookup = lookupIter.next();
+            final int sepPos = lookup.getKey().lastIndexOf(LOOKUP_SEPARATOR);
+            final String target = lookup.getKey().substring(sepPos + 1);
+            final File includingFile = new File(lookup.getKey().substring(0, sepPos));
+            if (!matchesHash(includeTargets(target, includingFile)).equals(lookup.getValue())) {
+              reason = "@include " + target + " in " + includingFile.getPath() + " now matches different files";
+            }
+          }
+        }
+      } catch (IOException ioErr) {
+        reason = "unable to check - " + ioErr.getMessage();
+      }
+
+      if (ctx.metrics != null) {
+        ctx.metrics.cacheHits = (reason == null) ? 1 : 0;
+        ctx.metrics.cacheMisses = (reason == null) ? 0 : 1;
+      }
+      if (reason == null) {
+        hits.incrementAndGet();
+        report("Conversion cache hit - " + ctx.inFileName + " is unchanged, leaving " + ctx.outFileName + " in place");
+        return true;
+      }
+      misses.incrementAndGet();
+      report("Conversion cache miss - " + reason);
+      return false;
+    }
+
+    /**
+     * Records a successful conversion
+     * 
+     * @param ctx the completed conversion
+     */
+    void record(ConversionContext ctx) {
+      final String sourcePath = canonicalPath(new File(ctx.inFileName));
+      if ((!ctx.converted) || (ctx.contentHash == null)) {
+        entries.remove(sourcePath);
+        return;
+      }
+      try {
+        CacheEntry entry = new CacheEntry(ctx.contentHash, new File(ctx.outFileName).length());
+        Iterator<String> iter = ctx.includedFiles.iterator();
+        while (iter.hasNext()) {
+          String includePath = iter.next();
+          entry.includeHashes.put(includePath, hashFile(new File(includePath)));
+        }
+        entry.includeLookups.putAll(ctx.includeLookups);
+        for (String shardFile : ctx.shardFiles) {
+          entry.shardLengths.put(canonicalPath(new File(shardFile)), new File(shardFile).length());
+        }
+        entries.put(sourcePath, entry);
+      } catch (IOException ioErr) {
+        err("Unable to record " + ctx.inFileName + " in the conversion cache : " + ioErr.getMessage());
+        entries.remove(sourcePath);
+      }
+    }
+
+    /**
+     * Writes the manifest. We write to a temporary file and move it into place
+     * so an interrupted run doesn't leave a damaged manifest
+     */
+    void save() {
+      File tempFile = new File(manifest.getPath() + ".tmp");
+      try {
+        BufferedWriter out = new BufferedWriter(new FileWriter(tempFile, StandardCharsets.UTF_8));
+        try {
+          Iterator<Map.Entry<String, CacheEntry>> iter = entries.entrySet().iterator();
+          while (iter.hasNext()) {
+            Map.Entry<String, CacheEntry> entry = iter.next();
+            out.write(entry.getKey());
+            out.write(FIELD_SEPARATOR);
+            out.write(entry.getValue().contentHash);
+            out.write(FIELD_SEPARATOR);
+            out.write(Long.toString(entry.getValue().outLength));
+            Iterator<Map.Entry<String, String>> includeIter = entry.getValue().includeHashes.entrySet().iterator();
+            while (includeIter.hasNext()) {
+              Map.Entry<String, String> include = includeIter.next();
+              out.write(FIELD_SEPARATOR);
+              out.write(include.getKey());
+              out.write(INCLUDE_SEPARATOR);
+              out.write(include.getValue());
+            }
+            for (Map.Entry<String, String> lookup : entry.getValue().includeLookups.entrySet()) {
+              out.write(FIELD_SEPARATOR);
+              out.write(LOOKUP_PREFIX);
+              out.write(lookup.getKey());
+              out.write(INCLUDE_SEPARATOR);
+              out.write(lookup.getValue());
+            }
+            for (Map.Entry<String, Long> shard : entry.getValue().shardLengths.entrySet()) {
+              out.write(FIELD_SEPARATOR);
+              out.write(SHARD_PREFIX);
+              out.write(shard.getKey());
+              out.write(INCLUDE_SEPARATOR);
+              out.write(Long.toString(shard.getValue()));
+            }
+            out.write(NL);
+          }
+        } finally {
+          out.close();
+        }
+        Files.move(tempFile.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException ioErr) {
+        err("Unable to save conversion cache " + manifest.getPath() + " : " + ioErr.getMessage());
+      }
+    }
+
+    /**
+     * @return the hit and miss counts for the run so far
+     */
+    String summary() {
+      return "Conversion cache hits:" + hits.get() + " misses:" + misses.get();
+    }
+
+    /**
+     * Logs the hit and miss counts, and when reports are written to file adds
+     * them to the batch report alongside the manifest
+     */
+    void reportSummary() {
+      final String summary = summary();
+      info(summary);
+      if (logToFile) {
+        File batchReport = new File(manifest.getAbsoluteFile().getParentFile(), BATCH_REPORT);
+        try {
+          Files.writeString(batchReport.toPath(), "Execution date:" + getDateStr() + NL + summary + NL,
+              StandardCharsets.UTF_8);
+        } catch (IOException ioErr) {
+          err("Unable to write batch report " + batchReport.getPath() + " : " + ioErr.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * The timings and counts for the conversion of a file. The time spent
+   * reading the classic file and writing the YAML is measured by metering the
+   * underlying streams, so parse and emit are the time spent in the converter's
+   * own logic. For a memory mapped file the read time only covers mapping it,
+   * as the pages are read as they're parsed. The peak heap is that of the JVM
+   * at the end of the conversion, so with parallel conversions it reflects all
+   * the files in progress. Once the batch is complete the metrics for every
+   * file, along with the batch totals, are written as JSON and in the
+   * Prometheus text format, ready for the node exporter's textfile collector.
+   */
+  static final class ConversionMetrics {
+    static final String JSON_FILE = "flb-converter-metrics.json";
+    static final String PROMETHEUS_FILE = "flb-converter.prom";
+    private static final String PROM_PREFIX = "flb_converter_";
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    final String inFileName;
+    long readNanos = 0;
+    long parseNanos = 0;
+    long emitNanos = 0;
+    long writeNanos = 0;
+    long verifyNanos = 0;
+    int mismatches = 0;
+    long lines = 0;
+    long bytesIn = 0;
+    long bytesOut = 0;
+    final EnumMap<PluginType, Integer> pluginCounts = new EnumMap<PluginType, Integer>(PluginType.class);
+    int largestValue = 0;
+    String largestValueAttribute = null;
+    long peakHeap = 0;
+    boolean converted = false;
+
+    /** 1 if the conversion cache found the file unchanged, 0 otherwise */
+    int cacheHits = 0;
+
+    /** 1 if the conversion cache found the file changed, 0 otherwise */
+    int cacheMisses = 0;
+
+    ConversionMetrics(String inFileName) {
+      this.inFileName = inFileName;
+    }
+
+    /**
+     * Wraps the input so the time spent in reads, and the bytes read, are
+     * recorded
+     * 
+     * @param in the stream to meter
+     * @return the metered stream
+     */
+    InputStream meterInput(InputStream in) {
+      return new FilterInputStream(in) {
+        @Override
+        public int read() throws IOException {
+          final long start = System.nanoTime();
+          final int chr = super.read();
+          readNanos += System.nanoTime() - start;
+          if (chr >= 0) {
+            bytesIn++;
+          }
+          return chr;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+          final long start = System.nanoTime();
+          final int count = super.read(bytes, offset, length);
+          readNanos += System.nanoTime() - start;
+          if (count > 0) {
+            bytesIn += count;
+          }
+          return count;
+        }
+      };
+    }
+
+    /**
+     * Wraps the output so the time spent in writes, and the bytes written, are
+     * recorded
+     * 
+     * @param out the stream to meter
+     * @return the metered stream
+     */
+    OutputStream meterOutput(OutputStream out) {
+      return new FilterOutputStream(out) {
+        @Override
+        public void write(int chr) throws IOException {
+          final long start = System.nanoTime();
+          out.write(chr);
+          writeNanos += System.nanoTime() - start;
+          bytesOut++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+          final long start = System.nanoTime();
+          out.write(bytes, offset, length);
+          writeNanos += System.nanoTime() - start;
+          bytesOut += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+          final long start = System.nanoTime();
+          out.flush();
+          writeNanos += System.nanoTime() - start;
+        }
+      };
+    }
+
+    /**
+     * Gathers the counts from the conversion once the YAML has been written
+     * 
+     * @param ctx the completed conversion
+     */
+    void collect(ConversionContext ctx) {
+      converted = true;
+      lines = ctx.lineCount;
+      if (ctx.service != null) {
+        count(PluginType.SERVICE, 1);
+        checkValues(ctx.service);
+      }
+      count(PluginType.INPUT, ctx.inputs);
+      count(PluginType.FILTER, ctx.filters);
+      count(PluginType.OUTPUT, ctx.outputs);
+      if (ctx.sections != null) {
+        for (Map.Entry<PluginType, ArrayList<Plugin>> section : ctx.sections.entrySet()) {
+          count(section.getKey(), section.getValue());
+          if (section.getKey() == PluginType.UPSTREAM) {
+            for (Plugin upstream : section.getValue()) {
+              count(PluginType.NODE, ((UpstreamPlugin) upstream).nodes);
+            }
+          }
+        }
+      }
+      peakHeap = peakHeap();
+    }
+
+    private void count(PluginType type, int count) {
+      pluginCounts.merge(type, count, Integer::sum);
+    }
+
+    private void count(PluginType type, ArrayList<Plugin> plugins) {
+      if ((plugins != null) && !plugins.isEmpty()) {
+        count(type, plugins.size());
+        for (Plugin plugin : plugins) {
+          checkValues(plugin);
+        }
+      }
+    }
+
+    /**
+     * Tracks the largest attribute value, and which attribute it belongs to
+     */
+    private void checkValues(Plugin plugin) {
+      final AttributeStore attributes = plugin.attributes;
+      for (int idx = 0; idx < attributes.size(); idx++) {
+        final int valueCount = attributes.valueCount(idx);
+        for (int valueIdx = 0; valueIdx < valueCount; valueIdx++) {
+          final int length = attributes.valueLength(idx, valueIdx);
+          if (length > largestValue) {
+            largestValue = length;
+            largestValueAttribute = plugin.pluginType.name().toLowerCase() + ":" + plugin.name + ":"
+                + attributes.key(idx);
+          }
+        }
+      }
+    }
+
+    /**
+     * @return the highest heap usage the JVM has seen, totalled across the heap
+     *         memory pools
+     */
+    static long peakHeap() {
+      long peak = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          peak += pool.getPeakUsage().getUsed();
+        }
+      }
+      return peak;
+    }
+
+    long totalNanos() {
+      return readNanos + parseNanos + emitNanos + writeNanos + verifyNanos;
+    }
+
+    /**
+     * @return lines per second across all the phases
+     */
+    double linesPerSecond() {
+      final long total = totalNanos();
+      return (total == 0) ? 0 : (lines * NANOS_PER_SECOND) / total;
+    }
+
+    /**
+     * @return a one line summary for the log and report
+     */
+    String summary() {
+      return String.format(
+          "Metrics: read %.3fms parse %.3fms emit %.3fms write %.3fms verify %.3fms, %d lines (%.0f lines/s), %d bytes in, %d bytes out, largest value %d (%s), peak heap %d",
+          readNanos / NANOS_PER_MILLI, parseNanos / NANOS_PER_MILLI, emitNanos / NANOS_PER_MILLI,
+          writeNanos / NANOS_PER_MILLI, verifyNanos / NANOS_PER_MILLI, lines, linesPerSecond(), bytesIn, bytesOut, largestValue,
+          largestValueAttribute, peakHeap);
+    }
+
+    /**
+     * Writes the metrics of the batch. The files are written under a temporary
+     * name and moved into place, as the textfile collector may read the file
+     * at any time
+     * 
+     * @param folder     where the metrics files are written
+     * @param files      the metrics of each conversion in the batch
+     * @param batchNanos the wall time for the batch
+     */
+    static void writeBatch(File folder, Collection<ConversionMetrics> files, long batchNanos) {
+      ConversionMetrics totals = new ConversionMetrics(null);
+      for (ConversionMetrics file : files) {
+        totals.add(file);
+      }
+      totals.peakHeap = peakHeap();
+      final double batchLinesPerSecond = (batchNanos == 0) ? 0 : (totals.lines * NANOS_PER_SECOND) / batchNanos;
+      info(String.format("Batch metrics: %d files in %.3fms, %.0f lines/s", files.size(),
+          batchNanos / NANOS_PER_MILLI, batchLinesPerSecond));
+      writeAtomically(new File(folder, JSON_FILE), toJson(files, totals, batchNanos, batchLinesPerSecond));
+      writeAtomically(new File(folder, PROMETHEUS_FILE),
+          toPrometheus(files, totals, batchNanos, batchLinesPerSecond));
+    }
+
+    /**
+     * Adds a file's metrics into the batch totals
+     */
+    private void add(ConversionMetrics file) {
+      if (file.converted) {
+        converted = true;
+      }
+      readNanos += file.readNanos;
+      parseNanos += file.parseNanos;
+      emitNanos += file.emitNanos;
+      writeNanos += file.writeNanos;
+      verifyNanos += file.verifyNanos;
+      mismatches += file.mismatches;
+      cacheHits += file.cacheHits;
+      cacheMisses += file.cacheMisses;
+      lines += file.lines;
+      bytesIn += file.bytesIn;
+      bytesOut += file.bytesOut;
+      for (Map.Entry<PluginType, Integer> count : file.pluginCounts.entrySet()) {
+        count(count.getKey(), count.getValue());
+      }
+      if (file.largestValue > largestValue) {
+        largestValue = file.largestValue;
+        largestValueAttribute = file.inFileName + ":" + file.largestValueAttribute;
+      }
+    }
+
+    private static void writeAtomically(File target, String content) {
+      File tempFile = new File(target.getPath() + ".tmp");
+      try {
+        Files.writeString(tempFile.toPath(), content, StandardCharsets.UTF_8);
+        Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException ioErr) {
+        err("Unable to write metrics " + target.getPath() + " : " + ioErr.getMessage());
+      }
+    }
+
+    private static double seconds(long nanos) {
+      return nanos / NANOS_PER_SECOND;
+    }
+
+    private static String jsonString(String value) {
+      if (value == null) {
+        return "null";
+      }
+      StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+      for (int idx = 0; idx < value.length(); idx++) {
+        final char chr = value.charAt(idx);
+        if ((chr == '"') || (chr == '\\')) {
+          json.append('\\').append(chr);
+        } else if (chr < ' ') {
+          json.append(String.format("\\u%04x", (int) chr));
+        } else {
+          json.append(chr);
+        }
+      }
+      return json.append('"').toString();
+    }
+
+    /**
+     * Appends the fields common to a file and the batch totals
+     */
+    private void appendJsonFields(StringBuilder json, String indent) {
+      json.append(indent).append("\"readSeconds\": ").append(seconds(readNanos)).append(",\n");
+      json.append(indent).append("\"parseSeconds\": ").append(seconds(parseNanos)).append(",\n");
+      json.append(indent).append("\"emitSeconds\": ").append(seconds(emitNanos)).append(",\n");
+      json.append(indent).append("\"writeSeconds\": ").append(seconds(writeNanos)).append(",\n");
+      if (verifyOutput) {
+        json.append(indent).append("\"verifySeconds\": ").append(seconds(verifyNanos)).append(",\n");
+        json.append(indent).append("\"mismatches\": ").append(mismatches).append(",\n");
+      }
+      if (conversionCache != null) {
+        json.append(indent).append("\"cacheHits\": ").append(cacheHits).append(",\n");
+        json.append(indent).append("\"cacheMisses\": ").append(cacheMisses).append(",\n");
+      }
+      json.append(indent).append("\"lines\": ").append(lines).append(",\n");
+      json.append(indent).append("\"bytesIn\": ").append(bytesIn).append(",\n");
+      json.append(indent).append("\"bytesOut\": ").append(bytesOut).append(",\n");
+      json.append(indent).append("\"plugins\": {");
+      String separator = "";
+      for (Map.Entry<PluginType, Integer> count : pluginCounts.entrySet()) {
+        json.append(separator).append(jsonString(count.getKey().name().toLowerCase())).append(": ")
+            .append(count.getValue());
+        separator = ", ";
+      }
+      json.append("},\n");
+      json.append(indent).append("\"largestValue\": ").append(largestValue).append(",\n");
+      json.append(indent).append("\"largestValueAttribute\": ").append(jsonString(largestValueAttribute))
+          .append(",\n");
+      json.append(indent).append("\"peakHeapBytes\": ").append(peakHeap);
+    }
+
+    static String toJson(Collection<ConversionMetrics> files, ConversionMetrics totals, long batchNanos,
+        double batchLinesPerSecond) {
+      StringBuilder json = new StringBuilder("{\n");
+      json.append("  \"batch\": {\n");
+      json.append("    \"files\": ").append(files.size()).append(",\n");
+      json.append("    \"wallSeconds\": ").append(seconds(batchNanos)).append(",\n");
+      json.append("    \"linesPerSecond\": ").append(batchLinesPerSecond).append(",\n");
+      totals.appendJsonFields(json, "    ");
+      json.append("\n  },\n");
+      json.append("  \"files\": [");
+      String separator = "\n";
+      for (ConversionMetrics file : files) {
+        json.append(separator).append("    {\n");
+        json.append("      \"file\": ").append(jsonString(file.inFileName)).append(",\n");
+        json.append("      \"converted\": ").append(file.converted).append(",\n");
+        json.append("      \"linesPerSecond\": ").append(file.linesPerSecond()).append(",\n");
+        file.appendJsonFields(json, "      ");
+        json.append("\n    }");
+        separator = ",\n";
+      }
+      json.append("\n  ]\n}\n");
+      return json.toString();
+    }
+
+    private static String promLabel(String value) {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void promHeader(StringBuilder prom, String name, String help) {
+      prom.append("# HELP ").append(PROM_PREFIX).append(name).append(' ').append(help).append(NL);
+      prom.append("# TYPE ").append(PROM_PREFIX).append(name).append(" gauge").append(NL);
+    }
+
+    private static void promSample(StringBuilder prom, String name, String labels, String value) {
+      prom.append(PROM_PREFIX).append(name);
+      if (labels != null) {
+        prom.append('{').append(labels).append('}');
+      }
+      prom.append(' ').append(value).append(NL);
+    }
+
+    private static void promSample(StringBuilder prom, String name, String labels, double value) {
+      promSample(prom, name, labels, Double.toString(value));
+    }
+
+    private static void promSample(StringBuilder prom, String name, String labels, long value) {
+      promSample(prom, name, labels, Long.toString(value));
+    }
+
+    static String toPrometheus(Collection<ConversionMetrics> files, ConversionMetrics totals, long batchNanos,
+        double batchLinesPerSecond) {
+      final String[] phases = { "read", "parse", "emit", "write", "verify" };
+      StringBuilder prom = new StringBuilder();
+      promHeader(prom, "phase_seconds", "Time spent in each phase of converting a file");
+      for (ConversionMetrics file : files) {
+        final long[] nanos = { file.readNanos, file.parseNanos, file.emitNanos, file.writeNanos, file.verifyNanos };
+        for (int idx = 0; idx < phases.length; idx++) {
+          promSample(prom, "phase_seconds",
+              "file=\"" + promLabel(file.inFileName) + "\",phase=\"" + phases[idx] + "\"", seconds(nanos[idx]));
+        }
+      }
+      promHeader(prom, "lines", "Lines in the classic file");
+      for (ConversionMetrics file : files) {
+        promSample(prom, "lines", "file=\"" + promLabel(file.inFileName) + "\"", file.lines);
+      }
+      promHeader(prom, "lines_per_second", "Lines converted per second");
+      for (ConversionMetrics file : files) {
+        promSample(prom, "lines_per_second", "file=\"" + promLabel(file.inFileName) + "\"", file.linesPerSecond());
+      }
+      promHeader(prom, "bytes_in", "Bytes read from the classic file");
+      for (ConversionMetrics file : files) {
+        promSample(prom, "bytes_in", "file=\"" + promLabel(file.inFileName) + "\"", file.bytesIn);
+      }
+      promHeader(prom, "bytes_out", "Bytes of YAML written");
+      for (ConversionMetrics file : files) {
+        promSample(prom, "bytes_out", "file=\"" + promLabel(file.inFileName) + "\"", file.bytesOut);
+      }
+      promHeader(prom, "plugins", "Plugins converted by type");
+      for (ConversionMetrics file : files) {
+        for (Map.Entry<PluginType, Integer> count : file.pluginCounts.entrySet()) {
+          promSample(prom, "plugins", "file=\"" + promLabel(file.inFileName) + "\",type=\""
+              + count.getKey().name().toLowerCase() + "\"", count.getValue());
+        }
+      }
+      promHeader(prom, "largest_value_chars", "Length of the largest attribute value");
+      for (ConversionMetrics file : files) {
+        promSample(prom, "largest_value_chars", "file=\"" + promLabel(file.inFileName) + "\"", file.largestValue);
+      }
+
+      promHeader(prom, "batch_files", "Files in the batch");
+      promSample(prom, "batch_files", null, files.size());
+      promHeader(prom, "batch_wall_seconds", "Wall time for the batch");
+      promSample(prom, "batch_wall_seconds", null, seconds(batchNanos));
+      promHeader(prom, "batch_phase_seconds", "Time spent in each phase, totalled across the batch");
+      final long[] totalNanos = { totals.readNanos, totals.parseNanos, totals.emitNanos, totals.writeNanos,
+          totals.verifyNanos };
+      for (int idx = 0; idx < phases.length; idx++) {
+        promSample(prom, "batch_phase_seconds", "phase=\"" + phases[idx] + "\"", seconds(totalNanos[idx]));
+      }
+      if (conversionCache != null) {
+        promHeader(prom, "batch_cache_hits", "Files the conversion cache found unchanged in the batch");
+        promSample(prom, "batch_cache_hits", null, totals.cacheHits);
+        promHeader(prom, "batch_cache_misses", "Files the conversion cache found changed in the batch");
+        promSample(prom, "batch_cache_misses", null, totals.cacheMisses);
+      }
+      promHeader(prom, "batch_lines", "Lines converted in the batch");
+      promSample(prom, "batch_lines", null, totals.lines);
+      promHeader(prom, "batch_lines_per_second", "Lines converted per second of batch wall time");
+      promSample(prom, "batch_lines_per_second", null, batchLinesPerSecond);
+      promHeader(prom, "batch_bytes_in", "Bytes read across the batch");
+      promSample(prom, "batch_bytes_in", null, totals.bytesIn);
+      promHeader(prom, "batch_bytes_out", "Bytes written across the batch");
+      promSample(prom, "batch_bytes_out", null, totals.bytesOut);
+      promHeader(prom, "batch_plugins", "Plugins converted by type across the batch");
+      for (Map.Entry<PluginType, Integer> count : totals.pluginCounts.entrySet()) {
+        promSample(prom, "batch_plugins", "type=\"" + count.getKey().name().toLowerCase() + "\"", count.getValue());
+      }
+      promHeader(prom, "batch_largest_value_chars", "Length of the largest attribute value in the batch");
+      promSample(prom, "batch_largest_value_chars", null, totals.largestValue);
+      promHeader(prom, "peak_heap_bytes", "Peak JVM heap used");
+      promSample(prom, "peak_heap_bytes", null, totals.peakHeap);
+      return prom.toString();
+    }
+  }
+
+  /**
+   * Runs the converter as a resident server, so callers don't pay for starting
+   * a JVM (and compiling this file) for every conversion, and the conversion
+   * code stays JIT compiled. The server only listens on the loopback address.
+   * A classic configuration POSTed to /convert is returned as YAML, and
+   * /health can be used to check the server is running. Each request is
+   * handled on its own thread (a virtual thread from Java 21) with its own
+   * conversion context.
+   */
+  static class ConversionServer implements HttpHandler {
+    static final String CONVERT_PATH = "/convert";
+    static final String HEALTH_PATH = "/health";
+    private static final String REQUEST_FILE_NAME = "request.conf";
+    private static final String POST = "POST";
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String YAML_CONTENT_TYPE = "application/yaml; charset=utf-8";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    /**
+     * Starts the server
+     * 
+     * @param port the localhost port to listen on
+     * @return the running server
+     * @throws IOException if the port can't be bound
+     */
+    static HttpServer start(int port) throws IOException {
+      HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      final ThreadFactory requestThreads = virtualThreadFactory();
+      server.setExecutor((requestThreads == null) ? Executors.newCachedThreadPool()
+          : Executors.newCachedThreadPool(requestThreads));
+      server.createContext(CONVERT_PATH, new ConversionServer());
+      server.createContext(HEALTH_PATH, exchange -> sendText(exchange, 200, "ok" + NL));
+      server.start();
+      info("Conversion server listening on http://" + server.getAddress().getHostString() + ":"
+          + server.getAddress().getPort() + CONVERT_PATH);
+      return server;
+    }
+
+    /**
+     * Sends a short plain text response and completes the exchange
+     * 
+     * @param exchange the request being handled
+     * @param status   the HTTP status
+     * @param msg      the response body
+     * @throws IOException if the response can't be sent
+     */
+    static void sendText(HttpExchange exchange, int status, String msg) throws IOException {
+      byte[] body = msg.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set(CONTENT_TYPE, TEXT_CONTENT_TYPE);
+      exchange.sendResponseHeaders(status, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+
+    /**
+     * Converts the request body, streaming the YAML back. The body is parsed
+     * with the byte level lexer, and the response is only started once the
+     * parse has succeeded so an error can still be reported with a 500.
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      boolean responding = false;
+      ConversionContext ctx = new ConversionContext(REQUEST_FILE_NAME);
+      ctx.bind();
+      try {
+        if (!exchange.getRequestMethod().equalsIgnoreCase(POST)) {
+          sendText(exchange, 405, "Only POST is supported" + NL);
+          return;
+        }
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        if (debug) {
+          debug("Converting request of " + body.length + " bytes");
+        }
+        consumeClassicFile(ctx, new ClassicLexer(ByteBuffer.wrap(body)));
+        preparePipeline(ctx);
+
+        exchange.getResponseHeaders().set(CONTENT_TYPE, YAML_CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, 0);
+        responding = true;
+        BufferedWriter out = new BufferedWriter(
+            new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        writePipelineOutput(ctx, out);
+        out.flush();
+        out.close();
+      } catch (Exception convErr) {
+        err("Conversion request failed: " + convErr.toString());
+        if (!responding) {
+          sendText(exchange, 500, "Conversion failed: " + convErr.getMessage() + NL);
+        }
+      } finally {
+        ctx.unbind();
+        exchange.close();
+      }
+    }
+  }
+
+  /**
+   * Wraps a reader so that a stream of documents separated by NUL characters
+   * can be read one document at a time. The end of each document is reported
+   * as the end of the stream, until nextDocument is called. We buffer the
+   * underlying reader ourselves so that nothing beyond the separator is handed
+   * to the caller (e.g. a BufferedReader's read ahead).
+   */
+  static class DocumentReader extends Reader {
+    private static final char SEPARATOR = '\0';
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos = 0;
+    private int len = 0;
+    private boolean atSeparator = false;
+    private boolean endOfInput = false;
+
+    /**
+     * @param in the reader providing the stream of documents
+     */
+    DocumentReader(Reader in) {
+      this.in = in;
+    }
+
+    /**
+     * Makes sure there is buffered content, unless we've reached the end
+     * 
+     * @return false if there is no more input
+     * @throws IOException if the underlying read fails
+     */
+    private boolean fill() throws IOException {
+      while ((pos >= len) && !endOfInput) {
+        len = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        if (len < 0) {
+          len = 0;
+          endOfInput = true;
+        }
+      }
+      return pos < len;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int count) throws IOException {
+      if (atSeparator || !fill()) {
+        return -1;
+      }
+      int copied = 0;
+      while ((copied < count) && (pos < len)) {
+        final char ch = buffer[pos++];
+        if (ch == SEPARATOR) {
+          atSeparator = true;
+          break;
+        }
+        cbuf[off + copied++] = ch;
+      }
+      return ((copied == 0) && atSeparator) ? -1 : copied;
+    }
+
+    /**
+     * Moves past the separator to the next document
+     * 
+     * @return false if there are no more documents
+     * @throws IOException if the underlying read fails
+     */
+    boolean nextDocument() throws IOException {
+      atSeparator = false;
+      return fill();
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Converts classic configuration read from stdin, writing the YAML to stdout
+   * so the converter can be used as a filter in a shell pipeline. The input is
+   * parsed as it is read rather than being held in memory. Optionally the
+   * input can be a stream of configurations separated by NULs, in which case
+   * each YAML document is written (followed by a NUL) and flushed as soon as
+   * its configuration has been read.
+   * 
+   * @param nulSeparated true if stdin contains NUL separated configurations
+   * @throws IOException if stdin or stdout fail
+   */
+  private static void convertStream(boolean nulSeparated) throws IOException {
+    DocumentReader documents = new DocumentReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    int docCount = 0;
+    boolean more = true;
+    while (more) {
+      docCount++;
+      ConversionContext ctx = new ConversionContext("stdin-" + docCount + CLASSIC_EXTN);
+      ctx.bind();
+      try {
+        consumeClassicFile(ctx, new BufferedReader(documents));
+        preparePipeline(ctx);
+        writePipelineOutput(ctx, out);
+        if (nulSeparated) {
+          out.write(DocumentReader.SEPARATOR);
+        }
+        out.flush();
+      } finally {
+        ctx.unbind();
+      }
+      more = nulSeparated && documents.nextDocument();
+    }
+    debug("Converted " + docCount + " documents from stdin");
+  }
+
+  /**
+   * Provides the watch mode. The folders containing the classic files (and any
+   * files they include) are registered with a WatchService, and when a file
+   * changes only the conversions that depend on it are rerun. Changes are
+   * debounced - a conversion is only run once its files have been quiet for
+   * the debounce period, so a burst of saves from an editor results in a
+   * single conversion.
+   */
+  static class ConversionWatcher {
+    private final WatchService watchService;
+    private final Path root;
+    private final long debounceMillis;
+    private final HashMap<WatchKey, Path> watchedFolders = new HashMap<WatchKey, Path>();
+    private final HashSet<Path> registeredFolders = new HashSet<Path>();
+
+    /** canonical path of each classic file mapped to the name we convert it by */
+    private final LinkedHashMap<String, String> sources = new LinkedHashMap<String, String>();
+
+    /** canonical path of each included file mapped to the sources using it */
+    private final HashMap<String, LinkedHashSet<String>> dependants = new HashMap<String, LinkedHashSet<String>>();
+
+    /** sources waiting to be converted, with the time they become due */
+    private final LinkedHashMap<String, Long> pending = new LinkedHashMap<String, Long>();
+
+    /**
+     * @param root           if not null, the folder tree in which all classic files
+     *                       are watched, otherwise just the files added are
+     *                       watched
+     * @param debounceMillis how long a file needs to be unchanged before
+     *                       converting it
+     * @throws IOException if the watch service can't be created
+     */
+    ConversionWatcher(Path root, long debounceMillis) throws IOException {
+      this.root = (root == null) ? null : root.toAbsolutePath().normalize();
+      this.debounceMillis = debounceMillis;
+      this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Registers a folder with the watch service, if not already registered
+     * 
+     * @param folder the folder to watch
+     */
+    private void watchFolder(Path folder) {
+      if ((folder == null) || !registeredFolders.add(folder)) {
+        return;
+      }
+      try {
+        WatchKey key = folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedFolders.put(key, folder);
+        if (debug) {
+          debug("Watching folder " + folder);
+        }
+      } catch (IOException ioErr) {
+        registeredFolders.remove(folder);
+        err("Unable to watch folder " + folder + " : " + ioErr.getMessage());
+      }
+    }
+
+    /**
+     * Adds a classic file to be watched
+     * 
+     * @param inFileName the name the file is converted with
+     * @return the canonical path used to track the file
+     */
+    String addSource(String inFileName) {
+      final String sourcePath = canonicalPath(new File(inFileName));
+      sources.put(sourcePath, inFileName);
+      watchFolder(Paths.get(sourcePath).getParent());
+      return sourcePath;
+    }
+
+    /**
+     * Walks the root folder, watching every folder within it and adding the
+     * classic files found. In a folder created while we're watching, each file
+     * found is treated as a change, so the classic files are converted and
+     * anything including the files is converted again
+     * 
+     * @param folder  the folder tree to add
+     * @param created true if the folder has been created while watching
+     */
+    private void addTree(Path folder, boolean created) {
+      Stream<Path> walk = null;
+      try {
+        walk = Files.walk(folder);
+        Iterator<Path> iter = walk.iterator();
+        while (iter.hasNext()) {
+          Path path = iter.next();
+          if (Files.isDirectory(path)) {
+            watchFolder(path);
+          } else if (created) {
+            changed(path);
+          } else if (path.getFileName().toString().endsWith(CLASSIC_EXTN)) {
+            addSource(path.toString());
+          }
+        }
+      } catch (IOException | UncheckedIOException ioErr) {
+        err("Unable to walk " + folder + " : " + ioErr.getMessage());
+      } finally {
+        if (walk != null) {
+          walk.close();
+        }
+      }
+    }
+
+    /**
+     * Replaces the recorded includes of a source with those found by its latest
+     * conversion, watching the folders of any new includes
+     * 
+     * @param sourcePath the canonical path of the converted file
+     * @param ctx        the context from the conversion
+     */
+    private void recordDependencies(String sourcePath, ConversionContext ctx) {
+      Iterator<LinkedHashSet<String>> allDependants = dependants.values().iterator();
+      while (allDependants.hasNext()) {
+        LinkedHashSet<String> users = allDependants.next();
+        users.remove(sourcePath);
+        if (users.isEmpty()) {
+          allDependants.remove();
+        }
+      }
+      Iterator<String> iter = ctx.includedFiles.iterator();
+      while (iter.hasNext()) {
+        final String includePath = iter.next();
+        LinkedHashSet<String> users = dependants.get(includePath);
+        if (users == null) {
+          users = new LinkedHashSet<String>();
+          dependants.put(includePath, users);
+        }
+        users.add(sourcePath);
+        watchFolder(Paths.get(includePath).getParent());
+      }
+    }
+
+    /**
+     * Converts the sources given, recording what each one includes
+     * 
+     * @param sourcePaths the canonical paths of the files to convert
+     */
+    private void convert(ArrayList<String> sourcePaths) {
+      ArrayList<String> inFileNames = new ArrayList<String>();
+      Iterator<String> iter = sourcePaths.iterator();
+      while (iter.hasNext()) {
+        inFileNames.add(sources.get(iter.next()));
+      }
+      ArrayList<ConversionContext> results = convertFiles(inFileNames);
+      for (int idx = 0; idx < results.size(); idx++) {
+        if (results.get(idx) != null) {
+          recordDependencies(sourcePaths.get(idx), results.get(idx));
+        }
+      }
+    }
+
+    /**
+     * Schedules a source for conversion once the debounce period has passed.
+     * Further changes push the conversion back
+     * 
+     * @param sourcePath the canonical path of the file to convert
+     */
+    private void schedule(String sourcePath) {
+      pending.remove(sourcePath);
+      pending.put(sourcePath, System.currentTimeMillis() + debounceMillis);
+    }
+
+    /**
+     * Works out what is affected by a changed file. Cached include fragments are
+     * discarded so they're read again
+     * 
+     * @param changed the file or folder that has been created or modified
+     */
+    private void changed(Path changed) {
+      if ((root != null) && Files.isDirectory(changed)) {
+        addTree(changed, true);
+        return;
+      }
+      final String changedPath = canonicalPath(changed.toFile());
+      IncludeFragment.invalidate(changedPath);
+      if (sources.containsKey(changedPath)) {
+        schedule(changedPath);
+      } else if ((root != null) && changedPath.endsWith(CLASSIC_EXTN) && changed.startsWith(root)) {
+        schedule(addSource(changed.toString()));
+      }
+      LinkedHashSet<String> users = dependants.get(changedPath);
+      if (users != null) {
+        Iterator<String> iter = users.iterator();
+        while (iter.hasNext()) {
+          schedule(iter.next());
+        }
+      }
+    }
+
+    /**
+     * Converts everything initially, then waits for changes until the thread is
+     * interrupted or the process stopped
+     * 
+     * @param inFileNames the files to watch when we're not watching a folder
+     *                    tree
+     */
+    void watch(ArrayList<String> inFileNames) {
+      if (root != null) {
+        addTree(root, false);
+      } else if (inFileNames != null) {
+        Iterator<String> iter = inFileNames.iterator();
+        while (iter.hasNext()) {
+          addSource(iter.next());
+        }
+      }
+      convert(new ArrayList<String>(sources.keySet()));
+      info("Watching " + sources.size() + " files in " + registeredFolders.size() + " folders for changes");
+
+      try {
+        while (true) {
+          long timeout = Long.MAX_VALUE;
+          if (!pending.isEmpty()) {
+            timeout = Math.max(0, Collections.min(pending.values()) - System.currentTimeMillis());
+          }
+          WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+          if (key != null) {
+            Path folder = watchedFolders.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+              if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                info("Too many changes to track - reconverting everything");
+                Iterator<String> iter = sources.keySet().iterator();
+                while (iter.hasNext()) {
+                  schedule(iter.next());
+                }
+              } else if (folder != null) {
+                changed(folder.resolve((Path) event.context()));
+              }
+            }
+            if (!key.reset()) {
+              watchedFolders.remove(key);
+              registeredFolders.remove(folder);
+            }
+          }
+
+          ArrayList<String> due = new ArrayList<String>();
+          final long now = System.currentTimeMillis();
+          Iterator<Map.Entry<String, Long>> pendingIter = pending.entrySet().iterator();
+          while (pendingIter.hasNext()) {
+            Map.Entry<String, Long> entry = pendingIter.next();
+            if (entry.getValue() <= now) {
+              due.add(entry.getKey());
+              pendingIter.remove();
+            }
+          }
+          if (!due.isEmpty()) {
+            info("Change detected - reconverting " + due.size() + " file(s)");
+            convert(due);
+          }
+        }
+      } catch (InterruptedException interruptErr) {
+        info("Watching stopped");
+        Thread.currentThread().interrupt();
+      } finally {
+        try {
+          watchService.close();
+        } catch (IOException ioErr) {
+          err("Error closing the watch service " + ioErr.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts all the classic files in a folder tree, such as a configuration
+   * repository. The tree is walked lazily and each file selected by the globs
+   * is handed to the conversion workers as soon as it is found, so the
+   * conversions start straight away rather than after the whole tree has been
+   * listed. The number of files found but not yet converted is bounded, so a
+   * huge tree doesn't fill memory with pending work, and only the metrics of
+   * each conversion are kept. The YAML is written to the same relative
+   * location under the output folder, or alongside the classic file if there
+   * isn't one.
+   */
+  static final class TreeConversion {
+    private static final String GLOB_SEPARATOR = ",";
+    private static final int PENDING_PER_WORKER = 4;
+
+    private final Path root;
+    private final Path outputRoot;
+    private final ArrayList<PathMatcher> includes;
+    private final ArrayList<PathMatcher> excludes;
+    private final ConcurrentLinkedQueue<ConversionMetrics> metrics = new ConcurrentLinkedQueue<ConversionMetrics>();
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param root        the folder to convert
+     * @param outputRoot  the folder to mirror the tree into, null to write the
+     *                    YAML alongside the classic files
+     * @param includeStr  comma separated globs of the files to convert, null
+     *                    for the default
+     * @param excludeStr  comma separated globs of the files to leave, may be
+     *                    null
+     */
+    TreeConversion(Path root, Path outputRoot, String includeStr, String excludeStr) {
+      this.root = root;
+      this.outputRoot = outputRoot;
+      this.includes = matchers((includeStr == null) ? DEFAULT_TREE_INCLUDE : includeStr);
+      this.excludes = matchers(excludeStr);
+    }
+
+    private static ArrayList<PathMatcher> matchers(String globs) {
+      ArrayList<PathMatcher> matchers = new ArrayList<PathMatcher>();
+      if (globs != null) {
+        for (String glob : globs.split(GLOB_SEPARATOR)) {
+          if (glob.trim().length() > 0) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob.trim()));
+          }
+        }
+      }
+      return matchers;
+    }
+
+    private static boolean matches(ArrayList<PathMatcher> matchers, Path relative) {
+      for (PathMatcher matcher : matchers) {
+        if (matcher.matches(relative)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @param relative the file's path relative to the root
+     * @return true if the file should be converted
+     */
+    boolean selected(Path relative) {
+      return matches(includes, relative) && !matches(excludes, relative);
+    }
+
+    /**
+     * Works out where the YAML for a file is written
+     * 
+     * @param source   the classic file
+     * @param relative the file's path relative to the root
+     * @return the YAML file's name
+     */
+    String outputFor(Path source, Path relative) {
+      if (outputRoot == null) {
+        return getOutFile(source.toString());
+      }
+      return getOutFile(outputRoot.resolve(relative.toString()).toString());
+    }
+
+    /**
+     * Walks the tree, converting the files as they're found
+     * 
+     * @return the number of files converted
+     */
+    int convert() {
+      final int parallelism = getParallelism();
+      final long batchStart = System.nanoTime();
+      ExecutorService executor = null;
+      if (parallelism > 1) {
+        if (useVirtualThreads) {
+          executor = Executors.newFixedThreadPool(parallelism, virtualThreads);
+        } else {
+          executor = Executors.newFixedThreadPool(parallelism);
+        }
+      }
+      final Semaphore pending = new Semaphore(parallelism * PENDING_PER_WORKER);
+      info("Converting the tree " + root + ((outputRoot == null) ? "" : " into " + outputRoot)
+          + " with parallelism of " + parallelism);
+
+      Stream<Path> walk = null;
+      try {
+        walk = Files.walk(root);
+        Iterator<Path> iter = walk.iterator();
+        while (iter.hasNext()) {
+          final Path source = iter.next();
+          final Path relative = root.relativize(source);
+          if (!Files.isRegularFile(source) || !selected(relative)) {
+            continue;
+          }
+          final ConversionContext ctx = new ConversionContext(source.toString(), outputFor(source, relative));
+          if (executor == null) {
+            convert(ctx);
+          } else {
+            pending.acquire();
+            executor.execute(() -> {
+              try {
+                convert(ctx);
+              } finally {
+                pending.release();
+              }
+            });
+          }
+        }
+      } catch (IOException | UncheckedIOException ioErr) {
+        err("Unable to walk " + root + " : " + ioErr.getMessage());
+      } catch (InterruptedException interruptErr) {
+        err("Interrupted walking " + root);
+        Thread.currentThread().interrupt();
+      } finally {
+        if (walk != null) {
+          walk.close();
+        }
+        if (executor != null) {
+          executor.shutdown();
+          try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException interruptErr) {
+            err("Interrupted waiting for conversions to complete");
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+
+      info("Converted " + converted.get() + " files from " + root + ", " + unchanged.get() + " unchanged, "
+          + failed.get() + " failed");
+      if (conversionCache != null) {
+        conversionCache.save();
+        conversionCache.reportSummary();
+      }
+      if (metricsFolder != null) {
+        ConversionMetrics.writeBatch(metricsFolder, metrics, System.nanoTime() - batchStart);
+      }
+      return converted.get();
+    }
+
+    /**
+     * Converts one file, creating the folder for its YAML if needed
+     * 
+     * @param ctx the context identifying the file and its output
+     */
+    private void convert(ConversionContext ctx) {
+      try {
+        Path outParent = Paths.get(ctx.outFileName).getParent();
+        if (outParent != null) {
+          Files.createDirectories(outParent);
+        }
+        convertFile(ctx);
+      } catch (IOException | RuntimeException convertErr) {
+        err("Unable to convert " + ctx.inFileName + " : " + convertErr);
+      }
+      if (ctx.converted) {
+        converted.incrementAndGet();
+      } else if (ctx.skipped) {
+        unchanged.incrementAndGet();
+      } else {
+        failed.incrementAndGet();
+      }
+      if (ctx.metrics != null) {
+        metrics.add(ctx.metrics);
+      }
+    }
+  }
+
+  /**
+   * Reads back the YAML we've written and compares it with the plugins it was
+   * written from, so a batch can be checked without starting Fluent Bit for
+   * each file. The reader only understands the block style YAML the converter
+   * writes - indentation, "key: value" entries, "- " list items and comment
+   * lines - which is all we need. The plugins are described as a tree of the
+   * entries they should produce, and the YAML is walked a line at a time
+   * against that tree, so the plugins, their order and every value of repeated
+   * attributes must match. Quoting is removed before values are compared. The
+   * lists of plugins are only described a plugin at a time, and the YAML is
+   * never held in memory. Differences are reported with the line in the
+   * classic file (for included plugins, the line in the included file) and the
+   * line in the YAML. As that only shows the YAML was written faithfully from
+   * the plugins, verifySource then checks the YAML's settings against the
+   * classic source read again without the parser.
+   */
+  static final class YamlVerifier {
+    private static final String PIPELINE = "pipeline";
+    private static final String LIST_ITEM = "- ";
+    private static final String KEY_SEPARATOR = ": ";
+    private static final char KEY_END = ':';
+    private static final char COMMENT_START = '#';
+    private static final char SINGLE_QUOTE = '\'';
+    private static final char DOUBLE_QUOTE = '"';
+    private static final int MAX_REPORTED = 20;
+
+    /**
+     * An entry the YAML should have. A node is either a key with a value, a key
+     * with child entries, a list item (no key) with either, or a comment. The
+     * children of a list of plugins are described from the plugins as they're
+     * compared.
+     */
+    static final class Node {
+      final String key;
+      final String value;
+      final boolean comment;
+      final int line;
+      final ArrayList<Node> children;
+      ArrayList<Plugin> plugins = null;
+
+      private Node(String key, String value, boolean comment, int line, ArrayList<Node> children) {
+        this.key = key;
+        this.value = value;
+        this.comment = comment;
+        this.line = line;
+        this.children = children;
+      }
+
+      /**
+       * @param key   the key, or null for a list item
+       * @param value the value
+       * @param line  where the entry comes from
+       * @return a node holding a single value
+       */
+      static Node scalar(String key, String value, int line) {
+        return new Node(key, value, false, line, null);
+      }
+
+      /**
+       * @param key  the key, or null for a list item
+       * @param line where the entry comes from
+       * @return a node that holds child entries
+       */
+      static Node container(String key, int line) {
+        return new Node(key, null, false, line, new ArrayList<Node>());
+      }
+
+      /**
+       * @param key     the list's key
+       * @param plugins the plugins written in the list
+       * @return a node for a list of plugins
+       */
+      static Node plugins(String key, ArrayList<Plugin> plugins) {
+        Node list = container(key, 0);
+        list.plugins = plugins;
+        return list;
+      }
+
+      /**
+       * @param text the comment, including the #
+       * @param line where the comment comes from
+       * @return a comment node
+       */
+      static Node comment(String text, int line) {
+        return new Node(null, text, true, line, null);
+      }
+
+      /**
+       * @return the node as it would appear in the YAML, for messages
+       */
+      String describe() {
+        if (comment) {
+          return value;
+        }
+        final String label = (key == null) ? "-" : key + ":";
+        return (children != null) ? label : label + " " + value;
+      }
+    }
+
+    /**
+     * Steps through the lines of the YAML. When the walk moves into a list item
+     * the line's start is moved past the "- ", so the item's first entry is
+     * seen with the same indentation as the entries that follow it.
+     */
+    private static final class Cursor {
+      private final BufferedReader yaml;
+      String line = null;
+      int lineNo = 0;
+      int start = 0;
+
+      Cursor(BufferedReader yaml) throws IOException {
+        this.yaml = yaml;
+        advance();
+      }
+
+      /**
+       * Moves to the next line with content
+       */
+      void advance() throws IOException {
+        while ((line = yaml.readLine()) != null) {
+          lineNo++;
+          start = 0;
+          while ((start < line.length()) && (line.charAt(start) == ' ')) {
+            start++;
+          }
+          if (start < line.length()) {
+            return;
+          }
+        }
+      }
+
+      /**
+       * @param parentIndent the indentation of the entry being walked
+       * @return true if the current line belongs to the entry
+       */
+      boolean within(int parentIndent) {
+        return (line != null) && (start > parentIndent);
+      }
+
+      boolean isComment() {
+        return line.charAt(start) == COMMENT_START;
+      }
+
+      boolean isItem() {
+        return line.startsWith(LIST_ITEM, start);
+      }
+
+      /**
+       * @param from where the text starts
+       * @return true if the text is a "key: value" or "key:" entry
+       */
+      boolean isEntry(int from) {
+        return (line.indexOf(KEY_SEPARATOR, from) > from) || (line.charAt(line.length() - 1) == KEY_END);
+      }
+
+      /**
+       * @param key the expected key
+       * @return true if the line is the key followed by the separator
+       */
+      boolean hasKey(String key, String separator) {
+        return line.startsWith(key, start) && line.startsWith(separator, start + key.length());
+      }
+
+      String text() {
+        return line.substring(start).trim();
+      }
+
+      /**
+       * Reads the content of a block scalar whose header is on the current line,
+       * leaving the cursor on the line after the block. We only write single line
+       * values, so the lines of a folded block are joined with a space
+       * 
+       * @param indent the indentation of the block's key
+       * @param folded true for a folded (>-) block, false for a literal one
+       * @return the value's content
+       */
+      String blockScalar(int indent, boolean folded) throws IOException {
+        StringBuilder content = new StringBuilder();
+        advance();
+        while (within(indent)) {
+          if (content.length() > 0) {
+            content.append(folded ? ' ' : '\n');
+          }
+          content.append(line, start, line.length());
+          advance();
+        }
+        return content.toString();
+      }
+    }
+
+    /**
+     * Describes the top level of the YAML the plugins should be written as
+     * 
+     * @param ctx the conversion
+     * @return the top level entries
+     */
+    static ArrayList<Node> expected(ConversionContext ctx) {
+      ArrayList<Node> root = new ArrayList<Node>();
+      if ((ctx.service != null) && (ctx.service.attributeCountByType() > 0)) {
+        Node service = Node.container(SERVICEYAML, ctx.service.lineNo);
+        ctx.service.expectAttributes(service.children);
+        root.add(service);
+      }
+      if ((ctx.includes != null) && (ctx.includes.attributeCountByType() > 0)) {
+        root.add(Node.comment(INCLUDES_LBL, ctx.includes.lineNo));
+        ctx.includes.expectAttributes(root);
+      }
+      if (ctx.sections != null) {
+        for (Map.Entry<PluginType, ArrayList<Plugin>> section : ctx.sections.entrySet()) {
+          root.add(Node.plugins(section.getKey().yamlLabel, section.getValue()));
+        }
+      }
+      if (writesPipeline(ctx)) {
+        Node pipeline = Node.container(PIPELINE, 0);
+        expectPlugins(pipeline, INPUTSYAML, ctx.inputs);
+        expectPlugins(pipeline, FILTERSYAML, ctx.filters);
+        expectPlugins(pipeline, OUTPUTSYAML, ctx.outputs);
+        root.add(pipeline);
+      }
+      return root;
+    }
+
+    private static void expectPlugins(Node pipeline, String label, ArrayList<Plugin> plugins) {
+      if ((plugins != null) && !plugins.isEmpty()) {
+        pipeline.children.add(Node.plugins(label, plugins));
+      }
+    }
+
+    /**
+     * Removes YAML quoting from a value
+     * 
+     * @param value the value as written
+     * @return the value's content
+     */
+    static String unquote(String value) {
+      if ((value == null) || (value.length() < 2)) {
+        return value;
+      }
+      final char first = value.charAt(0);
+      final char last = value.charAt(value.length() - 1);
+      if ((first == SINGLE_QUOTE) && (last == SINGLE_QUOTE)) {
+        return value.substring(1, value.length() - 1).replace("''", "'");
+      }
+      if ((first == DOUBLE_QUOTE) && (last == DOUBLE_QUOTE)) {
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int idx = 1; idx < value.length() - 1; idx++) {
+          char chr = value.charAt(idx);
+          if ((chr == '\\') && (idx + 1 < value.length() - 1)) {
+            chr = value.charAt(++idx);
+            if (chr == 'n') {
+              chr = '\n';
+            } else if (chr == 't') {
+              chr = '\t';
+            }
+          }
+          unescaped.append(chr);
+        }
+        return unescaped.toString();
+      }
+      return value;
+    }
+
+    /**
+     * Checks the current line is the expected entry, and if so walks any
+     * children. The cursor is left on the line after the entry.
+     * 
+     * @return true if the entry matches
+     */
+    private static boolean matchEntry(Node expected, Cursor cursor, ArrayList<String> mismatches)
+        throws IOException {
+      final int indent = cursor.start;
+      boolean matched = false;
+      if (expected.comment) {
+        matched = cursor.isComment() && cursor.text().equals(expected.value.trim());
+      } else if (cursor.isComment()) {
+        matched = false;
+      } else if (expected.key == null) {
+        if (cursor.isItem()) {
+          final int itemStart = cursor.start + LIST_ITEM.length();
+          if (expected.children == null) {
+            matched = !cursor.isEntry(itemStart)
+                && String.valueOf(unquote(expected.value)).equals(unquote(cursor.line.substring(itemStart).trim()));
+          } else if (cursor.isEntry(itemStart)) {
+            cursor.start = itemStart;
+            matchChildren(expected, cursor, indent, mismatches);
+            return true;
+          }
+        }
+      } else if (expected.children == null) {
+        if (cursor.hasKey(expected.key, KEY_SEPARATOR)) {
+          final String found = cursor.line.substring(cursor.start + expected.key.length() + KEY_SEPARATOR.length())
+              .trim();
+          final boolean folded = found.equals(ScalarStyle.FOLDED.indicator);
+          if (folded || found.equals(ScalarStyle.LITERAL.indicator)) {
+            final int blockLine = cursor.lineNo;
+            if (String.valueOf(unquote(expected.value)).equals(cursor.blockScalar(indent, folded))) {
+              return true;
+            }
+            mismatches.add("classic line " + expected.line + ", YAML line " + blockLine + ": expected "
+                + expected.describe() + " but found a different " + found + " block");
+            return false;
+          }
+          matched = String.valueOf(unquote(expected.value)).equals(unquote(found));
+        }
+      } else if (cursor.hasKey(expected.key, String.valueOf(KEY_END))
+          && (cursor.text().length() == expected.key.length() + 1)) {
+        cursor.advance();
+        matchChildren(expected, cursor, indent, mismatches);
+        return true;
+      }
+      if (matched) {
+        cursor.advance();
+        return true;
+      }
+      mismatches.add("classic line " + expected.line + ", YAML line " + cursor.lineNo + ": expected "
+          + expected.describe() + " but found " + cursor.text());
+      return false;
+    }
+
+    /**
+     * Walks the children of a matched entry, reporting any missing or extra
+     * entries. Once an entry differs the rest of the entry's lines are skipped,
+     * as every following entry would be reported.
+     */
+    private static void matchChildren(Node parent, Cursor cursor, int parentIndent, ArrayList<String> mismatches)
+        throws IOException {
+      boolean matching = true;
+      if (parent.plugins != null) {
+        ArrayList<Node> described = new ArrayList<Node>();
+        for (int idx = 0; matching && (idx < parent.plugins.size()); idx++) {
+          described.clear();
+          parent.plugins.get(idx).expect(described);
+          matching = matchList(described, cursor, parentIndent, mismatches);
+        }
+      } else {
+        matching = matchList(parent.children, cursor, parentIndent, mismatches);
+      }
+      if (matching && cursor.within(parentIndent)) {
+        mismatches.add("YAML line " + cursor.lineNo + ": " + cursor.text() + " doesn't come from the classic file");
+      }
+      while (cursor.within(parentIndent)) {
+        cursor.advance();
+      }
+    }
+
+    private static boolean matchList(ArrayList<Node> expected, Cursor cursor, int parentIndent,
+        ArrayList<String> mismatches) throws IOException {
+      for (Node entry : expected) {
+        if (!cursor.within(parentIndent)) {
+          mismatches.add("classic line " + entry.line + ": " + entry.describe()
+              + " is missing from the YAML before line " + cursor.lineNo);
+          return false;
+        }
+        if (!matchEntry(entry, cursor, mismatches)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Verifies the YAML written for the conversion, logging any differences
+     * 
+     * @param ctx  the conversion
+     * @param yaml the YAML that was written
+     * @return the number of differences found
+     * @throws IOException if the YAML can't be read
+     */
+    static int verify(ConversionContext ctx, BufferedReader yaml) throws IOException {
+      final long verifyStart = System.nanoTime();
+      ArrayList<String> mismatches = new ArrayList<String>();
+      Node root = Node.container(null, 0);
+      root.children.addAll(expected(ctx));
+      matchChildren(root, new Cursor(yaml), -1, mismatches);
+      for (int idx = 0; idx < Math.min(mismatches.size(), MAX_REPORTED); idx++) {
+        err("Verification of " + ctx.outFileName + " failed at " + mismatches.get(idx));
+      }
+      if (mismatches.size() > MAX_REPORTED) {
+        err("... and " + (mismatches.size() - MAX_REPORTED) + " further differences in " + ctx.outFileName);
+      }
+      if (mismatches.isEmpty()) {
+        info("Verified " + ctx.outFileName);
+      }
+      if (ctx.metrics != null) {
+        ctx.metrics.verifyNanos = System.nanoTime() - verifyStart;
+        ctx.metrics.mismatches = mismatches.size();
+      }
+      return mismatches.size();
+    }
+
+    /**
+     * Checks the YAML against the classic source rather than the plugins parsed
+     * from it, so a setting lost while parsing - which verify can't see, as the
+     * YAML was written from those plugins - is found too. The classic file (and
+     * with FLB_RESOLVE_INCLUDES the files it includes) is read again with a
+     * scanner that only knows section headers and "key value" lines, and each
+     * setting of the service, inputs, filters, outputs, parsers and customs must
+     * be in the YAML under the same top level entry. Names are compared ignoring
+     * case and underscores, so the idiomatic form matches, and quoting is
+     * removed from values. A service setting given more than once only needs its
+     * last value. With FLB_PROCESSORS a moved filter loses its Match, so Match
+     * isn't checked, and with FLB_TUNING=fix only the setting's name is checked,
+     * as the value may have been changed. Multiline parsers, upstream servers
+     * and plugins are rewritten in the YAML, so aren't checked.
+     * 
+     * @param ctx     the conversion
+     * @param classic the classic source
+     * @param yaml    the YAML that was written
+     * @return the number of settings missing from the YAML
+     * @throws IOException if the classic source or YAML can't be read
+     */
+    static int verifySource(ConversionContext ctx, BufferedReader classic, BufferedReader yaml) throws IOException {
+      final long verifyStart = System.nanoTime();
+      // the values written for each name under each top level entry
+      HashMap<String, HashMap<String, HashSet<String>>> written = new HashMap<String, HashMap<String, HashSet<String>>>();
+      HashMap<String, HashSet<String>> writtenUnder = null;
+      Cursor cursor = new Cursor(yaml);
+      while (cursor.line != null) {
+        final int indent = cursor.start;
+        if (cursor.isComment()) {
+          cursor.advance();
+          continue;
+        }
+        if (indent == 0) {
+          String top = cursor.text();
+          top = top.endsWith(String.valueOf(KEY_END)) ? top.substring(0, top.length() - 1) : top;
+          writtenUnder = written.computeIfAbsent(top, key -> new HashMap<String, HashSet<String>>());
+          cursor.advance();
+          continue;
+        }
+        if (cursor.isItem()) {
+          cursor.start += LIST_ITEM.length();
+        }
+        final int sepPos = cursor.line.indexOf(KEY_SEPARATOR, cursor.start);
+        if ((sepPos < 0) || (writtenUnder == null)) {
+          cursor.advance();
+          continue;
+        }
+        final String name = settingName(cursor.line.substring(cursor.start, sepPos));
+        String value = cursor.line.substring(sepPos + KEY_SEPARATOR.length()).trim();
+        final boolean folded = value.equals(ScalarStyle.FOLDED.indicator);
+        if (folded || value.equals(ScalarStyle.LITERAL.indicator)) {
+          value = cursor.blockScalar(indent, folded);
+        } else {
+          cursor.advance();
+        }
+        writtenUnder.computeIfAbsent(name, key -> new HashSet<String>()).add(unquote(value));
+      }
+
+      ArrayList<String> missing = new ArrayList<String>();
+      LinkedHashMap<String, String[]> service = new LinkedHashMap<String, String[]>();
+      scanClassic(new File(ctx.inFileName), classic, new HashSet<String>(), service, written, missing);
+      for (String[] setting : service.values()) {
+        checkSetting(SERVICEYAML, setting, written, missing);
+      }
+      for (int idx = 0; idx < Math.min(missing.size(), MAX_REPORTED); idx++) {
+        err("Verification of " + ctx.outFileName + " against the classic source failed at " + missing.get(idx));
+      }
+      if (missing.size() > MAX_REPORTED) {
+        err("... and " + (missing.size() - MAX_REPORTED) + " further settings missing from " + ctx.outFileName);
+      }
+      if (missing.isEmpty()) {
+        info("Verified " + ctx.outFileName + " against the classic source");
+      }
+      if (ctx.metrics != null) {
+        ctx.metrics.verifyNanos += System.nanoTime() - verifyStart;
+        ctx.metrics.mismatches += missing.size();
+      }
+      return missing.size();
+    }
+
+    /**
+     * @param name a setting name as written
+     * @return the name in lower case without underscores
+     */
+    private static String settingName(String name) {
+      name = name.trim();
+      for (int idx = 0; idx < name.length(); idx++) {
+        final char chr = name.charAt(idx);
+        if ((chr == '_') || Character.isUpperCase(chr)) {
+          return name.replace("_", "").toLowerCase();
+        }
+      }
+      return name;
+    }
+
+    /**
+     * @param type the classic section
+     * @return the top level YAML entry the section's settings are checked
+     *         against, or null if they aren't checked
+     */
+    private static String checkedUnder(PluginType type) {
+      if (type == null) {
+        return null;
+      }
+      switch (type) {
+        case INPUT:
+        case FILTER:
+        case OUTPUT:
+          return PIPELINE;
+        case SERVICE:
+        case PARSER:
+        case CUSTOM:
+          return type.yamlLabel;
+        default:
+          return null;
+      }
+    }
+
+    /**
+     * Reads a classic file a line at a time, checking each setting is in the
+     * YAML - the service's settings are collected to be checked once every file
+     * has been read. Included files are read where they're included
+     */
+    private static void scanClassic(File file, BufferedReader classic, HashSet<String> reading,
+        LinkedHashMap<String, String[]> service, HashMap<String, HashMap<String, HashSet<String>>> written,
+        ArrayList<String> missing) throws IOException {
+      reading.add(canonicalPath(file));
+      String top = null;
+      String line = null;
+      int lineNo = 0;
+      while ((line = classic.readLine()) != null) {
+        lineNo++;
+        line = line.trim();
+        if (line.isEmpty() || (line.charAt(0) == COMMENT_START)) {
+          continue;
+        }
+        if (line.regionMatches(true, 0, INCLUDECLASSIC, 0, INCLUDECLASSIC.length())) {
+          if (resolveIncludes) {
+            for (File included : includeTargets(line.substring(INCLUDECLASSIC.length()).trim(), file)) {
+              if (!reading.contains(canonicalPath(included))) {
+                try (BufferedReader includedReader = new BufferedReader(new FileReader(included))) {
+                  scanClassic(included, includedReader, reading, service, written, missing);
+                }
+              }
+            }
+          }
+          continue;
+        }
+        if ((line.charAt(0) == '[') && (line.charAt(line.length() - 1) == ']')) {
+          top = checkedUnder(SectionTable.classify(line));
+          continue;
+        }
+        int sepPos = 0;
+        while ((sepPos < line.length()) && !Character.isWhitespace(line.charAt(sepPos))) {
+          sepPos++;
+        }
+        if ((top == null) || (sepPos == line.length()) || (line.charAt(0) == '@')
+            || ((line.indexOf('@') > 0) && line.toLowerCase().contains(INCLUDECLASSIC))) {
+          continue;
+        }
+        final String[] setting = { line.substring(0, sepPos), unquote(line.substring(sepPos).trim()), file.getPath(),
+            Integer.toString(lineNo) };
+        if (top.equals(SERVICEYAML)) {
+          service.put(settingName(setting[0]), setting);
+        } else {
+          checkSetting(top, setting, written, missing);
+        }
+      }
+      reading.remove(canonicalPath(file));
+    }
+
+    /**
+     * @param top     the top level YAML entry the setting belongs under
+     * @param setting the name, value, file and line number of the setting in
+     *                the classic source
+     */
+    private static void checkSetting(String top, String[] setting,
+        HashMap<String, HashMap<String, HashSet<String>>> written, ArrayList<String> missing) {
+      final String name = settingName(setting[0]);
+      if (useProcessors && top.equals(PIPELINE) && (settingName(ProcessorRewrite.MATCH_ATTRS[0]).equals(name)
+          || settingName(ProcessorRewrite.MATCH_ATTRS[1]).equals(name))) {
+        return;
+      }
+      final HashMap<String, HashSet<String>> writtenUnder = written.get(top);
+      final HashSet<String> values = (writtenUnder == null) ? null : writtenUnder.get(name);
+      final boolean found = (values != null) && ((tuningMode == TuningMode.FIX) || values.contains(setting[1]));
+      if (!found) {
+        missing.add("classic line " + setting[3] + " of " + setting[2] + ": " + setting[0] + " " + setting[1]
+            + " isn't in the YAML's " + top);
+      }
+    }
+  }
+
+  /**
+   * Converts the classic files held in a zip, jar or tar bundle without
+   * extracting them. The bundle is read once, from front to back, and each
+   * selected entry is parsed from memory with the byte level lexer and its
+   * YAML written straight into the output archive, so we never touch the disk
+   * for the individual files. The output archive uses the format given by its
+   * extension, and its entries keep the folders of the bundle. Entries not
+   * selected by the globs are left out of the output.
+   */
+  static final class ArchiveConversion {
+    private static final String ZIP_EXTN = ".zip";
+    private static final String JAR_EXTN = ".jar";
+    private static final String TAR_EXTN = ".tar";
+    private static final String TAR_GZ_EXTN = ".tar.gz";
+    private static final String TGZ_EXTN = ".tgz";
+    private static final String OUTPUT_SUFFIX = "-yaml";
+
+    private final Path archive;
+    private final Path output;
+    private final ArrayList<PathMatcher> includes;
+    private final ArrayList<PathMatcher> excludes;
+    private final ArrayList<ConversionMetrics> metrics = new ArrayList<ConversionMetrics>();
+    private int converted = 0;
+    private int failed = 0;
+
+    /**
+     * @param archive    the bundle to convert
+     * @param output     the archive to write
+     * @param includeStr comma separated globs of the entries to convert, null
+     *                   for the default
+     * @param excludeStr comma separated globs of the entries to leave, may be
+     *                   null
+     */
+    ArchiveConversion(Path archive, Path output, String includeStr, String excludeStr) {
+      this.archive = archive;
+      this.output = output;
+      this.includes = TreeConversion.matchers((includeStr == null) ? DEFAULT_TREE_INCLUDE : includeStr);
+      this.excludes = TreeConversion.matchers(excludeStr);
+    }
+
+    /**
+     * Works out the default output archive, e.g. configs.tar.gz becomes
+     * configs-yaml.tar.gz
+     * 
+     * @param archive the bundle being converted
+     * @return the archive to write
+     */
+    static Path defaultOutput(Path archive) {
+      final String name = archive.getFileName().toString();
+      final String extn = extension(name);
+      return archive.resolveSibling(name.substring(0, name.length() - extn.length()) + OUTPUT_SUFFIX + extn);
+    }
+
+    /**
+     * @param name the archive's file name
+     * @return the recognised extension, or an empty string
+     */
+    static String extension(String name) {
+      final String lower = name.toLowerCase();
+      for (String extn : new String[] { TAR_GZ_EXTN, TGZ_EXTN, TAR_EXTN, ZIP_EXTN, JAR_EXTN }) {
+        if (lower.endsWith(extn)) {
+          return name.substring(name.length() - extn.length());
+        }
+      }
+      return "";
+    }
+
+    private static boolean isTar(String extn) {
+      return !extn.isEmpty() && !extn.equalsIgnoreCase(ZIP_EXTN) && !extn.equalsIgnoreCase(JAR_EXTN);
+    }
+
+    private static boolean isGzip(String extn) {
+      return extn.equalsIgnoreCase(TAR_GZ_EXTN) || extn.equalsIgnoreCase(TGZ_EXTN);
+    }
+
+    /**
+     * Reads the bundle, writing the converted entries to the output archive
+     * 
+     * @return the number of entries converted
+     */
+    int convert() {
+      final String inExtn = extension(archive.getFileName().toString());
+      final String outExtn = extension(output.getFileName().toString());
+      if (inExtn.isEmpty() || outExtn.isEmpty()) {
+        err("Archives must be zip, jar, tar, tar.gz or tgz files - can't convert " + archive + " to " + output);
+        return 0;
+      }
+      if (resolveIncludes) {
+        info("Includes can't be resolved within a bundle, they will be kept as includes");
+        resolveIncludes = false;
+      }
+      final long batchStart = System.nanoTime();
+      info("Converting the bundle " + archive + " into " + output);
+      InputStream in = null;
+      ArchiveSink sink = null;
+      try {
+        in = new BufferedInputStream(Files.newInputStream(archive));
+        if (isGzip(inExtn)) {
+          in = new GZIPInputStream(in);
+        }
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(output));
+        if (isGzip(outExtn)) {
+          out = new GZIPOutputStream(out);
+        }
+        sink = isTar(outExtn) ? new TarSink(out) : new ZipSink(new ZipOutputStream(out));
+
+        if (isTar(inExtn)) {
+          TarReader tar = new TarReader(in);
+          while (tar.next()) {
+            if (tar.isFile() && selected(tar.name())) {
+              convertEntry(tar.name(), tar.content(), sink);
+            }
+          }
+        } else {
+          ZipInputStream zip = new ZipInputStream(in);
+          ZipEntry entry = null;
+          while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory() && selected(entry.getName())) {
+              convertEntry(entry.getName(), zip.readAllBytes(), sink);
+            }
+          }
+        }
+        sink.close();
+        sink = null;
+      } catch (IOException | RuntimeException archiveErr) {
+        err("Unable to convert the bundle " + archive + " : " + archiveErr);
+      } finally {
+        try {
+          if (sink != null) {
+            sink.close();
+          }
+          if (in != null) {
+            in.close();
+          }
+        } catch (IOException ioErr) {
+          err("Error closing archives: " + ioErr.getMessage());
+        }
+      }
+
+      info("Converted " + converted + " entries from " + archive + ", " + failed + " failed");
+      if (metricsFolder != null) {
+        ConversionMetrics.writeBatch(metricsFolder, metrics, System.nanoTime() - batchStart);
+      }
+      return converted;
+    }
+
+    /**
+     * @param name the entry's name within the archive, tar files often have
+     *             names starting ./ so the name is normalised before matching
+     * @return true if the entry should be converted
+     */
+    boolean selected(String name) {
+      Path relative = Paths.get(name).normalize();
+      if (relative.isAbsolute()) {
+        relative = relative.getRoot().relativize(relative);
+      }
+      return TreeConversion.matches(includes, relative) && !TreeConversion.matches(excludes, relative);
+    }
+
+    /**
+     * Parses one entry and adds its YAML to the output. The YAML is generated
+     * in memory first, so a failed conversion doesn't leave a partial entry in
+     * the output.
+     * 
+     * @param name    the entry's name within the archive
+     * @param content the classic configuration
+     * @param sink    the output archive
+     * @throws IOException if the output archive can't be written
+     */
+    private void convertEntry(String name, byte[] content, ArchiveSink sink) throws IOException {
+      ConversionContext ctx = new ConversionContext(name);
+      ctx.bind();
+      try {
+        if (metricsFolder != null) {
+          ctx.metrics = new ConversionMetrics(name);
+          ctx.metrics.bytesIn = content.length;
+        }
+        info("Entry:" + name + " --> " + ctx.outFileName);
+        final long parseStart = System.nanoTime();
+        consumeClassicFile(ctx, new ClassicLexer(ByteBuffer.wrap(content)));
+        preparePipeline(ctx);
+        final long emitStart = System.nanoTime();
+        ByteArrayOutputStream yaml = new ByteArrayOutputStream(content.length + (content.length >> 1));
+        BufferedWriter yamlWriter = new BufferedWriter(new OutputStreamWriter(yaml, StandardCharsets.UTF_8));
+        writePipelineOutput(ctx, yamlWriter);
+        yamlWriter.flush();
+        final long writeStart = System.nanoTime();
+        sink.add(ctx.outFileName, yaml.toByteArray());
+        ctx.converted = true;
+        converted++;
+        if (ctx.metrics != null) {
+          ctx.metrics.parseNanos = emitStart - parseStart;
+          ctx.metrics.emitNanos = writeStart - emitStart;
+          ctx.metrics.writeNanos = System.nanoTime() - writeStart;
+          ctx.metrics.bytesOut = yaml.size();
+          ctx.metrics.collect(ctx);
+        }
+        if (verifyOutput) {
+          YamlVerifier.verify(ctx, new BufferedReader(new InputStreamReader(
+              new ByteArrayInputStream(yaml.toByteArray()), StandardCharsets.UTF_8)));
+          YamlVerifier.verifySource(ctx,
+              new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)),
+              new BufferedReader(new InputStreamReader(new ByteArrayInputStream(yaml.toByteArray()),
+                  StandardCharsets.UTF_8)));
+        }
+      } catch (RuntimeException convErr) {
+        err("Unable to convert " + name + " : " + convErr);
+        failed++;
+      } finally {
+        ctx.unbind();
+        if (ctx.metrics != null) {
+          metrics.add(ctx.metrics);
+        }
+      }
+    }
+  }
+
+  /**
+   * Where the converted entries of a bundle are written
+   */
+  interface ArchiveSink extends Closeable {
+    /**
+     * @param name    the entry's name
+     * @param content the entry's content
+     * @throws IOException if the entry can't be written
+     */
+    void add(String name, byte[] content) throws IOException;
+  }
+
+  /**
+   * Writes the converted entries to a zip (or jar)
+   */
+  static final class ZipSink implements ArchiveSink {
+    private final ZipOutputStream zip;
+
+    ZipSink(ZipOutputStream zip) {
+      this.zip = zip;
+    }
+
+    @Override
+    public void add(String name, byte[] content) throws IOException {
+      zip.putNextEntry(new ZipEntry(name));
+      zip.write(content);
+      zip.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+      zip.close();
+    }
+  }
+
+  /**
+   * The layout of the tar headers we read and write. Tar files are a series of
+   * 512 byte blocks, each entry being a header block followed by the content
+   * padded to a whole block, and the archive ending with two empty blocks.
+   * Only the fields we need are described; numbers are octal ASCII.
+   */
+  static final class TarFormat {
+    static final int BLOCK = 512;
+    static final int NAME_OFFSET = 0;
+    static final int NAME_LENGTH = 100;
+    static final int MODE_OFFSET = 100;
+    static final int UID_OFFSET = 108;
+    static final int GID_OFFSET = 116;
+    static final int SIZE_OFFSET = 124;
+    static final int SIZE_LENGTH = 12;
+    static final int MTIME_OFFSET = 136;
+    static final int CHECKSUM_OFFSET = 148;
+    static final int CHECKSUM_LENGTH = 8;
+    static final int TYPE_OFFSET = 156;
+    static final int MAGIC_OFFSET = 257;
+    static final int PREFIX_OFFSET = 345;
+    static final int PREFIX_LENGTH = 155;
+    static final byte TYPE_FILE = '0';
+    static final byte TYPE_OLD_FILE = 0;
+    static final byte TYPE_GNU_LONG_NAME = 'L';
+    static final byte TYPE_PAX = 'x';
+    static final String GNU_LONG_LINK = "././@LongLink";
+    static final String USTAR_MAGIC = "ustar";
+    static final String PAX_PATH = "path";
+
+    private TarFormat() {
+    }
+
+    /**
+     * @param size the size of an entry's content
+     * @return the number of bytes needed to pad the content to a whole block
+     */
+    static int padding(long size) {
+      return (int) ((BLOCK - (size % BLOCK)) % BLOCK);
+    }
+  }
+
+  /**
+   * A small reader for the tar formats produced by the common tools (ustar, GNU
+   * and POSIX/pax) - just enough to find the regular files and their names
+   */
+  static final class TarReader {
+    private final InputStream in;
+    private final byte[] header = new byte[TarFormat.BLOCK];
+    private String name = null;
+    private byte type = 0;
+    private long size = 0;
+    private boolean contentRead = false;
+
+    TarReader(InputStream in) {
+      this.in = in;
+    }
+
+    /**
+     * Moves to the next entry, skipping any content of the current entry that
+     * hasn't been read
+     * 
+     * @return false at the end of the archive
+     * @throws IOException if the archive can't be read or is truncated
+     */
+    boolean next() throws IOException {
+      if ((name != null) && !contentRead) {
+        skip(size + TarFormat.padding(size));
+      }
+      String longName = null;
+      while (true) {
+        if (in.readNBytes(header, 0, TarFormat.BLOCK) < TarFormat.BLOCK || header[0] == 0) {
+          name = null;
+          return false;
+        }
+        type = header[TarFormat.TYPE_OFFSET];
+        size = octal(TarFormat.SIZE_OFFSET, TarFormat.SIZE_LENGTH);
+        contentRead = false;
+        if (type == TarFormat.TYPE_GNU_LONG_NAME) {
+          longName = trimNul(new String(readContent(), StandardCharsets.UTF_8));
+        } else if (type == TarFormat.TYPE_PAX) {
+          String paxName = paxPath(new String(readContent(), StandardCharsets.UTF_8));
+          if (paxName != null) {
+            longName = paxName;
+          }
+        } else {
+          name = (longName != null) ? longName : headerName();
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return the name of the current entry
+     */
+    String name() {
+      return name;
+    }
+
+    /**
+     * @return true if the current entry is a regular file
+     */
+    boolean isFile() {
+      return (type == TarFormat.TYPE_FILE) || (type == TarFormat.TYPE_OLD_FILE);
+    }
+
+    /**
+     * @return the content of the current entry
+     * @throws IOException if the archive can't be read or is truncated
+     */
+    byte[] content() throws IOException {
+      return readContent();
+    }
+
+    private byte[] readContent() throws IOException {
+      if (size > Integer.MAX_VALUE - TarFormat.BLOCK) {
+        throw new IOException("Tar entry too large: " + size);
+      }
+      byte[] content = in.readNBytes((int) size);
+      if (content.length < size) {
+        throw new IOException("Tar archive is truncated");
+      }
+      skip(TarFormat.padding(size));
+      contentRead = true;
+      return content;
+    }
+
+    private void skip(long count) throws IOException {
+      in.skipNBytes(count);
+    }
+
+    private String headerName() {
+      String entryName = field(TarFormat.NAME_OFFSET, TarFormat.NAME_LENGTH);
+      if (field(TarFormat.MAGIC_OFFSET, TarFormat.USTAR_MAGIC.length()).equals(TarFormat.USTAR_MAGIC)) {
+        String prefix = field(TarFormat.PREFIX_OFFSET, TarFormat.PREFIX_LENGTH);
+        if (!prefix.isEmpty()) {
+          entryName = prefix + "/" + entryName;
+        }
+      }
+      return entryName;
+    }
+
+    private String field(int offset, int length) {
+      int end = offset;
+      while ((end < offset + length) && (header[end] != 0)) {
+        end++;
+      }
+      return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private long octal(int offset, int length) throws IOException {
+      String value = field(offset, length).trim();
+      if (value.isEmpty()) {
+        return 0;
+      }
+      try {
+        return Long.parseLong(value, 8);
+      } catch (NumberFormatException numErr) {
+        throw new IOException("Tar header has an invalid number: " + value);
+      }
+    }
+
+    private static String trimNul(String str) {
+      final int nul = str.indexOf('\0');
+      return (nul < 0) ? str : str.substring(0, nul);
+    }
+
+    /**
+     * Pax records are "length key=value\n"
+     * 
+     * @param records the pax extended header
+     * @return the path record's value, or null if there isn't one
+     */
+    private static String paxPath(String records) {
+      for (String record : records.split("\n")) {
+        final int space = record.indexOf(' ');
+        final int equals = record.indexOf('=');
+        if ((space > 0) && (equals > space)
+            && record.substring(space + 1, equals).equals(TarFormat.PAX_PATH)) {
+          return record.substring(equals + 1);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Writes the converted entries to a tar, using GNU long name entries for
+   * names that don't fit the header
+   */
+  static final class TarSink implements ArchiveSink {
+    private static final String FILE_MODE = "0000644";
+    private static final String ZERO_ID = "0000000";
+    private static final String GNU_MAGIC = "ustar  ";
+
+    private final OutputStream out;
+    private final long mtime = System.currentTimeMillis() / 1000;
+
+    TarSink(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void add(String name, byte[] content) throws IOException {
+      byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      if (nameBytes.length > TarFormat.NAME_LENGTH) {
+        byte[] longName = Arrays.copyOf(nameBytes, nameBytes.length + 1);
+        writeHeader(TarFormat.GNU_LONG_LINK.getBytes(StandardCharsets.UTF_8), longName.length,
+            TarFormat.TYPE_GNU_LONG_NAME);
+        writeContent(longName);
+        nameBytes = Arrays.copyOf(nameBytes, TarFormat.NAME_LENGTH);
+      }
+      writeHeader(nameBytes, content.length, TarFormat.TYPE_FILE);
+      writeContent(content);
+    }
+
+    private void writeHeader(byte[] name, long size, byte type) throws IOException {
+      byte[] header = new byte[TarFormat.BLOCK];
+      System.arraycopy(name, 0, header, TarFormat.NAME_OFFSET, name.length);
+      put(header, TarFormat.MODE_OFFSET, FILE_MODE);
+      put(header, TarFormat.UID_OFFSET, ZERO_ID);
+      put(header, TarFormat.GID_OFFSET, ZERO_ID);
+      put(header, TarFormat.SIZE_OFFSET, String.format("%011o", size));
+      put(header, TarFormat.MTIME_OFFSET, String.format("%011o", mtime));
+      header[TarFormat.TYPE_OFFSET] = type;
+      put(header, TarFormat.MAGIC_OFFSET, GNU_MAGIC);
+      Arrays.fill(header, TarFormat.CHECKSUM_OFFSET, TarFormat.CHECKSUM_OFFSET + TarFormat.CHECKSUM_LENGTH,
+          (byte) ' ');
+      long checksum = 0;
+      for (byte part : header) {
+        checksum += part & 0xff;
+      }
+      put(header, TarFormat.CHECKSUM_OFFSET, String.format("%06o", checksum));
+      header[TarFormat.CHECKSUM_OFFSET + 6] = 0;
+      out.write(header);
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+      System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private void writeContent(byte[] content) throws IOException {
+      out.write(content);
+      out.write(new byte[TarFormat.padding(content.length)]);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.write(new byte[TarFormat.BLOCK * 2]);
+      out.close();
+    }
+  }
+
+  /**
+   * Tokenizes a classic file directly from its bytes, typically a memory mapped
+   * file. Rather than creating a String for every line (plus trimmed and lower
+   * case copies) we track the trimmed bounds of the current line within the
+   * buffer and compare the section headers and @include directive against the
+   * bytes. Strings are only created for the attribute names and values we keep,
+   * or when a line needs to be logged. The bytes are treated as UTF-8, and the
+   * line breaks and trimming follow the same rules as BufferedReader.readLine
+   * and String.trim so the result is the same as the reader based path.
+   */
+  static class ClassicLexer {
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    private static final byte SPACE = ' ';
+    private static final byte COMMENT = '#';
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int pos = 0;
+    private int lineNo = 0;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Creates the lexer for the content of the buffer between its position and
+     * limit
+     * 
+     * @param buffer the bytes of the classic file
+     */
+    ClassicLexer(ByteBuffer buffer) {
+      this(buffer, 0);
+    }
+
+    /**
+     * Creates the lexer for part of a file, so the line numbers reported carry
+     * on from the preceding part
+     * 
+     * @param buffer          the bytes of this part of the classic file
+     * @param precedingLines the number of lines ahead of this part
+     */
+    ClassicLexer(ByteBuffer buffer, int precedingLines) {
+      this.buffer = buffer;
+      this.pos = buffer.position();
+      this.limit = buffer.limit();
+      this.lineNo = precedingLines;
+    }
+
+    /**
+     * @return the offset in the buffer of the start of the next line
+     */
+    int position() {
+      return pos;
+    }
+
+    /**
+     * Moves to the next line, working out the trimmed bounds of the line
+     * 
+     * @return false once there are no more lines
+     */
+    boolean nextLine() {
+      if (pos >= limit) {
+        return false;
+      }
+      int start = pos;
+      int end = pos;
+      while ((end < limit) && (buffer.get(end) != LF) && (buffer.get(end) != CR)) {
+        end++;
+      }
+      pos = end;
+      if (pos < limit) {
+        if ((buffer.get(pos) == CR) && (pos + 1 < limit) && (buffer.get(pos + 1) == LF)) {
+          pos += 2;
+        } else {
+          pos++;
+        }
+      }
+      lineNo++;
+
+      while ((start < end) && ((buffer.get(start) & 0xff) <= SPACE)) {
+        start++;
+      }
+      while ((end > start) && ((buffer.get(end - 1) & 0xff) <= SPACE)) {
+        end--;
+      }
+      lineStart = start;
+      lineEnd = end;
+      return true;
+    }
+
+    /**
+     * @return the line number of the current line
+     */
+    int lineNo() {
+      return lineNo;
+    }
+
+    /**
+     * @return true if the current line has nothing other than whitespace
+     */
+    boolean isEmpty() {
+      return lineStart == lineEnd;
+    }
+
+    /**
+     * ASCII lower casing of a byte, all we need for comparing to the keywords
+     */
+    private static int lower(int b) {
+      if ((b >= 'A') && (b <= 'Z')) {
+        return b + ('a' - 'A');
+      }
+      return b;
+    }
+
+    /**
+     * Compares the bytes at the given offset against an ASCII keyword ignoring
+     * case
+     */
+    private boolean regionMatches(int offset, String keyword) {
+      final int len = keyword.length();
+      if (offset + len > lineEnd) {
+        return false;
+      }
+      for (int idx = 0; idx < len; idx++) {
+        if (lower(buffer.get(offset + idx) & 0xff) != lower(keyword.charAt(idx))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @param keyword ASCII keyword such as a section header
+     * @return true if the whole trimmed line matches the keyword ignoring case
+     */
+    boolean matchesIgnoreCase(String keyword) {
+      return ((lineEnd - lineStart) == keyword.length()) && regionMatches(lineStart, keyword);
+    }
+
+    /**
+     * @param keyword ASCII keyword such as the include directive
+     * @return true if the trimmed line starts with the keyword ignoring case
+     */
+    boolean startsWithIgnoreCase(String keyword) {
+      return regionMatches(lineStart, keyword);
+    }
+
+    /**
+     * @param keyword ASCII keyword such as the include directive
+     * @return true if the keyword appears anywhere in the line ignoring case
+     */
+    boolean containsIgnoreCase(String keyword) {
+      final int first = lower(keyword.charAt(0));
+      final int last = lineEnd - keyword.length();
+      for (int idx = lineStart; idx <= last; idx++) {
+        if ((lower(buffer.get(idx) & 0xff) == first) && regionMatches(idx, keyword)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return true if the trimmed line is bracketed like a section header
+     */
+    boolean isHeaderShape() {
+      return (lineEnd > lineStart)
+          && SectionTable.isHeaderShape(lineEnd - lineStart, buffer.get(lineStart), buffer.get(lineEnd - 1));
+    }
+
+    /**
+     * The byte level equivalent of SectionTable.classify, hashing the line's
+     * bytes to find the candidate headers
+     * 
+     * @return the section type, or null if the line isn't a known header
+     */
+    PluginType classify() {
+      final int length = lineEnd - lineStart;
+      if ((length > SectionTable.MAX_HEADER_LENGTH) || !isHeaderShape()) {
+        return null;
+      }
+      int hash = 0;
+      for (int idx = lineStart; idx < lineEnd; idx++) {
+        hash = SectionTable.hash(hash, buffer.get(idx) & 0xff);
+      }
+      for (int slot = SectionTable.slot(hash); SectionTable.at(slot) != null; slot = SectionTable.next(slot)) {
+        if (matchesIgnoreCase(SectionTable.at(slot).classicHeader)) {
+          return SectionTable.at(slot);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Creates a string from part of the current line, trimming it as we go
+     * 
+     * @param from start offset in the buffer
+     * @param to   end offset (exclusive) in the buffer
+     * @return the trimmed string
+     */
+    private String decode(int from, int to) {
+      while ((from < to) && ((buffer.get(from) & 0xff) <= SPACE)) {
+        from++;
+      }
+      while ((to > from) && ((buffer.get(to - 1) & 0xff) <= SPACE)) {
+        to--;
+      }
+      final int len = to - from;
+      if (len > scratch.length) {
+        scratch = new byte[Math.max(len, scratch.length * 2)];
+      }
+      buffer.get(from, scratch, 0, len);
+      return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Only used when we need to log or report the line
+     * 
+     * @return the trimmed line as a string
+     */
+    String line() {
+      return decode(lineStart, lineEnd);
+    }
+
+    /**
+     * Splits the current line into the attribute name and value, adding them to
+     * the plugin. This mirrors Plugin.add, but only creates strings for the name
+     * and value.
+     * 
+     * @param plugin the plugin to receive the attribute
+     */
+    void addAttributeTo(Plugin plugin) {
+      boolean hasInclusion = containsIgnoreCase(INCLUDECLASSIC);
+      if (hasInclusion) {
+        Plugin.checkForInclusion(line(), lineNo);
+      }
+      int sepPos = -1;
+      if (buffer.get(lineStart) == COMMENT) {
+        sepPos = lineStart + 1;
+      } else {
+        for (int idx = lineStart; idx < lineEnd; idx++) {
+          if (buffer.get(idx) == SPACE) {
+            sepPos = idx;
+            break;
+          }
+        }
+      }
+      if (sepPos > lineStart) {
+        int valueStart = sepPos;
+        while ((valueStart < lineEnd) && ((buffer.get(valueStart) & 0xff) <= SPACE)) {
+          valueStart++;
+        }
+        if (lineEnd - valueStart >= ValueSlice.MIN_SIZE) {
+          // large values stay in the buffer until they're written
+          plugin.addAttribute(decode(lineStart, sepPos), new ValueSlice(buffer, valueStart, lineEnd - valueStart),
+              hasInclusion, lineNo);
+        } else {
+          plugin.addAttribute(decode(lineStart, sepPos), decode(valueStart, lineEnd), hasInclusion, lineNo);
+        }
+      } else {
+        info("Cant process attribute:" + line());
+      }
+    }
+  }
 
   /**
-   * We need the rewepresentation of services to differ from inputs, outputs and
-   * filters. The level of YAML indentation is different, and we don't have a name
-   * attribute
+   * Parses a single large classic file using several cores. The file is split
+   * into chunks that each start at a section header (other than [NODE], which
+   * belongs to the preceding upstream), and the chunks are parsed on the fork
+   * join pool. Each chunk is parsed the same way as an include fragment, so its
+   * plugins are collected in file order. Those are then stored into the
+   * conversion one chunk after another, which means merging services,
+   * attaching nodes and resolving includes happen exactly as they would when
+   * reading the file sequentially, and the YAML produced is identical. A first
+   * parallel pass counts the lines in each chunk so the line numbers reported
+   * are those of the file. Log messages from the chunks can be interleaved.
    */
-  static class IncludesPlugin extends SpecialPlugin {
+  static final class ParallelParser {
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+
     /**
-     * Standard construct which will pushdown to the basse class the type of okugin
+     * A part of the file, and once parsed the context holding its plugins
      */
-    public IncludesPlugin() {
-      super(PluginType.INCLUDES);
+    static final class Chunk {
+      final int start;
+      final int end;
+      int lineCount = 0;
+      int precedingLines = 0;
+      ConversionContext parsed = null;
+
+      Chunk(int start, int end) {
+        this.start = start;
+        this.end = end;
+      }
     }
 
     /**
-     * Constructor for the includes variant - which allows us to creat
+     * Splits the range of chunks in half until there is a single chunk, which is
+     * then either line counted or parsed
+     */
+    private static final class ChunkTask extends RecursiveAction {
+      /** tasks are only ever run in this JVM, never serialized */
+      private static final long serialVersionUID = 1L;
+
+      private final transient ConversionContext ctx;
+      private final transient ByteBuffer buffer;
+      private final File inFile;
+      private final transient Chunk[] chunks;
+      private final int from;
+      private final int to;
+      private final boolean countLines;
+
+      ChunkTask(ConversionContext ctx, ByteBuffer buffer, File inFile, Chunk[] chunks, int from, int to,
+          boolean countLines) {
+        this.ctx = ctx;
+        this.buffer = buffer;
+        this.inFile = inFile;
+        this.chunks = chunks;
+        this.from = from;
+        this.to = to;
+        this.countLines = countLines;
+      }
+
+      @Override
+      protected void compute() {
+        if (to - from > 1) {
+          final int mid = (from + to) >>> 1;
+          invokeAll(new ChunkTask(ctx, buffer, inFile, chunks, from, mid, countLines),
+              new ChunkTask(ctx, buffer, inFile, chunks, mid, to, countLines));
+        } else if (countLines) {
+          chunks[from].lineCount = ParallelParser.countLines(buffer, chunks[from].start, chunks[from].end);
+        } else {
+          chunks[from].parsed = parseChunk(ctx, buffer, inFile, chunks[from]);
+        }
+      }
+    }
+
+    private ParallelParser() {
+    }
+
+    /**
+     * Parses the mapped file into the conversion
      * 
-     * @param line   the line of source to be processed
-     * @param lineNo The lineNo reflects where this attribute originated from
+     * @param ctx    the conversion to populate with the plugins found
+     * @param mapped the content of the classic file
+     * @param inFile the classic file
      */
-    public IncludesPlugin(String line, int lineNo) {
-      super(PluginType.INCLUDES);
-      add(line, lineNo);
+    static void parse(ConversionContext ctx, ByteBuffer mapped, File inFile) {
+      final ForkJoinPool pool = ForkJoinPool.commonPool();
+      final Chunk[] chunks = split(mapped, pool.getParallelism() * CHUNKS_PER_THREAD);
+      if (chunks.length == 0) {
+        return;
+      }
+      info("Parsing " + inFile.getPath() + " in " + chunks.length + " parts");
+      if (chunks.length > 1) {
+        pool.invoke(new ChunkTask(ctx, mapped, inFile, chunks, 0, chunks.length, true));
+        for (int idx = 1; idx < chunks.length; idx++) {
+          chunks[idx].precedingLines = chunks[idx - 1].precedingLines + chunks[idx - 1].lineCount;
+        }
+      }
+      pool.invoke(new ChunkTask(ctx, mapped, inFile, chunks, 0, chunks.length, false));
+
+      ctx.lineCount = chunks[chunks.length - 1].parsed.lineCount;
+      for (Chunk chunk : chunks) {
+        final ConversionContext parsed = chunk.parsed;
+        if (parsed.includes != null) {
+          if (ctx.includes == null) {
+            ctx.includes = parsed.includes;
+          } else {
+            ctx.includes.attributes.addAll(parsed.includes.attributes);
+          }
+        }
+        for (Plugin plugin : parsed.fragment.plugins) {
+          if (plugin.pluginType == PluginType.INCLUDES) {
+            IncludesPlugin directive = (IncludesPlugin) plugin;
+            resolveTopLevelInclude(ctx, directive.directive, directive.lineNo);
+          } else {
+            plugin.stored = false;
+            storePlugin(ctx, plugin);
+          }
+        }
+      }
     }
 
     /**
-     * Provide identation that reflects the service block. Using space characters as
-     * YAML doesn't allow tab characters
+     * Works out the chunks, each chunk being at least the minimum size and
+     * ending where the next section starts
      * 
-     * @return the indentation string
+     * @param buffer     the file content
+     * @param chunkCount the number of chunks we'd like
+     * @return the chunks in file order
      */
-    @Override
-    String indenter(int depth) {
-      return "  ";
+    static Chunk[] split(ByteBuffer buffer, int chunkCount) {
+      final int limit = buffer.limit();
+      final int step = Math.max(MIN_CHUNK_SIZE, (limit - buffer.position()) / Math.max(chunkCount, 1));
+      ArrayList<Chunk> chunks = new ArrayList<Chunk>(chunkCount);
+      int start = buffer.position();
+      while (start < limit) {
+        final int end = nextBoundary(buffer, (int) Math.min((long) start + step, limit));
+        chunks.add(new Chunk(start, end));
+        start = end;
+      }
+      return chunks.toArray(new Chunk[chunks.size()]);
     }
 
     /**
-     * We don't want to handle a name attribute in a manner that is different to
-     * other service attributes.
+     * Finds the start of the first line at or after the offset that is a
+     * section header we can split at
+     * 
+     * @param buffer the file content
+     * @param from   the offset to search from
+     * @return the offset of the header line, or the limit if there isn't one
      */
-    @Override
-    String writePrefix() {
-      return "";
+    private static int nextBoundary(ByteBuffer buffer, int from) {
+      final int limit = buffer.limit();
+      int pos = from;
+      while ((pos < limit) && !isLineStart(buffer, pos)) {
+        pos++;
+      }
+      if (pos >= limit) {
+        return limit;
+      }
+      ClassicLexer probe = new ClassicLexer(buffer.duplicate().position(pos).limit(limit));
+      int lineStart = probe.position();
+      while (probe.nextLine()) {
+        if (!probe.isEmpty()) {
+          PluginType section = probe.classify();
+          if ((section != null) && (section != PluginType.NODE)) {
+            return lineStart;
+          }
+        }
+        lineStart = probe.position();
+      }
+      return limit;
+    }
+
+    /**
+     * A line starts after a line feed, or a carriage return that isn't part of
+     * a CR LF pair
+     */
+    private static boolean isLineStart(ByteBuffer buffer, int pos) {
+      final byte previous = buffer.get(pos - 1);
+      return (previous == ClassicLexer.LF) || ((previous == ClassicLexer.CR) && (buffer.get(pos) != ClassicLexer.LF));
+    }
+
+    /**
+     * Counts the lines in the same way as the lexer breaks them up
+     * 
+     * @param buffer the file content
+     * @param start  the offset of the first byte of the chunk
+     * @param end    the offset after the last byte of the chunk
+     * @return the number of lines
+     */
+    static int countLines(ByteBuffer buffer, int start, int end) {
+      int count = 0;
+      for (int idx = start; idx < end; idx++) {
+        final byte chr = buffer.get(idx);
+        if ((chr == ClassicLexer.LF)
+            || ((chr == ClassicLexer.CR) && ((idx + 1 >= end) || (buffer.get(idx + 1) != ClassicLexer.LF)))) {
+          count++;
+        }
+      }
+      if (end > start) {
+        final byte last = buffer.get(end - 1);
+        if ((last != ClassicLexer.LF) && (last != ClassicLexer.CR)) {
+          count++;
+        }
+      }
+      return count;
     }
 
+    /**
+     * Parses one chunk into a context that collects its plugins in order. The
+     * conversion's context is bound while doing so, so any logging goes to its
+     * report
+     */
+    private static ConversionContext parseChunk(ConversionContext ctx, ByteBuffer buffer, File inFile, Chunk chunk) {
+      ConversionContext chunkCtx = new ConversionContext(ctx.inFileName);
+      chunkCtx.fragment = new IncludeFragment(inFile);
+      final ConversionContext previous = ConversionContext.bound();
+      ctx.bind();
+      try {
+        consumeClassicFile(chunkCtx,
+            new ClassicLexer(buffer.duplicate().position(chunk.start).limit(chunk.end), chunk.precedingLines));
+      } finally {
+        if (previous == null) {
+          ctx.unbind();
+        } else {
+          previous.bind();
+        }
+      }
+      return chunkCtx;
+    }
   }
 
   /**
    * Depending upon the the label in the classic file, we need to decide which
    * group of plugins to add the latest definition to.
    * 
+   * @param ctx           the conversion the plugin belongs to
    * @param currentPlugin the active plugin we've been adding attributes to and
    *                      now needs attaching to the cirrec
    */
-  private static void storePlugin(Plugin currentPlugin) {
-    if (currentPlugin != null) {
+  private static void storePlugin(ConversionContext ctx, Plugin currentPlugin) {
+    if ((currentPlugin != null) && (currentPlugin.stored)) {
+      debug("Plugin already stored");
+    } else if ((currentPlugin != null) && (ctx.fragment != null)) {
+      currentPlugin.stored = true;
+      ctx.fragment.plugins.add(currentPlugin);
+    } else if (currentPlugin != null) {
+      currentPlugin.stored = true;
       switch (currentPlugin.pluginType) {
         case FILTER:
-          if (filters == null) {
-            filters = new ArrayList<Plugin>();
+          if (ctx.filters == null) {
+            ctx.filters = new ArrayList<Plugin>();
           }
-          filters.add(currentPlugin);
+          ctx.filters.add(currentPlugin);
           break;
         case INPUT:
-          if (inputs == null) {
-            inputs = new ArrayList<Plugin>();
+          if (ctx.inputs == null) {
+            ctx.inputs = new ArrayList<Plugin>();
           }
-          inputs.add(currentPlugin);
+          ctx.inputs.add(currentPlugin);
           break;
         case OUTPUT:
-          if (outputs == null) {
-            outputs = new ArrayList<Plugin>();
+          if (ctx.outputs == null) {
+            ctx.outputs = new ArrayList<Plugin>();
           }
-          outputs.add(currentPlugin);
+          ctx.outputs.add(currentPlugin);
           break;
         case SERVICE:
-          if (service == null) {
-            service = (SpecialPlugin) currentPlugin;
+          if (ctx.service == null) {
+            ctx.service = (SpecialPlugin) currentPlugin;
             // service needs to be treated as a singleton
           } else {
-            service.add((SpecialPlugin) currentPlugin);
-            err("Merging a service plugin");
+            ctx.service.add((SpecialPlugin) currentPlugin);
+            info("Merged the service section on line " + currentPlugin.lineNo + " into the one before it");
+          }
+          break;
+        case PARSER:
+        case MULTILINE_PARSER:
+        case UPSTREAM:
+        case CUSTOM:
+        case PLUGINS:
+          if (ctx.sections == null) {
+            ctx.sections = new EnumMap<PluginType, ArrayList<Plugin>>(PluginType.class);
+          }
+          ctx.sections.computeIfAbsent(currentPlugin.pluginType, type -> new ArrayList<Plugin>()).add(currentPlugin);
+          break;
+        case NODE:
+          ArrayList<Plugin> upstreams = (ctx.sections == null) ? null : ctx.sections.get(PluginType.UPSTREAM);
+          if ((upstreams == null) || upstreams.isEmpty()) {
+            err("[NODE] found without a preceding [UPSTREAM], node " + currentPlugin.name + " ignored");
+          } else {
+            ((UpstreamPlugin) upstreams.get(upstreams.size() - 1)).nodes.add(currentPlugin);
           }
           break;
         case INCLUDES:
-          if (includes == null) {
-            includes = (IncludesPlugin) currentPlugin;
+          if (ctx.includes == null) {
+            ctx.includes = (IncludesPlugin) currentPlugin;
           } else {
-            includes.add((IncludesPlugin) currentPlugin);
+            ctx.includes.add((IncludesPlugin) currentPlugin);
           }
           break;
         default:
@@ -568,59 +7150,451 @@ class FLBConverter {
           break;
 
       }
-    } else {
-      debug("No plugin to store");
+    } else {
+      debug("No plugin to store");
+    }
+  }
+
+  /**
+   * Creates the plugin for a section header. An unknown section gives us no
+   * plugin, so its attributes are reported rather than being added to the
+   * previous plugin
+   * 
+   * @param section the type of section, null if the header isn't known
+   * @return the new plugin, or null
+   */
+  private static Plugin newSectionPlugin(PluginType section) {
+    if (section == null) {
+      return null;
+    }
+    return section.newPlugin();
+  }
+
+  /**
+   * This method reads the classic configuration file and handles when we need to
+   * start a new plugin object, and when to add a plugin into the correct array of
+   * plugins. Note we only allow one service definition
+   * 
+   * @param ctx         the conversion to populate with the plugins found
+   * @param classicFile the reader object for the classiv file
+   * @throws IOException if we fail to read the file properly
+   */
+  static void consumeClassicFile(ConversionContext ctx, BufferedReader classicFile) throws IOException {
+    Plugin currentPlugin = null;
+    int lineCount = 0;
+    String line = null;
+    while ((line = classicFile.readLine()) != null) {
+      lineCount++;
+      // the line is only trimmed once we know it isn't an attribute, as trimming
+      // would copy a large attribute value
+      int start = 0;
+      int end = line.length();
+      while (start < end && line.charAt(start) <= ' ') {
+        start++;
+      }
+      while (end > start && line.charAt(end - 1) <= ' ') {
+        end--;
+      }
+
+      if (debug) {
+        debug("consume [" + lineCount + "]:" + line.trim());
+      }
+
+      if (start < end) {
+        if (line.regionMatches(true, start, INCLUDECLASSIC, 0, INCLUDECLASSIC.length())) {
+          line = line.trim();
+          if (resolveIncludes) {
+            includeDirective(ctx, currentPlugin, line, lineCount);
+          } else if (ctx.includes == null) {
+            ctx.includes = new IncludesPlugin(line, lineCount);
+          } else {
+            ctx.includes.add(line, lineCount);
+          }
+        } else if (SectionTable.isHeaderShape(end - start, line.charAt(start), line.charAt(end - 1))) {
+          line = line.trim();
+          storePlugin(ctx, currentPlugin);
+          currentPlugin = newSectionPlugin(SectionTable.classify(line));
+          if (currentPlugin == null) {
+            info("Unsupported section:>" + line + "< (" + lineCount + ")");
+          } else {
+            currentPlugin.lineNo = lineCount;
+          }
+        } else {
+          if (currentPlugin == null) {
+            info("Can't allocate process line:>" + line.trim() + "< (" + lineCount + ")");
+          } else {
+            currentPlugin.add(line, lineCount);
+          }
+        }
+      }
+    }
+    storePlugin(ctx, currentPlugin);
+    ctx.lineCount = lineCount;
+  }
+
+  /**
+   * The byte level equivalent of consumeClassicFile, taking the lines from the
+   * lexer. Apart from avoiding the per line strings, the plugins created are
+   * identical to those from the reader.
+   * 
+   * @param ctx   the conversion to populate with the plugins found
+   * @param lexer the lexer over the classic file content
+   */
+  static void consumeClassicFile(ConversionContext ctx, ClassicLexer lexer) {
+    Plugin currentPlugin = null;
+    while (lexer.nextLine()) {
+      if (debug) {
+        debug("consume [" + lexer.lineNo() + "]:" + lexer.line());
+      }
+
+      if (!lexer.isEmpty()) {
+        if (lexer.startsWithIgnoreCase(INCLUDECLASSIC)) {
+          if (resolveIncludes) {
+            includeDirective(ctx, currentPlugin, lexer.line(), lexer.lineNo());
+          } else {
+            if (ctx.includes == null) {
+              ctx.includes = new IncludesPlugin();
+            }
+            lexer.addAttributeTo(ctx.includes);
+          }
+        } else if (lexer.isHeaderShape()) {
+          storePlugin(ctx, currentPlugin);
+          currentPlugin = newSectionPlugin(lexer.classify());
+          if (currentPlugin == null) {
+            info("Unsupported section:>" + lexer.line() + "< (" + lexer.lineNo() + ")");
+          } else {
+            currentPlugin.lineNo = lexer.lineNo();
+          }
+        } else {
+          if (currentPlugin == null) {
+            info("Can't allocate process line:>" + lexer.line() + "< (" + lexer.lineNo() + ")");
+          } else {
+            lexer.addAttributeTo(currentPlugin);
+          }
+        }
+      }
+    }
+    storePlugin(ctx, currentPlugin);
+    ctx.lineCount = lexer.lineNo();
+  }
+
+  /**
+   * Memory maps the classic file and consumes it with the byte level lexer.
+   * The mapping is read only and released when the buffer is garbage
+   * collected; closing the channel doesn't invalidate it.
+   * 
+   * @param ctx    the conversion to populate with the plugins found
+   * @param inFile the classic file
+   * @throws IOException if the file can't be mapped
+   */
+  static void consumeMappedClassicFile(ConversionContext ctx, File inFile) throws IOException {
+    FileChannel channel = null;
+    try {
+      final long readStart = System.nanoTime();
+      channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (ctx.metrics != null) {
+        ctx.metrics.readNanos += System.nanoTime() - readStart;
+        ctx.metrics.bytesIn += channel.size();
+      }
+      if ((ctx.fragment == null) && useParallelParse(channel.size())) {
+        ParallelParser.parse(ctx, mapped, inFile);
+      } else {
+        consumeClassicFile(ctx, new ClassicLexer(mapped));
+      }
+      copyMappedSlices(ctx);
+    } finally {
+      if (channel != null) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Copies the large values still held as views of the mapped file to the
+   * heap, so nothing parsed (including a cached include fragment) holds on to
+   * the mapping
+   * 
+   * @param ctx the conversion populated from the mapped file
+   */
+  private static void copyMappedSlices(ConversionContext ctx) {
+    if (ctx.fragment != null) {
+      copyMappedSlices(ctx.fragment.plugins);
+    }
+    for (SpecialPlugin special : Arrays.asList(ctx.service, ctx.includes)) {
+      if (special != null) {
+        special.attributes.copyMappedSlices();
+      }
+    }
+    copyMappedSlices(ctx.inputs);
+    copyMappedSlices(ctx.filters);
+    copyMappedSlices(ctx.outputs);
+    if (ctx.sections != null) {
+      for (ArrayList<Plugin> section : ctx.sections.values()) {
+        copyMappedSlices(section);
+      }
+    }
+  }
+
+  private static void copyMappedSlices(ArrayList<Plugin> plugins) {
+    if (plugins == null) {
+      return;
+    }
+    for (Plugin plugin : plugins) {
+      plugin.attributes.copyMappedSlices();
+      if (plugin instanceof UpstreamPlugin upstream) {
+        copyMappedSlices(upstream.nodes);
+      }
+    }
+  }
+
+  /**
+   * Reads the classic file into the context, choosing between the memory
+   * mapped and reader based input
+   * 
+   * @param ctx    the conversion to populate with the plugins found
+   * @param inFile the classic file
+   * @throws IOException if we fail to read the file properly
+   */
+  static void readClassicFile(ConversionContext ctx, File inFile) throws IOException {
+    if (useMappedInput(inFile.length())) {
+      if (debug) {
+        debug("Memory mapping " + inFile.getPath());
+      }
+      consumeMappedClassicFile(ctx, inFile);
+    } else {
+      Reader fr = null;
+      if (ctx.metrics == null) {
+        fr = new FileReader(inFile);
+      } else {
+        fr = new InputStreamReader(ctx.metrics.meterInput(new FileInputStream(inFile)));
+      }
+      try {
+        BufferedReader br = new BufferedReader(fr);
+        consumeClassicFile(ctx, br);
+        br.close();
+      } finally {
+        fr.close();
+      }
+    }
+  }
+
+  /**
+   * Handles an @include directive when we're resolving includes. The plugin
+   * currently being built is stored first, so it keeps its place ahead of the
+   * included plugins while still receiving any attributes that follow the
+   * directive - the same way Fluent Bit treats an include. A service is only
+   * stored first when it is the first service, as a later one is merged into
+   * that. Storing it first means an included [SERVICE] is merged after it, so
+   * the included settings win as they do in Fluent Bit. Within a fragment the
+   * directive is just recorded, to be resolved when the fragment is used.
+   * 
+   * @param ctx           the conversion being populated
+   * @param currentPlugin the plugin currently being built, may be null
+   * @param line          the @include line
+   * @param lineNo        the line number of the directive
+   */
+  private static void includeDirective(ConversionContext ctx, Plugin currentPlugin, String line, int lineNo) {
+    if ((currentPlugin != null) && (!(currentPlugin instanceof SpecialPlugin)
+        || ((currentPlugin.pluginType == PluginType.SERVICE) && (ctx.service == null)))) {
+      storePlugin(ctx, currentPlugin);
+    }
+    if (ctx.fragment != null) {
+      IncludesPlugin directive = new IncludesPlugin();
+      directive.directive = line;
+      directive.lineNo = lineNo;
+      storePlugin(ctx, directive);
+    } else {
+      resolveTopLevelInclude(ctx, line, lineNo);
+    }
+  }
+
+  /**
+   * Resolves an @include that appears in the file being converted, rather than
+   * in one of the included files
+   * 
+   * @param ctx    the conversion being populated
+   * @param line   the @include line
+   * @param lineNo the line number of the directive
+   */
+  private static void resolveTopLevelInclude(ConversionContext ctx, String line, int lineNo) {
+    if (ctx.includeStack == null) {
+      ctx.includeStack = new ArrayDeque<String>();
+      ctx.includeStack.push(canonicalPath(new File(ctx.inFileName)));
+    }
+    resolveInclude(ctx, new File(ctx.inFileName), line, lineNo);
+  }
+
+  /**
+   * Records an include we can't resolve in the same way as when we're not
+   * resolving includes, so it is listed in the output rather than lost
+   * 
+   * @param ctx    the conversion being populated
+   * @param line   the @include line
+   * @param lineNo the line number of the directive
+   */
+  private static void recordInclude(ConversionContext ctx, String line, int lineNo) {
+    if (ctx.includes == null) {
+      ctx.includes = new IncludesPlugin(line, lineNo);
+    } else {
+      ctx.includes.add(line, lineNo);
+    }
+  }
+
+  /**
+   * @param file the file to locate
+   * @return the canonical path, or the absolute path if that can't be determined
+   */
+  private static String canonicalPath(File file) {
+    try {
+      return file.getCanonicalPath();
+    } catch (IOException ioErr) {
+      return file.getAbsolutePath();
+    }
+  }
+
+  /**
+   * @param target the file named by an include
+   * @return true if it holds a wildcard, so can match different files over time
+   */
+  private static boolean isWildcardInclude(String target) {
+    return (target.indexOf('*') >= 0) || (target.indexOf('?') >= 0);
+  }
+
+  /**
+   * Works out the files an include refers to. Relative paths are resolved
+   * against the path prefix if one is set, otherwise against the folder of the
+   * including file. Like Fluent Bit we allow wildcards in the file name, with
+   * the matches included in name order.
+   * 
+   * @param target        the file named by the include
+   * @param includingFile the file containing the include
+   * @return the files to include, empty if none are found
+   */
+  static ArrayList<File> includeTargets(String target, File includingFile) {
+    ArrayList<File> targets = new ArrayList<File>();
+    File targetFile = new File(target);
+    if (!targetFile.isAbsolute()) {
+      String pathPrefix = getPathPrefix();
+      if (pathPrefix.length() > 0) {
+        targetFile = new File(pathPrefix + target);
+      } else {
+        targetFile = new File(includingFile.getAbsoluteFile().getParentFile(), target);
+      }
+    }
+
+    final String fileName = targetFile.getName();
+    if (isWildcardInclude(fileName)) {
+      Path folder = targetFile.getAbsoluteFile().getParentFile().toPath();
+      try {
+        DirectoryStream<Path> matches = Files.newDirectoryStream(folder, fileName);
+        try {
+          for (Path match : matches) {
+            if (Files.isRegularFile(match)) {
+              targets.add(match.toFile());
+            }
+          }
+        } finally {
+          matches.close();
+        }
+      } catch (IOException ioErr) {
+        err("Unable to search for includes " + target + " : " + ioErr.getMessage());
+      }
+      Collections.sort(targets);
+    } else if (targetFile.isFile()) {
+      targets.add(targetFile);
     }
+    return targets;
   }
 
   /**
-   * This method reads the classic configuration file and handles when we need to
-   * start a new plugin object, and when to add a plugin into the correct array of
-   * plugins. Note we only allow one service definition
+   * Resolves an include, adding copies of the included plugins to the
+   * conversion and following any nested includes. Includes that can't be found
+   * or are circular are reported and recorded as unresolved.
    * 
-   * @param classicFile the reader object for the classiv file
-   * @throws IOException if we fail to read the file properly
+   * @param ctx           the conversion being populated
+   * @param includingFile the file containing the include
+   * @param line          the @include line
+   * @param lineNo        the line number of the directive
    */
-  private static void consumeClassicFile(BufferedReader classicFile) throws IOException {
-    Plugin currentPlugin = null;
-    int lineCount = 0;
-    String line = null;
-    while ((line = classicFile.readLine()) != null) {
-      lineCount++;
-      line = line.trim();
+  private static void resolveInclude(ConversionContext ctx, File includingFile, String line, int lineNo) {
+    final String target = line.substring(INCLUDECLASSIC.length()).trim();
+    ArrayList<File> targets = includeTargets(target, includingFile);
+    if (targets.isEmpty() || isWildcardInclude(target)) {
+      ctx.includeLookups.put(ConversionCache.lookupKey(canonicalPath(includingFile), target),
+          ConversionCache.matchesHash(targets));
+    }
+    if (targets.isEmpty()) {
+      err("Can't resolve @include " + target + " at line " + lineNo + " of " + includingFile.getPath());
+      recordInclude(ctx, line, lineNo);
+      return;
+    }
 
-      debug("consume [" + lineCount + "]:" + line);
+    Iterator<File> iter = targets.iterator();
+    while (iter.hasNext()) {
+      final String includePath = canonicalPath(iter.next());
+      if (ctx.includeStack.contains(includePath)) {
+        err("Circular @include of " + includePath + " at line " + lineNo + " of " + includingFile.getPath());
+        recordInclude(ctx, line, lineNo);
+        continue;
+      }
+      IncludeFragment fragment = null;
+      try {
+        fragment = IncludeFragment.load(includePath);
+      } catch (IOException ioErr) {
+        err("Unable to read @include " + includePath + " : " + ioErr.toString());
+        recordInclude(ctx, line, lineNo);
+        continue;
+      }
 
-      if (line.length() > 0) {
-        if (line.toLowerCase().startsWith(INCLUDECLASSIC)) {
-          if (includes == null) {
-            includes = new IncludesPlugin(line, lineCount);
-          } else {
-            includes.add(line, lineCount);
-          }
-        } else if (line.equalsIgnoreCase(SERVICECLASSIC)) {
-          storePlugin(currentPlugin);
-          currentPlugin = new ServicePlugin();
-        } else if (line.equalsIgnoreCase(INPUTCLASSIC)) {
-          storePlugin(currentPlugin);
-          currentPlugin = new Plugin(PluginType.INPUT);
-        } else if (line.equalsIgnoreCase(OUTPUTCLASSIC)) {
-          storePlugin(currentPlugin);
-          currentPlugin = new Plugin(PluginType.OUTPUT);
-        } else if (line.equalsIgnoreCase(FILTERCLASSIC)) {
-          storePlugin(currentPlugin);
-          currentPlugin = new Plugin(PluginType.FILTER);
+      info("Including " + includePath + " from line " + lineNo);
+      ctx.includedFiles.add(includePath);
+      ctx.includeStack.push(includePath);
+      Iterator<Plugin> pluginIter = fragment.plugins.iterator();
+      while (pluginIter.hasNext()) {
+        Plugin plugin = pluginIter.next();
+        if (plugin.pluginType == PluginType.INCLUDES) {
+          IncludesPlugin directive = (IncludesPlugin) plugin;
+          resolveInclude(ctx, fragment.source, directive.directive, directive.lineNo);
         } else {
-          if (currentPlugin == null) {
-            info("Can't allocate process line:>" + line + "< (" + lineCount + ")");
-          } else {
-            currentPlugin.add(line, lineCount);
-          }
+          storePlugin(ctx, plugin.copy());
         }
       }
+      ctx.includeStack.pop();
+    }
+  }
+
+  /**
+   * Decides whether to use the memory mapped input. The env var can force the
+   * choice, otherwise it is used for larger files where the savings matter.
+   * Files too large for a single mapping always use the reader.
+   * 
+   * @param fileSize the size of the classic file in bytes
+   * @return true if the file should be memory mapped
+   */
+  private static boolean useMappedInput(long fileSize) {
+    if (fileSize > Integer.MAX_VALUE) {
+      return false;
     }
-    storePlugin(currentPlugin);
+    if (memoryMappedFlag == null) {
+      return fileSize >= MAPPED_MIN_SIZE;
+    }
+    return memoryMappedFlag.equalsIgnoreCase(TRUE);
+  }
 
+  /**
+   * Decides whether a memory mapped file is split up and parsed in parallel.
+   * The env var can force the choice, otherwise it is only worth it for very
+   * large files.
+   * 
+   * @param fileSize the size of the classic file in bytes
+   * @return true if the file should be parsed in parallel
+   */
+  private static boolean useParallelParse(long fileSize) {
+    if (parallelParseFlag == null) {
+      return fileSize >= PARALLEL_PARSE_MIN_SIZE;
+    }
+    return parallelParseFlag.equalsIgnoreCase(TRUE);
   }
 
   /**
@@ -637,48 +7611,128 @@ class FLBConverter {
       outFile.write("  " + label + ":\n");
       Iterator<Plugin> iter = plugins.iterator();
       while (iter.hasNext()) {
-        outFile.write(iter.next().write() + NL);
+        iter.next().write(outFile);
+        outFile.write(NL);
+      }
+    }
+
+  }
+
+  /**
+   * Writes one of the top level sections, such as the parsers, that sit outside
+   * of the pipeline
+   * 
+   * @param plugins the plugins in the section
+   * @param outFile where to write the YAML
+   * @param type    the type of section
+   * @throws IOException if the output can't be written to
+   */
+  private static void writeSection(ArrayList<Plugin> plugins, BufferedWriter outFile, PluginType type)
+      throws IOException {
+    outFile.write(NL);
+    outFile.write(type.yamlLabel + ":\n");
+    Iterator<Plugin> iter = plugins.iterator();
+    while (iter.hasNext()) {
+      iter.next().write(outFile);
+      if (iter.hasNext() && (type != PluginType.PLUGINS)) {
+        outFile.write(NL);
       }
     }
+  }
 
+  /**
+   * Applies the optional rewrites to the parsed pipeline, and the routing
+   * analysis of the result, before it is written
+   * 
+   * @param ctx the conversion holding the plugins
+   */
+  static void preparePipeline(ConversionContext ctx) {
+    int passesRemoved = 0;
+    if (fuseFilters) {
+      passesRemoved += FilterFusion.fuse(ctx.filters);
+    }
+    if (useProcessors) {
+      ProcessorRewrite.rewrite(ctx);
+    }
+    if (fuseFilters) {
+      // moving filters into processors can leave filters for an input next to
+      // each other that weren't in the filter chain
+      if (useProcessors && (ctx.inputs != null)) {
+        for (Plugin input : ctx.inputs) {
+          if (input instanceof InputPlugin inputPlugin) {
+            passesRemoved += FilterFusion.fuse(inputPlugin.processors);
+          }
+        }
+      }
+      info("Merging filters removed " + passesRemoved + " record passes");
+    }
+    if (tuningMode != TuningMode.OFF) {
+      TuningAdvisor.advise(ctx, tuningMode == TuningMode.FIX);
+    }
+    if (reportRouting) {
+      RoutingIndex.report(ctx);
+    }
   }
 
   /**
    * This orchestrates the corret order in which the pipeline is constructed in
    * the YAML file.
    * 
+   * @param ctx     the conversion holding the plugins to write
    * @param outFile the buffer write for the output
    * @throws IOException any io errors should lead to us bailing
    */
-  private static void writePipelineOutput(BufferedWriter outFile) throws IOException {
-    if ((service != null) && (service.attributeCountByType() > 0)) {
+  static void writePipelineOutput(ConversionContext ctx, BufferedWriter outFile) throws IOException {
+    if ((ctx.service != null) && (ctx.service.attributeCountByType() > 0)) {
       outFile.write(SERVICEYAMLLBL);
-      outFile.write(service.write());
+      ctx.service.write(outFile);
     }
-    if ((includes != null) && (includes.attributeCountByType() > 0)) {
+    if ((ctx.includes != null) && (ctx.includes.attributeCountByType() > 0)) {
       outFile.write(NL);
       outFile.write(INCLUDES_LBL);
       outFile.write(NL);
-      outFile.write(includes.write());
+      ctx.includes.write(outFile);
     }
 
-    outFile.write(NL);
-    outFile.write(PIPELINEYAMLLBL);
+    if (ctx.sections != null) {
+      for (Map.Entry<PluginType, ArrayList<Plugin>> section : ctx.sections.entrySet()) {
+        writeSection(section.getValue(), outFile, section.getKey());
+      }
+    }
 
-    if ((inputs != null) && (!inputs.isEmpty())) {
-      writePlugins(inputs, outFile, INPUTSYAML);
+    if (writesPipeline(ctx)) {
+      outFile.write(NL);
+      outFile.write(PIPELINEYAMLLBL);
+    }
+
+    if ((ctx.inputs != null) && (!ctx.inputs.isEmpty())) {
+      writePlugins(ctx.inputs, outFile, INPUTSYAML);
     }
 
-    if ((filters != null) && (!filters.isEmpty())) {
-      writePlugins(filters, outFile, FILTERSYAML);
+    if ((ctx.filters != null) && (!ctx.filters.isEmpty())) {
+      writePlugins(ctx.filters, outFile, FILTERSYAML);
     }
 
-    if ((outputs != null) && (!outputs.isEmpty())) {
-      writePlugins(outputs, outFile, OUTPUTSYAML);
+    if ((ctx.outputs != null) && (!ctx.outputs.isEmpty())) {
+      writePlugins(ctx.outputs, outFile, OUTPUTSYAML);
     }
 
   }
 
+  /**
+   * The pipeline label is written unless the file only has top level sections
+   * such as parsers
+   * 
+   * @param ctx the conversion holding the plugins to write
+   * @return true if the pipeline label is written
+   */
+  static boolean writesPipeline(ConversionContext ctx) {
+    final boolean hasPipeline = ((ctx.inputs != null) && (!ctx.inputs.isEmpty()))
+        || ((ctx.filters != null) && (!ctx.filters.isEmpty()))
+        || ((ctx.outputs != null) && (!ctx.outputs.isEmpty()));
+    return hasPipeline || (ctx.sections == null);
+  }
+
   /**
    * This works out the name for the output file based on the input name
    * 
@@ -702,46 +7756,75 @@ class FLBConverter {
    * file format and once read runs the process of writing each plugin/directive
    * to the output file
    * 
-   * @param inFileName  name of the classic file to be processed
-   * 
-   * @param outFileName name of the file we're going to write YAML to
+   * @param ctx the conversion context identifying the classic file to be
+   *            processed and the file we're going to write YAML to
    */
-  private static void processor(String inFileName, String outFileName) {
+  private static void processor(ConversionContext ctx) {
+    final String inFileName = ctx.inFileName;
+    final String outFileName = ctx.outFileName;
     BufferedWriter outFile = null;
     BufferedReader br = null;
     FileReader fr = null;
-    FileWriter fwr = null;
+    Writer fwr = null;
     try {
       File inFile = new File(inFileName);
       if (!inFile.exists()) {
         err("Cant locate input file:" + inFileName);
         return;
       }
-      fr = new FileReader(inFile);
       info("InputFile:" + inFileName + " --> " + outFileName);
-      br = new BufferedReader(fr);
-      consumeClassicFile(br);
+      final long parseStart = System.nanoTime();
+      readClassicFile(ctx, inFile);
+      preparePipeline(ctx);
+      if (ctx.metrics != null) {
+        ctx.metrics.parseNanos = System.nanoTime() - parseStart - ctx.metrics.readNanos;
+      }
 
-      info("Plugin stats:");
-      if (inputs != null) {
-        info("Inputs:" + inputs.size());
+      report("Plugin stats:");
+      if (ctx.inputs != null) {
+        report("Inputs:" + ctx.inputs.size());
       }
-      if (outputs != null) {
-        info("Outputs:" + outputs.size());
+      if (ctx.outputs != null) {
+        report("Outputs:" + ctx.outputs.size());
       }
-      if (filters != null) {
-        info("Filters:" + filters.size());
+      if (ctx.filters != null) {
+        report("Filters:" + ctx.filters.size());
+      }
+      if (ctx.sections != null) {
+        for (Map.Entry<PluginType, ArrayList<Plugin>> section : ctx.sections.entrySet()) {
+          report(section.getKey().yamlLabel + ":" + section.getValue().size());
+        }
       }
-      info("---" + NL);
+      report("---" + NL);
 
-      fwr = new FileWriter(outFileName);
+      final long emitStart = System.nanoTime();
+      if (ctx.metrics == null) {
+        fwr = new FileWriter(outFileName);
+      } else {
+        fwr = new OutputStreamWriter(ctx.metrics.meterOutput(new FileOutputStream(outFileName)));
+      }
       outFile = new BufferedWriter(fwr);
-      writePipelineOutput(outFile);
+      writePipelineOutput(ctx, outFile);
       outFile.flush();
       outFile.close();
       fwr.close();
-      br.close();
-      fr.close();
+      ctx.converted = true;
+      if (ctx.metrics != null) {
+        ctx.metrics.emitNanos = System.nanoTime() - emitStart - ctx.metrics.writeNanos;
+        ctx.metrics.collect(ctx);
+      }
+      if (verifyOutput) {
+        try (BufferedReader yaml = new BufferedReader(new FileReader(outFileName))) {
+          YamlVerifier.verify(ctx, yaml);
+        }
+        try (BufferedReader classic = new BufferedReader(new FileReader(inFile));
+            BufferedReader yaml = new BufferedReader(new FileReader(outFileName))) {
+          YamlVerifier.verifySource(ctx, classic, yaml);
+        }
+      }
+      if (shardCount > 0) {
+        PipelineSharder.writeShards(ctx, shardCount);
+      }
 
     } catch (Exception err) {
       err("Processor error: " + err.toString());
@@ -787,11 +7870,29 @@ class FLBConverter {
     String debugFlagStr = System.getenv(FLB_CONVERT_DEBUG);
     if ((debugFlagStr != null) && (debugFlagStr.trim().equalsIgnoreCase(TRUE))) {
       debug = true;
-      System.out.println("Env flag for debug set to " + debugFlagStr);
+      logLevel = LogLevel.DEBUG;
+      debug("Env flag for debug set to " + debugFlagStr);
     }
     return debug;
   }
 
+  /**
+   * Checks for the environment variable setting the log level. Debug being
+   * switched on with FLB_CONVERT_DEBUG takes precedence
+   */
+  private static void checkLogLevel() {
+    String levelStr = cleanStr(System.getenv(FLB_LOG_LEVEL));
+    if ((levelStr == null) || debug) {
+      return;
+    }
+    try {
+      logLevel = LogLevel.valueOf(levelStr.toUpperCase());
+      debug = (logLevel == LogLevel.DEBUG);
+    } catch (IllegalArgumentException argErr) {
+      err("Unknown log level " + levelStr + ", using " + logLevel.name().toLowerCase());
+    }
+  }
+
   /**
    * If the environment variable is set then any info logs are also written to a
    * file that is the same as the output with the filename extended with .report
@@ -853,6 +7954,252 @@ class FLBConverter {
     return flag;
   }
 
+  /**
+   * Determines how many files can be converted concurrently. The value can be a
+   * number, or auto, in which case we use the number of available processors.
+   * Anything we can't interpret results in sequential processing
+   * 
+   * @return the number of files to convert concurrently
+   */
+  private static int getParallelism() {
+    int parallelism = 1;
+    String parallelismStr = System.getenv(FLB_PARALLELISM);
+    if ((parallelismStr != null) && (parallelismStr.trim().length() > 0)) {
+      parallelismStr = parallelismStr.trim();
+      if (parallelismStr.equalsIgnoreCase(AUTO)) {
+        parallelism = Runtime.getRuntime().availableProcessors();
+      } else {
+        try {
+          parallelism = Integer.parseInt(parallelismStr);
+        } catch (NumberFormatException numErr) {
+          err("Can't interpret " + FLB_PARALLELISM + " value of " + parallelismStr + " - processing sequentially");
+        }
+      }
+    }
+    if (parallelism < 1) {
+      parallelism = 1;
+    }
+    debug("Env flag for parallelism set to " + parallelismStr + " using " + parallelism);
+    return parallelism;
+  }
+
+  /**
+   * Gets how long a watched file must be quiet before it is reconverted
+   * 
+   * @return the debounce period in milliseconds
+   */
+  private static long getDebounce() {
+    long debounce = DEFAULT_DEBOUNCE_MS;
+    String debounceStr = cleanStr(System.getenv(FLB_WATCH_DEBOUNCE));
+    if (debounceStr != null) {
+      try {
+        debounce = Math.max(0, Long.parseLong(debounceStr));
+      } catch (NumberFormatException numErr) {
+        err("Can't interpret " + FLB_WATCH_DEBOUNCE + " value of " + debounceStr + " - using " + DEFAULT_DEBOUNCE_MS);
+      }
+    }
+    return debounce;
+  }
+
+  /**
+   * Checks for the environment variable that tells us to use virtual threads
+   * when converting files in parallel
+   * 
+   * @return true if virtual threads should be used
+   */
+  private static boolean checkVirtualThreads() {
+    String virtualFlagStr = System.getenv(FLB_VIRTUAL_THREADS);
+    useVirtualThreads = ((virtualFlagStr != null) && (virtualFlagStr.trim().equalsIgnoreCase(TRUE)));
+    debug("Env flag for virtual threads set to " + virtualFlagStr);
+    if (useVirtualThreads) {
+      virtualThreads = virtualThreadFactory();
+      if (virtualThreads == null) {
+        err(FLB_VIRTUAL_THREADS + " needs Java 21 or later - using platform threads");
+        useVirtualThreads = false;
+      }
+    }
+    return useVirtualThreads;
+  }
+
+  /**
+   * Virtual threads were added in Java 21, so are looked up rather than
+   * compiled in - that way the converter still runs on Java 17, using
+   * platform threads
+   * 
+   * @return a factory creating virtual threads, or null if the JVM doesn't
+   *         have them
+   */
+  static ThreadFactory virtualThreadFactory() {
+    try {
+      final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException reflectErr) {
+      return null;
+    }
+  }
+
+  /**
+   * Checks for the environment variable that asks for @include directives to
+   * be resolved
+   * 
+   * @return true if includes should be resolved
+   */
+  private static boolean checkResolveIncludes() {
+    String resolveFlagStr = System.getenv(FLB_RESOLVE_INCLUDES);
+    resolveIncludes = ((resolveFlagStr != null) && (resolveFlagStr.trim().equalsIgnoreCase(TRUE)));
+    debug("Env flag for resolving includes set to " + resolveFlagStr);
+    return resolveIncludes;
+  }
+
+  /**
+   * Sets up the conversion cache if the env var asks for it
+   */
+  private static void checkConversionCache() {
+    String cacheStr = cleanStr(System.getenv(FLB_CONVERSION_CACHE));
+    debug("Env flag for conversion cache set to " + cacheStr);
+    if ((cacheStr == null) || cacheStr.equalsIgnoreCase("false")) {
+      return;
+    }
+    File manifest = null;
+    if (cacheStr.equalsIgnoreCase(TRUE)) {
+      manifest = new File(getPathPrefix() + DEFAULT_CACHE_MANIFEST);
+    } else {
+      manifest = new File(cacheStr);
+    }
+    conversionCache = ConversionCache.load(manifest);
+  }
+
+  /**
+   * Reads the env var controlling whether metrics are recorded, and if so
+   * where they are written
+   */
+  private static void checkMetrics() {
+    String metricsStr = cleanStr(System.getenv(FLB_METRICS));
+    debug("Env flag for metrics set to " + metricsStr);
+    if ((metricsStr == null) || metricsStr.equalsIgnoreCase("false")) {
+      return;
+    }
+    if (metricsStr.equalsIgnoreCase(TRUE)) {
+      String pathPrefix = getPathPrefix();
+      metricsFolder = new File(pathPrefix.isEmpty() ? "." : pathPrefix);
+    } else {
+      metricsFolder = new File(metricsStr);
+    }
+  }
+
+  /**
+   * Reads the env var controlling whether the YAML is read back and verified
+   */
+  private static void checkVerify() {
+    String verifyStr = cleanStr(System.getenv(FLB_VERIFY));
+    verifyOutput = ((verifyStr != null) && verifyStr.equalsIgnoreCase(TRUE));
+    debug("Env flag for verifying output set to " + verifyOutput);
+  }
+
+  /**
+   * Reads the env var controlling whether filters are moved into the inputs'
+   * processors
+   */
+  private static void checkProcessors() {
+    String processorsStr = cleanStr(System.getenv(FLB_PROCESSORS));
+    useProcessors = ((processorsStr != null) && processorsStr.equalsIgnoreCase(TRUE));
+    debug("Env flag for moving filters to processors set to " + useProcessors);
+  }
+
+  /**
+   * Reads the env var controlling whether adjacent filters are merged
+   */
+  private static void checkFuseFilters() {
+    String fuseStr = cleanStr(System.getenv(FLB_FUSE_FILTERS));
+    fuseFilters = ((fuseStr != null) && fuseStr.equalsIgnoreCase(TRUE));
+    debug("Env flag for merging filters set to " + fuseFilters);
+  }
+
+  /**
+   * Reads the env var controlling the routing report
+   */
+  private static void checkRouting() {
+    String routingStr = cleanStr(System.getenv(FLB_ROUTING));
+    reportRouting = ((routingStr != null) && routingStr.equalsIgnoreCase(TRUE));
+    debug("Env flag for the routing report set to " + reportRouting);
+  }
+
+  /**
+   * Reads the env var setting what the tuning advisor does
+   */
+  private static void checkTuning() {
+    String tuningStr = cleanStr(System.getenv(FLB_TUNING));
+    if (tuningStr == null) {
+      return;
+    }
+    try {
+      if (tuningStr.equalsIgnoreCase(TRUE)) {
+        tuningMode = TuningMode.REPORT;
+      } else if (tuningStr.equalsIgnoreCase("false")) {
+        tuningMode = TuningMode.OFF;
+      } else {
+        tuningMode = TuningMode.valueOf(tuningStr.toUpperCase());
+      }
+    } catch (IllegalArgumentException argErr) {
+      err("Unknown tuning mode " + tuningStr + ", using " + tuningMode.name().toLowerCase());
+    }
+    debug("Env setting for the tuning advisor set to " + tuningMode);
+  }
+
+  /**
+   * Reads the env var setting how many files the pipeline is split across
+   */
+  private static void checkShards() {
+    String shardsStr = cleanStr(System.getenv(FLB_SHARDS));
+    if (shardsStr == null) {
+      return;
+    }
+    if (shardsStr.equalsIgnoreCase(AUTO)) {
+      shardCount = Integer.MAX_VALUE;
+    } else {
+      try {
+        shardCount = Math.max(0, Integer.parseInt(shardsStr));
+      } catch (NumberFormatException numErr) {
+        err("Can't interpret " + FLB_SHARDS + " value of " + shardsStr + " - the pipeline won't be split");
+      }
+    }
+    debug("Env setting for shards set to " + shardsStr + " using " + shardCount);
+  }
+
+  /**
+   * Reads the env var setting how long values are written
+   */
+  private static void checkScalarStyle() {
+    String styleStr = cleanStr(System.getenv(FLB_SCALAR_STYLE));
+    if (styleStr == null) {
+      return;
+    }
+    try {
+      scalarStyle = ScalarStyle.valueOf(styleStr.toUpperCase());
+    } catch (IllegalArgumentException argErr) {
+      err("Unknown scalar style " + styleStr + ", using " + scalarStyle.name().toLowerCase());
+    }
+    debug("Env setting for the scalar style set to " + scalarStyle);
+  }
+
+  /**
+   * Reads the env var controlling the parallel parsing of a single file. When
+   * not set the choice is made by file size.
+   */
+  private static void checkParallelParse() {
+    parallelParseFlag = cleanStr(System.getenv(FLB_PARALLEL_PARSE));
+    debug("Env flag for parallel parsing set to " + parallelParseFlag);
+  }
+
+  /**
+   * Reads the env var controlling the use of memory mapped input. When not set
+   * the choice is made by file size.
+   */
+  private static void checkMemoryMapped() {
+    memoryMappedFlag = cleanStr(System.getenv(FLB_MEMORY_MAPPED));
+    debug("Env flag for memory mapped input set to " + memoryMappedFlag);
+  }
+
   /**
    * Cleans up a string by trimming if not null. If the result of trim is 0 length
    * string - return as null
@@ -944,7 +8291,7 @@ class FLBConverter {
     ArrayList<String> cliFiles = null;
     if ((args != null) && (args.length > 0)) {
       String inFileName = args[0].trim();
-      if ((!inFileName.equalsIgnoreCase(HELP)) && (inFileName.length() > 0)) {
+      if ((!inFileName.equalsIgnoreCase(HELP)) && (!inFileName.equals(STDIN_ARG)) && (inFileName.length() > 0)) {
         cliFiles = new ArrayList<String>();
         cliFiles.add(inFileName);
       }
@@ -952,14 +8299,165 @@ class FLBConverter {
     return cliFiles;
   }
 
+  /**
+   * Resolves a folder given in an env var, applying the path prefix if the
+   * folder is relative
+   * 
+   * @param folder the folder as given
+   * @return the path to use
+   */
+  private static Path prefixedPath(String folder) {
+    Path path = Paths.get(folder);
+    if (!path.isAbsolute()) {
+      path = Paths.get(getPathPrefix() + folder);
+    }
+    return path;
+  }
+
+  /**
+   * Converts a single file. Each file gets its own conversion context (and
+   * report file if enabled), so this can be safely called from several threads
+   * at once.
+   * 
+   * @param inFileName the classic file to convert, with any path prefix applied
+   * @return the context used for the conversion
+   */
+  private static ConversionContext convertFile(String inFileName) {
+    return convertFile(new ConversionContext(inFileName));
+  }
+
+  /**
+   * Converts a single file using the context given, which identifies the
+   * classic file and where the YAML is written
+   * 
+   * @param ctx the context for the conversion
+   * @return the context used for the conversion
+   */
+  static ConversionContext convertFile(ConversionContext ctx) {
+    final String inFileName = ctx.inFileName;
+    if (metricsFolder != null) {
+      ctx.metrics = new ConversionMetrics(inFileName);
+    }
+    ctx.bind();
+    try {
+      if (debug) {
+        debug("Preparing for " + inFileName);
+      }
+      if (logToFile) {
+        ctx.converterReport = new ReportFile(new File(ctx.outFileName + REPORT_EXTN));
+        AsyncLog.report(ctx.converterReport, "Execution date:" + getDateStr());
+      }
+      if (conversionCache == null) {
+        processor(ctx);
+      } else if (conversionCache.isUnchanged(ctx)) {
+        ctx.skipped = true;
+      } else {
+        processor(ctx);
+        conversionCache.record(ctx);
+      }
+      if ((ctx.metrics != null) && ctx.converted) {
+        report(ctx.metrics.summary());
+      }
+    } finally {
+      if (ctx.converterReport != null) {
+        AsyncLog.close(ctx.converterReport);
+        ctx.converterReport = null;
+      }
+      ctx.unbind();
+    }
+    return ctx;
+  }
+
+  /**
+   * Converts the files, in parallel if configured to
+   * 
+   * @param inFileNames the files to convert, with any path prefix applied
+   * @return the context of each conversion in the same order as the files, null
+   *         if a conversion failed unexpectedly
+   */
+  private static ArrayList<ConversionContext> convertFiles(ArrayList<String> inFileNames) {
+    final int parallelism = getParallelism();
+    final long batchStart = System.nanoTime();
+    ArrayList<ConversionContext> results = null;
+    if ((parallelism > 1) && (inFileNames.size() > 1)) {
+      results = convertInParallel(inFileNames, parallelism);
+    } else {
+      results = new ArrayList<ConversionContext>();
+      Iterator<String> iter = inFileNames.iterator();
+      while (iter.hasNext()) {
+        results.add(convertFile(iter.next()));
+      }
+    }
+    if (conversionCache != null) {
+      conversionCache.save();
+      conversionCache.reportSummary();
+    }
+    if (metricsFolder != null) {
+      ArrayList<ConversionMetrics> metrics = new ArrayList<ConversionMetrics>();
+      for (ConversionContext ctx : results) {
+        if ((ctx != null) && (ctx.metrics != null)) {
+          metrics.add(ctx.metrics);
+        }
+      }
+      ConversionMetrics.writeBatch(metricsFolder, metrics, System.nanoTime() - batchStart);
+    }
+    return results;
+  }
+
+  /**
+   * Converts the list of files using a pool of threads. As every file has its
+   * own context the output and reports are the same as a sequential run, only
+   * the interleaving of the console output differs.
+   * 
+   * @param inFileNames the files to convert, with any path prefix applied
+   * @param parallelism the number of files to convert concurrently
+   * @return the context of each conversion in the same order as the files, null
+   *         if a conversion failed unexpectedly
+   */
+  private static ArrayList<ConversionContext> convertInParallel(ArrayList<String> inFileNames, int parallelism) {
+    ArrayList<ConversionContext> results = new ArrayList<ConversionContext>();
+    ExecutorService executor = null;
+    if (useVirtualThreads) {
+      executor = Executors.newFixedThreadPool(parallelism, virtualThreads);
+    } else {
+      executor = Executors.newFixedThreadPool(parallelism);
+    }
+    info("Converting " + inFileNames.size() + " files with parallelism of " + parallelism);
+    try {
+      ArrayList<Future<ConversionContext>> conversions = new ArrayList<Future<ConversionContext>>();
+      Iterator<String> iter = inFileNames.iterator();
+      while (iter.hasNext()) {
+        final String inFileName = iter.next();
+        conversions.add(executor.submit(() -> convertFile(inFileName)));
+      }
+
+      Iterator<Future<ConversionContext>> futureIter = conversions.iterator();
+      while (futureIter.hasNext()) {
+        try {
+          results.add(futureIter.next().get());
+        } catch (ExecutionException execErr) {
+          err("Conversion failed: " + execErr.getCause());
+          results.add(null);
+        }
+      }
+    } catch (InterruptedException interruptErr) {
+      err("Interrupted waiting for conversions to complete");
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdown();
+    }
+    return results;
+  }
+
   /**
    * 
    * The app's name drives the execution of processing one or more classic format
    * files getting the inputfile from one of several different sources. It
    * establishes the data structures that we use to manage the holding of the
    * different plugins.
-   * Each new file is processed we reset the constructs to ensure there isn't any
-   * accidental cross contamination
+   * Each new file is processed with its own conversion context to ensure there
+   * isn't any accidental cross contamination - which also allows us to convert
+   * files in parallel when asked to.
    * 
    * @param args the command line args
    */
@@ -969,12 +8467,30 @@ class FLBConverter {
       System.exit(0);
     }
     ArrayList<String> filesList = null;
+    final boolean useStdin = (args != null) && (args.length > 0) && (args[0].trim().equals(STDIN_ARG));
+    if (useStdin) {
+      console = System.err;
+    }
 
-    info("Fluent Bit Converter starting ...");
     checkDebug();
+    checkLogLevel();
+    info("Fluent Bit Converter starting ...");
     useIdiomatricForm();
+    checkReportToFile();
+    checkVirtualThreads();
+    checkMemoryMapped();
+    checkParallelParse();
+    checkResolveIncludes();
+    checkScalarStyle();
+    checkProcessors();
+    checkFuseFilters();
+    checkRouting();
+    checkTuning();
+    checkShards();
+    checkConversionCache();
+    checkMetrics();
+    checkVerify();
     try {
-      boolean more = false;
 
       filesList = cliFiles(args);
       if (filesList == null) {
@@ -984,37 +8500,54 @@ class FLBConverter {
         filesList = conversionListFiles();
       }
 
+      ArrayList<String> inFileNames = null;
       if (filesList != null) {
-        String inFileName = null;
+        inFileNames = new ArrayList<String>();
         Iterator<String> iter = filesList.iterator();
         while (iter.hasNext()) {
-          inFileName = getPathPrefix() + iter.next();
-          debug("Preparing for " + inFileName);
-          inputs = null;
-          outputs = null;
-          filters = null;
-          service = null;
-          includes = null;
-
-          if (checkReportToFile()) {
-            File reportFile = new File(getOutFile(inFileName) + REPORT_EXTN);
-            converterReport = new FileWriter(reportFile);
-            converterReport.write("Execution date:" + getDateStr() + NL);
-          }
-          processor(inFileName, getOutFile(inFileName));
+          inFileNames.add(getPathPrefix() + iter.next());
+        }
+      }
 
-          if (converterReport != null) {
-            converterReport.flush();
-            converterReport.close();
-            converterReport = null;
+      final String watchFlag = cleanStr(System.getenv(FLB_WATCH));
+      final String treeRoot = cleanStr(System.getenv(FLB_TREE_ROOT));
+      final String archive = cleanStr(System.getenv(FLB_ARCHIVE));
+      final String serverPort = cleanStr(System.getenv(FLB_SERVER_PORT));
+      if (useStdin) {
+        final String nulFlag = System.getenv(FLB_NUL_SEPARATED);
+        convertStream((nulFlag != null) && (nulFlag.trim().equalsIgnoreCase(TRUE)));
+      } else if (serverPort != null) {
+        ConversionServer.start(Integer.parseInt(serverPort));
+      } else if (watchFlag != null) {
+        debug("Env flag for watching set to " + watchFlag);
+        Path watchRoot = null;
+        if (!watchFlag.equalsIgnoreCase(TRUE)) {
+          watchRoot = Paths.get(watchFlag);
+          if (!watchRoot.isAbsolute()) {
+            watchRoot = Paths.get(getPathPrefix() + watchFlag);
           }
         }
+        new ConversionWatcher(watchRoot, getDebounce()).watch(inFileNames);
+      } else if (archive != null) {
+        String archiveOutput = cleanStr(System.getenv(FLB_ARCHIVE_OUTPUT));
+        Path archivePath = prefixedPath(archive);
+        new ArchiveConversion(archivePath,
+            (archiveOutput == null) ? ArchiveConversion.defaultOutput(archivePath) : prefixedPath(archiveOutput),
+            cleanStr(System.getenv(FLB_TREE_INCLUDE)), cleanStr(System.getenv(FLB_TREE_EXCLUDE))).convert();
+      } else if (treeRoot != null) {
+        String treeOutput = cleanStr(System.getenv(FLB_TREE_OUTPUT));
+        new TreeConversion(prefixedPath(treeRoot), (treeOutput == null) ? null : prefixedPath(treeOutput),
+            cleanStr(System.getenv(FLB_TREE_INCLUDE)), cleanStr(System.getenv(FLB_TREE_EXCLUDE))).convert();
+      } else if (inFileNames != null) {
+        convertFiles(inFileNames);
       }
     } catch (
 
     Exception err) {
       err(err.getMessage());
       err.printStackTrace();
+    } finally {
+      AsyncLog.flush();
     }
   }
 
@@ -1027,11 +8560,37 @@ class FLBConverter {
     System.out.println("FLBConverter help");
     System.out.println(HELP + pt + "This information");
     System.out.println("<filename>" + pt + "Process the file identified by <filename>");
+    System.out.println(STDIN_ARG + pt + "Read the classic configuration from stdin and write the YAML to stdout, with the log output on stderr");
     System.out.println(FLB_CONVERT_DEBUG + pt + FLB_CONVERT_DEBUG_HELP);
     System.out.println(FLB_REPORT_FILE + pt + FLB_REPORT_FILE_HELP);
+    System.out.println(FLB_LOG_LEVEL + pt + FLB_LOG_LEVEL_HELP);
     System.out.println(FLB_PATH_PREFIX + pt + FLB_PATH_PREFIX_HELP);
     System.out.println(FLB_IDIOMATICFORM + pt + FLB_IDIOMATICFORM_HELP);
     System.out.println(FLB_CLASSIC_FN + pt + FLB_CLASSIC_FN_HELP);
+    System.out.println(FLB_PARALLELISM + pt + FLB_PARALLELISM_HELP);
+    System.out.println(FLB_VIRTUAL_THREADS + pt + FLB_VIRTUAL_THREADS_HELP);
+    System.out.println(FLB_MEMORY_MAPPED + pt + FLB_MEMORY_MAPPED_HELP);
+    System.out.println(FLB_PARALLEL_PARSE + pt + FLB_PARALLEL_PARSE_HELP);
+    System.out.println(FLB_RESOLVE_INCLUDES + pt + FLB_RESOLVE_INCLUDES_HELP);
+    System.out.println(FLB_TREE_ROOT + pt + FLB_TREE_ROOT_HELP);
+    System.out.println(FLB_TREE_OUTPUT + pt + FLB_TREE_OUTPUT_HELP);
+    System.out.println(FLB_TREE_INCLUDE + pt + FLB_TREE_INCLUDE_HELP);
+    System.out.println(FLB_TREE_EXCLUDE + pt + FLB_TREE_EXCLUDE_HELP);
+    System.out.println(FLB_ARCHIVE + pt + FLB_ARCHIVE_HELP);
+    System.out.println(FLB_ARCHIVE_OUTPUT + pt + FLB_ARCHIVE_OUTPUT_HELP);
+    System.out.println(FLB_WATCH + pt + FLB_WATCH_HELP);
+    System.out.println(FLB_WATCH_DEBOUNCE + pt + FLB_WATCH_DEBOUNCE_HELP);
+    System.out.println(FLB_CONVERSION_CACHE + pt + FLB_CONVERSION_CACHE_HELP);
+    System.out.println(FLB_METRICS + pt + FLB_METRICS_HELP);
+    System.out.println(FLB_VERIFY + pt + FLB_VERIFY_HELP);
+    System.out.println(FLB_SCALAR_STYLE + pt + FLB_SCALAR_STYLE_HELP);
+    System.out.println(FLB_PROCESSORS + pt + FLB_PROCESSORS_HELP);
+    System.out.println(FLB_FUSE_FILTERS + pt + FLB_FUSE_FILTERS_HELP);
+    System.out.println(FLB_ROUTING + pt + FLB_ROUTING_HELP);
+    System.out.println(FLB_TUNING + pt + FLB_TUNING_HELP);
+    System.out.println(FLB_SHARDS + pt + FLB_SHARDS_HELP);
+    System.out.println(FLB_SERVER_PORT + pt + FLB_SERVER_PORT_HELP);
+    System.out.println(FLB_NUL_SEPARATED + pt + FLB_NUL_SEPARATED_HELP);
     System.out.println(NL);
     System.out.println(CONVERSION_LIST + pt + CONVERSION_LIST_HELP);
     System.out.println(NL);
@@ -0,0 +1,19 @@
+echo starting Test 4 ....
+# set any environment configs for this test. Change the conversion.list as needed
+# parsers, multiline parsers, upstreams, customs and plugins sections
+unset FLB_IDIOMATICFORM
+export FLB_PATH_PREFIX=./test-src/
+java FLBConverter.java test5.conf
+diff -B ./test-expected/test5.yaml ./test-src/test5.yaml >> ./test-expected/test5-diff.txt
+
+FILE=./test-expected/test5-diff.txt
+
+if [[ ! -s $FILE ]] ; then
+  echo Test 4 passed
+else
+  cat $FILE
+  echo Test 4 failed
+  passed=false
+fi
+
+echo ... Test 4 COMPLETED
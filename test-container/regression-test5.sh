@@ -0,0 +1,21 @@
+echo starting Test 5 ....
+# set any environment configs for this test. Change the conversion.list as needed
+# filters moved into the processors of the input they select
+unset FLB_IDIOMATICFORM
+export FLB_PROCESSORS=true
+export FLB_PATH_PREFIX=./test-src/
+java FLBConverter.java test6.conf
+diff -B ./test-expected/test6.yaml ./test-src/test6.yaml >> ./test-expected/test6-diff.txt
+unset FLB_PROCESSORS
+
+FILE=./test-expected/test6-diff.txt
+
+if [[ ! -s $FILE ]] ; then
+  echo Test 5 passed
+else
+  cat $FILE
+  echo Test 5 failed
+  passed=false
+fi
+
+echo ... Test 5 COMPLETED
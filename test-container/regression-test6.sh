@@ -0,0 +1,38 @@
+echo starting Test 6 ....
+# set any environment configs for this test. Change the conversion.list as needed
+# adjacent filters merged into one. Beyond matching the expected YAML, the
+# merged filters must hold exactly the rules of the filters they replace
+unset FLB_IDIOMATICFORM
+export FLB_PATH_PREFIX=./test-src/
+java FLBConverter.java test7.conf
+mv ./test-src/test7.yaml ./test-src/test7-unmerged.yaml
+export FLB_FUSE_FILTERS=true
+java FLBConverter.java test7.conf
+unset FLB_FUSE_FILTERS
+diff -B ./test-expected/test7.yaml ./test-src/test7.yaml >> ./test-expected/test7-diff.txt
+
+# the rules each Match applies, in the order they run, ignoring which filter
+# they're in. record_modifier removes keys before adding records, so a
+# filter's Remove_key rules are listed ahead of its Record rules
+for f in test7-unmerged test7; do
+  sed -n '/^  filters:/,/^  outputs:/p' ./test-src/$f.yaml | awk '
+    function flush() { rules[match_] = rules[match_] removes adds; removes = ""; adds = "" }
+    /- name:/ { flush(); name = $3; next }
+    /^ *Match:/ { match_ = $2; if (!(match_ in rules)) { order[++count] = match_; rules[match_] = "" } next }
+    /^ *#/ || /^ *$/ || /filters:/ || /outputs:/ { next }
+    { sub(/^ */, ""); rule = name " " $0 "\n"; if ((name == "record_modifier") && ($1 == "Remove_key:")) { removes = removes rule } else { adds = adds rule } }
+    END { flush(); for (i = 1; i <= count; i++) { printf "%s\n%s", order[i], rules[order[i]] } }' > ./test-src/$f-rules.txt
+done
+diff ./test-src/test7-unmerged-rules.txt ./test-src/test7-rules.txt >> ./test-expected/test7-diff.txt
+
+FILE=./test-expected/test7-diff.txt
+
+if [[ ! -s $FILE ]] ; then
+  echo Test 6 passed
+else
+  cat $FILE
+  echo Test 6 failed
+  passed=false
+fi
+
+echo ... Test 6 COMPLETED
@@ -0,0 +1,30 @@
+echo starting Test 7 ....
+# set any environment configs for this test. Change the conversion.list as needed
+# a tree converted twice with the conversion cache - the second run finds
+# every file unchanged, which mustn't be counted as a failure
+unset FLB_IDIOMATICFORM
+export FLB_PATH_PREFIX=./test-src/
+mkdir -p ./test-src/tree/a ./test-src/tree/b
+cp ./test-src/test3.conf ./test-src/test5.conf ./test-src/tree/a/
+cp ./test-src/test7.conf ./test-src/tree/b/
+rm -f ./test-src/.flb-conversion-cache
+export FLB_TREE_ROOT=tree
+export FLB_CONVERSION_CACHE=true
+java FLBConverter.java > ./test-src/tree-first.txt
+java FLBConverter.java > ./test-src/tree-second.txt
+unset FLB_TREE_ROOT
+unset FLB_CONVERSION_CACHE
+
+FILE=./test-expected/tree-diff.txt
+grep -q "Converted 3 files from .*, 0 unchanged, 0 failed" ./test-src/tree-first.txt || echo "first run: $(grep 'Converted ' ./test-src/tree-first.txt)" >> $FILE
+grep -q "Converted 0 files from .*, 3 unchanged, 0 failed" ./test-src/tree-second.txt || echo "second run: $(grep 'Converted ' ./test-src/tree-second.txt)" >> $FILE
+
+if [[ ! -s $FILE ]] ; then
+  echo Test 7 passed
+else
+  cat $FILE
+  echo Test 7 failed
+  passed=false
+fi
+
+echo ... Test 7 COMPLETED
@@ -0,0 +1,50 @@
+echo starting Test 8 ....
+# set any environment configs for this test. Change the conversion.list as needed
+# watch mode with a fragment that is edited twice - each edit must be picked
+# up, rather than the fragment's first parse being used again
+unset FLB_IDIOMATICFORM
+export FLB_PATH_PREFIX=./test-src/
+mkdir -p ./test-src/watch
+printf '[SERVICE]\n    flush 1\n\n@include watch/fragment.conf\n\n[OUTPUT]\n    Name stdout\n    Match *\n' > ./test-src/watch/main.conf
+printf '[INPUT]\n    Name cpu\n    Tag first\n' > ./test-src/watch/fragment.conf
+rm -f ./test-src/watch/main.yaml
+
+FILE=./test-expected/watch-diff.txt
+# waits up to 30 seconds for the YAML to hold the text
+wait_for() {
+  for i in $(seq 1 60); do
+    if grep -q "$1" ./test-src/watch/main.yaml 2>/dev/null; then
+      return 0
+    fi
+    sleep 0.5
+  done
+  echo "main.yaml never held $1" >> $FILE
+  return 1
+}
+
+export FLB_WATCH=true
+export FLB_RESOLVE_INCLUDES=true
+export FLB_WATCH_DEBOUNCE_MS=200
+java FLBConverter.java watch/main.conf > ./test-src/watch.txt &
+WATCHER=$!
+wait_for "Tag: first"
+printf '[INPUT]\n    Name cpu\n    Tag second\n' > ./test-src/watch/fragment.conf
+wait_for "Tag: second"
+printf '[INPUT]\n    Name mem\n    Tag third\n' > ./test-src/watch/fragment.conf
+wait_for "Tag: third"
+kill $WATCHER
+wait $WATCHER 2>/dev/null
+unset FLB_WATCH
+unset FLB_RESOLVE_INCLUDES
+unset FLB_WATCH_DEBOUNCE_MS
+grep -q "name: mem" ./test-src/watch/main.yaml || echo "main.yaml doesn't hold the second edit's input" >> $FILE
+
+if [[ ! -s $FILE ]] ; then
+  echo Test 8 passed
+else
+  cat $FILE
+  echo Test 8 failed
+  passed=false
+fi
+
+echo ... Test 8 COMPLETED
@@ -0,0 +1,22 @@
+echo starting Test 9 ....
+# set any environment configs for this test. Change the conversion.list as needed
+# an included file with its own [SERVICE] - resolving the include must merge
+# every setting of both services, with the included settings winning
+unset FLB_IDIOMATICFORM
+export FLB_PATH_PREFIX=./test-src/
+export FLB_RESOLVE_INCLUDES=true
+java FLBConverter.java test8.conf
+unset FLB_RESOLVE_INCLUDES
+diff -B ./test-expected/test8.yaml ./test-src/test8.yaml >> ./test-expected/test8-diff.txt
+
+FILE=./test-expected/test8-diff.txt
+
+if [[ ! -s $FILE ]] ; then
+  echo Test 9 passed
+else
+  cat $FILE
+  echo Test 9 failed
+  passed=false
+fi
+
+echo ... Test 9 COMPLETED
@@ -16,6 +16,42 @@ if $passed; then
 fi
 # ---- end of test 3 ----
 
+# -- Test 4 --
+if $passed; then
+  source regression-test4.sh
+fi
+# ---- end of test 4 ----
+
+# -- Test 5 --
+if $passed; then
+  source regression-test5.sh
+fi
+# ---- end of test 5 ----
+
+# -- Test 6 --
+if $passed; then
+  source regression-test6.sh
+fi
+# ---- end of test 6 ----
+
+# -- Test 7 --
+if $passed; then
+  source regression-test7.sh
+fi
+# ---- end of test 7 ----
+
+# -- Test 8 --
+if $passed; then
+  source regression-test8.sh
+fi
+# ---- end of test 8 ----
+
+# -- Test 9 --
+if $passed; then
+  source regression-test9.sh
+fi
+# ---- end of test 9 ----
+
 echo
 echo -- summary of files --
 echo Expected contains ...